@@ -42,7 +42,7 @@ class ConfigOptionMap(StrEnum):
     raise ValueError(f"Невідомий параметр: {option_map}")
 
 class Config:
-  KEYS_TO_IGNORE = {"outputFilePrefix", "isCyclic", "stepDuration"}
+  KEYS_TO_IGNORE = {"outputFilePrefix", "isCyclic", "stepDuration", "engine", "threads", "writeSnapshots", "outputFormat", "deltaKeyframeInterval", "aggregateSegmentLength", "aggregateWindow", "detectors", "detectorInterval", "sweep", "sweepRange", "sweepWorkers", "sweepShardSize", "sweepSummary", "sweepContinuation", "continuationStepCount", "writeQueueSize", "writeBackpressure", "fastForward", "replicas", "offHeapFile", "checkpointInterval", "steadyState", "ciTargetWidth", "resultCache"}
 
   def __init__(self):
     self.roadLength = 0
@@ -58,6 +58,31 @@ class Config:
     self.startAccelerationProbability = 0.0 # p0
     self.useMaxSpeedBrakingProbability = False
     self.maxSpeedBrakingProbability = 0.0
+    self.engine = "object"
+    self.threads = 0
+    self.writeSnapshots = True
+    self.outputFormat = "text"
+    self.deltaKeyframeInterval = 1000
+    self.aggregateSegmentLength = 0
+    self.aggregateWindow = 100
+    self.detectors = ""
+    self.detectorInterval = 100
+    self.sweep = ""
+    self.sweepRange = ""
+    self.sweepWorkers = 0
+    self.sweepShardSize = 1000
+    self.sweepSummary = ""
+    self.sweepContinuation = "none"
+    self.continuationStepCount = 0
+    self.writeQueueSize = 0
+    self.writeBackpressure = "block"
+    self.fastForward = False
+    self.replicas = 1
+    self.offHeapFile = ""
+    self.checkpointInterval = 0
+    self.steadyState = False
+    self.ciTargetWidth = 0.0
+    self.resultCache = ""
 
   def setField(self, key: str, value: str):
     if key == "roadLength":
@@ -86,6 +111,56 @@ class Config:
       self.useMaxSpeedBrakingProbability = value.lower() in ("true", "1", "yes")
     elif key == "maxSpeedBrakingProbability":
       self.maxSpeedBrakingProbability = float(value)
+    elif key == "engine":
+      self.engine = value
+    elif key == "threads":
+      self.threads = int(value)
+    elif key == "writeSnapshots":
+      self.writeSnapshots = value.lower() in ("true", "1", "yes")
+    elif key == "outputFormat":
+      self.outputFormat = value.lower()
+    elif key == "deltaKeyframeInterval":
+      self.deltaKeyframeInterval = int(value)
+    elif key == "aggregateSegmentLength":
+      self.aggregateSegmentLength = int(value)
+    elif key == "aggregateWindow":
+      self.aggregateWindow = int(value)
+    elif key == "detectors":
+      self.detectors = value
+    elif key == "detectorInterval":
+      self.detectorInterval = int(value)
+    elif key == "sweep":
+      self.sweep = value
+    elif key == "sweepRange":
+      self.sweepRange = value
+    elif key == "sweepWorkers":
+      self.sweepWorkers = int(value)
+    elif key == "sweepShardSize":
+      self.sweepShardSize = int(value)
+    elif key == "sweepSummary":
+      self.sweepSummary = value
+    elif key == "sweepContinuation":
+      self.sweepContinuation = value.lower()
+    elif key == "continuationStepCount":
+      self.continuationStepCount = int(value)
+    elif key == "writeQueueSize":
+      self.writeQueueSize = int(value)
+    elif key == "writeBackpressure":
+      self.writeBackpressure = value.lower()
+    elif key == "fastForward":
+      self.fastForward = value.lower() in ("true", "1", "yes")
+    elif key == "replicas":
+      self.replicas = int(value)
+    elif key == "offHeapFile":
+      self.offHeapFile = value
+    elif key == "checkpointInterval":
+      self.checkpointInterval = int(value)
+    elif key == "steadyState":
+      self.steadyState = value.lower() in ("true", "1", "yes")
+    elif key == "ciTargetWidth":
+      self.ciTargetWidth = float(value)
+    elif key == "resultCache":
+      self.resultCache = value
       
     else:
       raise ValueError(f"Невідоме поле: {key}")
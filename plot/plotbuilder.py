@@ -156,7 +156,7 @@ def main() -> int:
 
   configs_with_stats = dict[Config, set]()
   for config in filtered_configs:
-    position, velocity, time, average_speed, density, flow = read_stats(config.outputFilePrefix)
+    position, velocity, time, average_speed, density, flow = read_stats(config.outputFilePrefix, config.outputFormat)
     configs_with_stats[config] = (position, velocity, time, average_speed, density, flow)
 
   grouped_configs = get_grouped_configs(configs_with_stats, args)
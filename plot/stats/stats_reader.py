@@ -1,18 +1,176 @@
+import os
 import numpy as np
 
-def read_stats(file_name_prefix: str):
-  position_file = open(f"{file_name_prefix}/position", "r")
-  velocity_file = open(f"{file_name_prefix}/velocity", "r")
+BINARY_HEADER = np.dtype([("magic", "S4"), ("version", "<i4"), ("row_type", "<i4"), ("max_speed", "<i4"),
+                          ("road_length", "<i8"), ("row_count", "<i8"), ("model", "S32")])
+DELTA_HEADER = np.dtype([("magic", "S4"), ("version", "<i4"), ("keyframe_interval", "<i4"), ("max_speed", "<i2"),
+                         ("cyclic", "i1"), ("padding", "i1"), ("road_length", "<i8"), ("frame_count", "<i8"),
+                         ("model", "S32")])
+DELTA_FRAME_HEADER_SIZE = 5
+
+def read_stats(file_name_prefix: str, output_format: str = "text"):
+  if output_format == "binary":
+    position = read_binary_spacetime(f"{file_name_prefix}/position.bin")
+    velocity = read_binary_spacetime(f"{file_name_prefix}/velocity.bin")
+  elif output_format == "delta":
+    position, velocity = read_delta_spacetime(f"{file_name_prefix}/spacetime.delta")
+  else:
+    position = np.loadtxt(f"{file_name_prefix}/position", dtype=int)
+    velocity = np.loadtxt(f"{file_name_prefix}/velocity", dtype=int)
   time_file = open(f"{file_name_prefix}/time", "r")
   average_speed_file = open(f"{file_name_prefix}/average_speed", "r")
   density_file = open(f"{file_name_prefix}/density", "r")
   flow_file = open(f"{file_name_prefix}/flow", "r")
 
-  position = np.loadtxt(position_file, dtype=int)
-  velocity = np.loadtxt(velocity_file, dtype=int)
   time = np.loadtxt(time_file, dtype=int)
   average_speed = np.loadtxt(average_speed_file, dtype=float)
   density = np.loadtxt(density_file, dtype=float)
   flow = np.loadtxt(flow_file, dtype=float)
 
-  return position, velocity, time, average_speed, density, flow
\ No newline at end of file
+  return position, velocity, time, average_speed, density, flow
+
+# position.bin or velocity.bin written with outputFormat=binary: rows x road length array mapped from the file,
+# occupancy rows are unpacked to 0/1 unless packed=True, velocity rows are int8
+def read_binary_spacetime(file_name: str, packed: bool = False):
+  header = np.fromfile(file_name, dtype=BINARY_HEADER, count=1)[0]
+  if header["magic"] != b"TMST":
+    raise ValueError(f"Файл {file_name} не є двійковим файлом простору-часу")
+  road_length = int(header["road_length"])
+  occupancy = header["row_type"] == 0
+  row_bytes = (road_length + 7) // 8 if occupancy else road_length
+  # whole rows are counted by the file size, the row count of the header is only updated when the writer flushes
+  row_count = (os.path.getsize(file_name) - BINARY_HEADER.itemsize) // row_bytes
+  rows = np.memmap(file_name, dtype=np.uint8 if occupancy else np.int8, mode="r",
+                   offset=BINARY_HEADER.itemsize, shape=(row_count, row_bytes))
+  if occupancy and not packed:
+    return np.unpackbits(rows, axis=1, count=road_length, bitorder="little")
+  return rows
+
+# spacetime.delta written with outputFormat=delta: occupancy and velocity rows of frames first..last - 1, the same
+# as the rows of the text files. Decoding starts at the closest keyframe before first
+def read_delta_spacetime(file_name: str, first: int = 0, last: int = None):
+  header = np.fromfile(file_name, dtype=DELTA_HEADER, count=1)[0]
+  if header["magic"] != b"TMSD":
+    raise ValueError(f"Файл {file_name} не є дельта-файлом простору-часу")
+  road_length = int(header["road_length"])
+  data = np.fromfile(file_name, dtype=np.uint8, offset=DELTA_HEADER.itemsize)
+
+  # frames are counted by their headers, the frame count of the header is only updated when the writer flushes,
+  # and a running or killed writer can leave a part of a frame at the end
+  frames = []
+  offset = 0
+  while offset + DELTA_FRAME_HEADER_SIZE <= len(data):
+    length = int(data[offset + 1:offset + DELTA_FRAME_HEADER_SIZE].view("<i4")[0])
+    if offset + DELTA_FRAME_HEADER_SIZE + length > len(data):
+      break
+    frames.append((int(data[offset]), offset + DELTA_FRAME_HEADER_SIZE, length))
+    offset += DELTA_FRAME_HEADER_SIZE + length
+  last = len(frames) if last is None else min(last, len(frames))
+  first = min(first, last)
+  start = first
+  while start > 0 and frames[start][0] != 0:
+    start -= 1
+
+  position = np.zeros((last - first, road_length), dtype=np.uint8)
+  velocity = np.zeros((last - first, road_length), dtype=np.int8)
+  cells = np.full(road_length, -1, dtype=np.int16) # velocity of the car in a cell, -1 for an empty cell
+  for frame in range(start, last):
+    kind, offset, length = frames[frame]
+    payload = data[offset:offset + length]
+    if kind == 0:
+      _apply_keyframe(payload, cells)
+    else:
+      _apply_delta(payload, cells)
+    if frame >= first:
+      row = frame - first
+      position[row] = cells >= 0
+      velocity[row] = _cell_velocities(cells, bool(header["cyclic"]), int(header["max_speed"]))
+  return position, velocity
+
+def _read_varint(payload, offset: int):
+  value = 0
+  shift = 0
+  while True:
+    byte = int(payload[offset])
+    offset += 1
+    value |= (byte & 0x7F) << shift
+    if byte < 0x80:
+      return value, offset
+    shift += 7
+
+def _apply_keyframe(payload, cells):
+  cells.fill(-1)
+  car_count, offset = _read_varint(payload, 0)
+  cell = 0
+  for _ in range(car_count):
+    distance, offset = _read_varint(payload, offset)
+    cell += distance
+    cells[cell] = payload[offset]
+    offset += 1
+
+def _apply_delta(payload, cells):
+  offset = 0
+  cell = 0
+  while offset < len(payload):
+    gap, offset = _read_varint(payload, offset)
+    length, offset = _read_varint(payload, offset)
+    cell += gap
+    cells[cell:cell + length] = payload[offset:offset + length].astype(np.int16) - 1
+    offset += length
+    cell += length
+
+# velocity row like in the text files: empty cells get the velocity of the next car
+def _cell_velocities(cells, cyclic: bool, max_speed: int):
+  car_positions = np.flatnonzero(cells >= 0)
+  car_velocities = cells[car_positions]
+  if cyclic:
+    last_cells_velocity = car_velocities[0] if len(car_velocities) > 0 else -1
+  else:
+    last_cells_velocity = max_speed
+  next_car = np.searchsorted(car_positions, np.arange(len(cells)))
+  return np.append(car_velocities, last_cells_velocity)[next_car]
+
+# written with aggregateSegmentLength: windows x segments arrays of density, flow and space-mean speed (NaN for
+# segments without cars)
+def read_aggregate_stats(file_name_prefix: str):
+  density = np.loadtxt(f"{file_name_prefix}/segment_density", dtype=float, ndmin=2)
+  flow = np.loadtxt(f"{file_name_prefix}/segment_flow", dtype=float, ndmin=2)
+  speed = np.loadtxt(f"{file_name_prefix}/segment_speed", dtype=float, ndmin=2)
+  return density, flow, speed
+
+# written with detectors: intervals x detectors arrays of vehicle counts, time-mean speeds (NaN if no vehicle
+# passed) and occupancies, detectors are in the order of their positions
+def read_detector_stats(file_name_prefix: str):
+  detectors = np.loadtxt(f"{file_name_prefix}/detectors", dtype=float, ndmin=2)
+  return detectors[:, 0::3].astype(int), detectors[:, 1::3], detectors[:, 2::3]
+
+# written by the ensemble mode (replicas > 1): mean and variance across replicas for every step
+def read_ensemble_stats(file_name_prefix: str):
+  ensemble = np.loadtxt(f"{file_name_prefix}/ensemble", dtype=float, ndmin=2)
+  density_mean, density_variance = ensemble[:, 0], ensemble[:, 1]
+  average_speed_mean, average_speed_variance = ensemble[:, 2], ensemble[:, 3]
+  flow_mean, flow_variance = ensemble[:, 4], ensemble[:, 5]
+  return density_mean, density_variance, average_speed_mean, average_speed_variance, flow_mean, flow_variance
+
+# written with steadyState or ciTargetWidth: steps of the run, then warm-up steps, steady-state mean and
+# 95% confidence interval half-width of the average speed and of the flow
+def read_steady_state_stats(file_name_prefix: str):
+  steady_state = np.loadtxt(f"{file_name_prefix}/steady_state", dtype=float)
+  steps = int(steady_state[0])
+  average_speed_warm_up, average_speed_mean, average_speed_half_width = steady_state[1:4]
+  flow_warm_up, flow_mean, flow_half_width = steady_state[4:7]
+  return (steps, int(average_speed_warm_up), average_speed_mean, average_speed_half_width,
+          int(flow_warm_up), flow_mean, flow_half_width)
+
+# written by sweeps with a summary file: a line per completed grid point with its output directory and the
+# density, average speed and flow averaged over all steps (NaN for ensembles)
+def read_sweep_summary(file_name: str):
+  directories, densities, average_speeds, flows = [], [], [], []
+  with open(file_name) as summary:
+    for line in summary:
+      directory, density, average_speed, flow = line.rstrip("\n").split("\t")
+      directories.append(directory)
+      densities.append(float(density))
+      average_speeds.append(float(average_speed))
+      flows.append(float(flow))
+  return directories, np.array(densities), np.array(average_speeds), np.array(flows)
@@ -1,53 +1,208 @@
 package m.traffic;
 
-import java.util.ArrayList;
+import java.nio.file.Path;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 import java.util.logging.Logger;
 import org.apache.commons.cli.ParseException;
 import m.traffic.core.data.config.SimulationConfig;
+import m.traffic.core.data.state.SimulationStatistics;
+import m.traffic.core.data.state.TrafficSnapshot;
+import m.traffic.core.engine.EnsembleEngine;
 import m.traffic.core.engine.SimulationEngine;
+import m.traffic.core.engine.SimulationScheduler;
+import m.traffic.core.model.ContinuationModel;
 import m.traffic.core.model.TrafficModel;
+import m.traffic.core.model.ensemble.EnsembleModel;
 import m.traffic.core.model.factory.ModelFactory;
+import m.traffic.core.model.type.ContinuationDirection;
+import m.traffic.stats.ResultCache;
+import m.traffic.stats.RunSummary;
+import m.traffic.stats.SweepSummaryFile;
 import m.traffic.util.ConfigParser;
+import m.traffic.util.ConfigSweep;
+import m.traffic.util.SweepCoordinator;
 
 public class Main {
 
   private static final Logger logger = Logger.getLogger(Main.class.getName());
+  private static final int SWEEP_WINDOW_PER_WORKER = 16;
+  private static final int FAILURE_EXIT_STATUS = 1; // a coordinator runs the shard of a failed worker again
 
   public static void main( String[] args ) throws ParseException {
     int poolSize = Runtime.getRuntime().availableProcessors();
-    ExecutorService pool = Executors.newFixedThreadPool(poolSize);
 
-    List<SimulationConfig> configs = ConfigParser.getSimulationConfig( args );
-    List<Future<?>> futures = new ArrayList<>(configs.size());
-    for (SimulationConfig config : configs) {
-      futures.add(pool.submit(() -> runWithSimulationConfig( config )));
+    ConfigSweep sweep = ConfigParser.getSweep( args );
+    int failures;
+    if (sweep != null && sweep.getContinuation() != ContinuationDirection.NONE) {
+      failures = runContinuationSweep( poolSize, sweep );
+    } else if (sweep != null && sweep.getWorkers() > 0) {
+      failures = new SweepCoordinator( sweep, Main.class, args ).run(); // failed shards, logged by the coordinator
+    } else if (sweep != null) {
+      failures = runSweep( poolSize, sweep );
+    } else {
+      List<SimulationConfig> configs = ConfigParser.getSimulationConfig( args );
+      failures = new SimulationScheduler(poolSize, Math.max(1, configs.size()))
+          .run(configs.iterator(), Main::runWithSimulationConfig);
+      logFailures( failures );
     }
-    pool.shutdown();
+    if (failures > 0) {
+      System.exit(FAILURE_EXIT_STATUS);
+    }
+  }
+
+  /**
+   * @return number of grid points that failed, the summary file is not completed if there are any
+   */
+  private static int runSweep( int poolSize, ConfigSweep sweep ) {
+    logger.info("Running grid points %d..%d of %d.".formatted(sweep.getFrom(), sweep.getTo(), sweep.getSize()));
+    SweepSummaryFile summary = sweep.getSummaryFile() != null
+        ? new SweepSummaryFile(Path.of(sweep.getSummaryFile()))
+        : null;
+    // only a window of the grid is ordered by cost, the grid itself can be too large to hold
+    SimulationScheduler scheduler = new SimulationScheduler(poolSize, SWEEP_WINDOW_PER_WORKER * poolSize);
+    int failures = scheduler.run(sweep.iterator(), config -> {
+      RunSummary result = runWithSimulationConfig( config );
+      if (summary != null) {
+        summary.add( result );
+      }
+    });
+    finishSummary( summary, failures );
+    logFailures( failures );
+    return failures;
+  }
 
-    completeAll(futures);
+  private static void logFailures( int failures ) {
+    if (failures > 0) {
+      logger.severe("%d simulations failed, see the errors above.".formatted(failures));
+    }
+  }
+
+  private static void finishSummary( SweepSummaryFile summary, int failures ) {
+    if (summary == null) {
+      return;
+    }
+    if (failures > 0) {
+      summary.abort(); // lines of the failed points are missing
+    } else {
+      summary.complete();
+    }
   }
 
-  private static void runWithSimulationConfig( SimulationConfig config ) {
-    TrafficModel model = ModelFactory.createModel( config.getModelType() );
+  /**
+   * Runs the car counts of every point of the other parameters as a chain: the points of a chain run one after
+   * another and each one starts from the final state of the previous one (see {@link ContinuationModel}), so only
+   * the first one pays the whole relaxation. Chains run in parallel. Outputs get the suffix of the direction,
+   * "_up" or "_down"; the down chain of "both" continues from the final state of the up chain.
+   * @return number of chains that failed
+   */
+  private static int runContinuationSweep( int poolSize, ConfigSweep sweep ) {
+    if (sweep.getFrom() != 0 || sweep.getTo() != sweep.getSize() || sweep.getWorkers() > 0) {
+      throw new IllegalArgumentException(
+          "Перебір з продовженням не ділиться на частини, sweepRange і sweepWorkers не підтримуються.");
+    }
+    if (sweep.getBaseConfig().getReplicas() > 1) {
+      throw new IllegalArgumentException("Перебір з продовженням не підтримує ансамблі, replicas має бути 1.");
+    }
+    double[] carCounts = sweep.getAxisValues( "carCount" );
+    double[] decreasingCarCounts = new double[carCounts.length];
+    for (int i = 0; i < carCounts.length; ++i) {
+      decreasingCarCounts[i] = carCounts[carCounts.length - 1 - i];
+    }
+    ConfigSweep chains = sweep.withoutAxis( "carCount" );
+    logger.info("Running %d chains of %d car counts.".formatted(chains.getSize(), carCounts.length));
+
+    SweepSummaryFile summary = sweep.getSummaryFile() != null
+        ? new SweepSummaryFile(Path.of(sweep.getSummaryFile()))
+        : null;
+    ContinuationDirection direction = sweep.getContinuation();
+    SimulationScheduler scheduler = new SimulationScheduler(poolSize, SWEEP_WINDOW_PER_WORKER * poolSize);
+    int failures = scheduler.run(chains.iterator(), config -> {
+      TrafficSnapshot state = null;
+      if (direction == ContinuationDirection.UP || direction == ContinuationDirection.BOTH) {
+        state = runChain( config, carCounts, "_up", null, sweep.getContinuationStepCount(), summary );
+      }
+      if (direction == ContinuationDirection.DOWN || direction == ContinuationDirection.BOTH) {
+        runChain( config, decreasingCarCounts, "_down", state, sweep.getContinuationStepCount(), summary );
+      }
+    });
+    finishSummary( summary, failures );
+    logFailures( failures );
+    return failures;
+  }
+
+  /**
+   * @param state final state of the point before the chain, null to start the first point from random cars
+   * @return final state of the last point
+   */
+  private static TrafficSnapshot runChain( SimulationConfig chainConfig, double[] carCounts, String suffix,
+      TrafficSnapshot state, int continuationStepCount, SweepSummaryFile summary ) {
+    for (double carCount : carCounts) {
+      SimulationConfig config = ConfigParser.copyConfig( chainConfig );
+      config.setCarCount((int) Math.round(carCount));
+      config.setOutputFilePrefix(config.getOutputFilePrefix() + suffix);
+      if (state != null && continuationStepCount > 0) {
+        config.setStepCount(continuationStepCount);
+      }
+      TrafficModel model = ModelFactory.createModel( config );
+      if (!(model instanceof ContinuationModel continuationModel)) {
+        throw new IllegalArgumentException("Модель %s не підтримує продовження стану, використайте рушій array."
+            .formatted(config.getModelType().getName()));
+      }
+      if (state == null) {
+        model.initialise(config);
+      } else {
+        continuationModel.initialise(config, state);
+      }
+
+      SimulationEngine engine = new SimulationEngine( model );
+      engine.run();
+      state = new TrafficSnapshot();
+      state.copyFrom(model.getSnapshot());
+      if (summary != null) {
+        summary.add( RunSummary.of( config, model.getStatistics() ) );
+      }
+    }
+    return state;
+  }
+
+  private static RunSummary runWithSimulationConfig( SimulationConfig config ) {
+    ResultCache resultCache = ResultCache.forConfig( config );
+    if (resultCache != null) {
+      RunSummary result = resultCache.find( config );
+      if (result != null) {
+        logger.info("Simulation %s skipped, its results are in %s.".formatted(config.toString(),
+            result.outputDirectory()));
+        return result;
+      }
+      resultCache.invalidate( config );
+    }
+
+    SimulationStatistics statistics = config.getReplicas() > 1 ? runEnsemble( config ) : runModel( config );
+    RunSummary result = RunSummary.of( config, statistics );
+    if (resultCache != null) {
+      resultCache.record( config, result );
+    }
+    return result;
+  }
+
+  private static SimulationStatistics runModel( SimulationConfig config ) {
+    TrafficModel model = ModelFactory.createModel( config );
     model.initialise(config);
 
     SimulationEngine engine = new SimulationEngine( model );
     engine.run();
+    return model.getStatistics();
   }
 
-  private static void completeAll( List<Future<?>> futures ) {
-    for (Future<?> future : futures) {
-      try {
-        logger.info("Waiting for a simulation configuration to complete...");
-        future.get();
-      } catch (Exception e) {
-        logger.severe("Error occurred while processing a simulation configuration: " + e.getMessage());
-        e.printStackTrace();
-      }
-    }
+  /**
+   * @return null, statistics of replicas are only in the ensemble file
+   */
+  private static SimulationStatistics runEnsemble( SimulationConfig config ) {
+    EnsembleModel model = new EnsembleModel();
+    model.initialise(config);
+
+    EnsembleEngine engine = new EnsembleEngine( model );
+    engine.run();
+    return null;
   }
 }
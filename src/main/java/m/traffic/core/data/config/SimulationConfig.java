@@ -1,15 +1,16 @@
 package m.traffic.core.data.config;
 
-import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.ToString;
+import m.traffic.core.model.type.BackpressurePolicy;
+import m.traffic.core.model.type.EngineType;
 import m.traffic.core.model.type.ModelType;
+import m.traffic.core.model.type.OutputFormat;
 
 @Getter
 @Setter
 @ToString
-@AllArgsConstructor
 public class SimulationConfig {
   public static final int INFINITE_STEP_COUNT = -1;
   public static final int NO_STEP_DURATION = 0;
@@ -25,12 +26,52 @@ public class SimulationConfig {
   private long randomSeed;
   private ModelType modelType;
 
+  // engine options, not part of the constructor. The object, array, vector and offheap engines give the same
+  // trajectories, and output options only change what is written. These options change the results:
+  // a threads value (1 included) and the segmented engine use the Philox generator instead of the sequence of
+  // randomSeed, so runs with any number of threads agree with each other but not with a run without threads,
+  // replicas adds runs with the following seeds, fastForward leaves skipped steps out of the per-step files,
+  // ciTargetWidth can end the run before stepCount and writeBackpressure=drop can leave steps out of the files
+  private EngineType engineType = EngineType.OBJECT;
+  private int threads = 0; // worker threads used to step a single simulation, 0 steps it on the calling thread
+  private boolean writeSnapshots = true; // write positions, velocities and time of every step
+  private OutputFormat outputFormat = OutputFormat.TEXT; // format of the position and velocity files
+  private int deltaKeyframeInterval = 1000; // frames between keyframes of the delta format
+  private int aggregateSegmentLength = 0; // cells of a segment of the segment_* files, 0 disables them
+  private int aggregateWindow = 100; // steps averaged in a line of the segment_* files
+  private String detectors = ""; // comma-separated cells of loop detectors of the detectors file, empty disables it
+  private int detectorInterval = 100; // steps summed in a line of the detectors file
+  private int writeQueueSize = 0; // steps queued for a separate writer thread, 0 writes files on the simulation thread
+  private BackpressurePolicy writeBackpressure = BackpressurePolicy.BLOCK; // what to do when the write queue is full
+  private boolean fastForward = false; // skip many steps at once if the model supports it and snapshots are not written
+  private int replicas = 1; // runs with seeds randomSeed, randomSeed + 1, ... stepped together as one ensemble
+  private String offHeapFile = ""; // file mapped as the car store of the off-heap engine, direct memory if empty
+  private int checkpointInterval = 0; // steps between checkpoints of the model state, 0 disables them
+  private boolean resume = false; // continue from the checkpoint of a previous run, set by --resume
+  private boolean steadyState = false; // estimate steady-state speed and flow without the warm-up
+  private double ciTargetWidth = 0; // stop when relative half-widths of speed and flow CIs reach it, 0 disables
+  private String resultCache = ""; // directory of records of completed runs that are skipped, empty disables it
+
+  public SimulationConfig(int roadLength, int carCount, int maxSpeed, int stepDuration, double brakingProbability,
+      boolean isCyclic, String outputFilePrefix, int stepCount, long randomSeed, ModelType modelType) {
+    this.roadLength = roadLength;
+    this.carCount = carCount;
+    this.maxSpeed = maxSpeed;
+    this.stepDuration = stepDuration;
+    this.brakingProbability = brakingProbability;
+    this.isCyclic = isCyclic;
+    this.outputFilePrefix = outputFilePrefix;
+    this.stepCount = stepCount;
+    this.randomSeed = randomSeed;
+    this.modelType = modelType;
+  }
+
   public static SimulationConfig defaultConfig() {
     return new SimulationConfig(20, 3, 5, 100, 0.3f, false, "out/test", 200, 394, ModelType.NAGEL_SCHRECKENBERG);
   }
 
   public static SimulationConfig copyConfig(SimulationConfig config) {
-    return new SimulationConfig(
+    return copyEngineOptions(config, new SimulationConfig(
         config.roadLength,
         config.carCount,
         config.maxSpeed,
@@ -41,6 +82,29 @@ public class SimulationConfig {
         config.stepCount,
         config.randomSeed,
         config.modelType
-    );
+    ));
+  }
+
+  public static <T extends SimulationConfig> T copyEngineOptions(SimulationConfig source, T target) {
+    target.setEngineType(source.getEngineType());
+    target.setThreads(source.getThreads());
+    target.setWriteSnapshots(source.isWriteSnapshots());
+    target.setOutputFormat(source.getOutputFormat());
+    target.setDeltaKeyframeInterval(source.getDeltaKeyframeInterval());
+    target.setAggregateSegmentLength(source.getAggregateSegmentLength());
+    target.setAggregateWindow(source.getAggregateWindow());
+    target.setDetectors(source.getDetectors());
+    target.setDetectorInterval(source.getDetectorInterval());
+    target.setWriteQueueSize(source.getWriteQueueSize());
+    target.setWriteBackpressure(source.getWriteBackpressure());
+    target.setFastForward(source.isFastForward());
+    target.setReplicas(source.getReplicas());
+    target.setOffHeapFile(source.getOffHeapFile());
+    target.setCheckpointInterval(source.getCheckpointInterval());
+    target.setResume(source.isResume());
+    target.setSteadyState(source.isSteadyState());
+    target.setCiTargetWidth(source.getCiTargetWidth());
+    target.setResultCache(source.getResultCache());
+    return target;
   }
 }
@@ -43,7 +43,7 @@ public class VelocityBasedModelConfig extends SimulationConfig {
   }
 
   public static VelocityBasedModelConfig copyConfig(VelocityBasedModelConfig config) {
-    return new VelocityBasedModelConfig(
+    return copyEngineOptions(config, new VelocityBasedModelConfig(
         config.getRoadLength(),
         config.getCarCount(),
         config.getMaxSpeed(),
@@ -57,6 +57,6 @@ public class VelocityBasedModelConfig extends SimulationConfig {
         config.getStartAccelerationProbability(),
         config.isUseMaxSpeedBrakingProbability(),
         config.getMaxSpeedBrakingProbability()
-    );
+    ));
   }
 }
\ No newline at end of file
@@ -0,0 +1,15 @@
+package m.traffic.core.data.state;
+
+/**
+ * Cars of a step read directly from the storage of a model, by index in road order.
+ * <p>
+ * A view is not an immutable snapshot: it is only valid on the stepping thread until the next step, and views of
+ * packed storage keep a cursor, so reads should go through the cars in order. Readers that keep a snapshot past
+ * the step or hand it to another thread copy it, {@link TrafficSnapshot#retain()} returns false for views.
+ */
+public interface CarView {
+
+  int getPosition(int index);
+
+  int getVelocity(int index);
+}
@@ -1,9 +1,11 @@
 package m.traffic.core.data.state;
 
+import java.nio.ByteBuffer;
 import lombok.AllArgsConstructor;
 
 @AllArgsConstructor
 public class SimulationStatistics {
+  public static final int BYTES = 3 * Double.BYTES + Long.BYTES; // size of the saved state
 
   private double densitySum; // sum of densities over all iterations
   private double averageSpeedSum; // sum of average speeds over all iterations
@@ -38,4 +40,19 @@ public class SimulationStatistics {
   public void incrementIterationCount() {
     iterationCount++;
   }
+
+  public void incrementIterationCount(long count) {
+    iterationCount += count;
+  }
+
+  public void saveState(ByteBuffer buffer) {
+    buffer.putDouble(densitySum).putDouble(averageSpeedSum).putDouble(flowSum).putLong(iterationCount);
+  }
+
+  public void restoreState(ByteBuffer buffer) {
+    densitySum = buffer.getDouble();
+    averageSpeedSum = buffer.getDouble();
+    flowSum = buffer.getDouble();
+    iterationCount = buffer.getLong();
+  }
 }
@@ -0,0 +1,98 @@
+package m.traffic.core.data.state;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import m.traffic.core.data.config.SimulationConfig;
+
+/**
+ * Fixed set of snapshots that a model refills instead of allocating new arrays every step. The model acquires a
+ * free snapshot, fills it and publishes it, which releases the snapshot of the previous step. A snapshot is free
+ * again when the model and every reader that retained it have released it, so readers on other threads see a whole
+ * step without copying. If readers hold all snapshots, the model waits for one of them.
+ */
+public class SnapshotPool {
+  private static final int MIN_SIZE = 3; // published, being filled and one held by a reader
+
+  private final TrafficSnapshot[] snapshots;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition released = lock.newCondition();
+  private TrafficSnapshot published;
+  private int next = 0;
+
+  public SnapshotPool(int size) {
+    snapshots = new TrafficSnapshot[size];
+    for (int i = 0; i < size; ++i) {
+      snapshots[i] = new TrafficSnapshot();
+      snapshots[i].pool = this;
+    }
+  }
+
+  /**
+   * Pool for a model, large enough for the write queue of its statistics to retain a snapshot per record.
+   */
+  public static SnapshotPool forConfig(SimulationConfig config) {
+    return new SnapshotPool(Math.max(MIN_SIZE, config.getWriteQueueSize() + 2));
+  }
+
+  /**
+   * Free snapshot with arrays for at least carCount cars, to be filled and published by the caller.
+   */
+  public TrafficSnapshot acquire(int carCount) {
+    lock.lock();
+    try {
+      TrafficSnapshot snapshot;
+      while ((snapshot = findFree()) == null) {
+        released.awaitUninterruptibly();
+      }
+      snapshot.references = 1;
+      snapshot.setCarView(null);
+      snapshot.ensureCapacity(carCount);
+      return snapshot;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private TrafficSnapshot findFree() {
+    for (int i = 0; i < snapshots.length; ++i) {
+      TrafficSnapshot snapshot = snapshots[(next + i) % snapshots.length];
+      if (snapshot.references == 0) {
+        next = (next + i + 1) % snapshots.length;
+        return snapshot;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Makes the filled snapshot the current one of the model and releases the previous one.
+   */
+  public TrafficSnapshot publish(TrafficSnapshot snapshot) {
+    TrafficSnapshot previous = published;
+    published = snapshot;
+    if (previous != null) {
+      release(previous);
+    }
+    return snapshot;
+  }
+
+  void retain(TrafficSnapshot snapshot) {
+    lock.lock();
+    try {
+      snapshot.references++;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  void release(TrafficSnapshot snapshot) {
+    lock.lock();
+    try {
+      if (--snapshot.references == 0) {
+        released.signal();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+}
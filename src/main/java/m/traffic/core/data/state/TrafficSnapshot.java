@@ -1,19 +1,99 @@
 package m.traffic.core.data.state;
 
-import java.util.List;
-
+import lombok.AccessLevel;
 import lombok.Getter;
-import lombok.Setter;
-import m.traffic.core.data.simulation.Cell;
-import m.traffic.core.data.simulation.Vehicle;
 
+/**
+ * Cars of one step. Snapshots of a model come from its {@link SnapshotPool} and are read-only once published,
+ * a reader that keeps one after the next step has to {@link #retain()} and {@link #release()} it.
+ */
 @Getter
-@Setter
 public class TrafficSnapshot {
 
-  private List<Cell> road;
-  private List<Vehicle> cars;
+  private int roadLength;
+  private int carCount;
+  private int[] positions; // car positions sorted by road position, first carCount elements are valid
+  private int[] velocities; // car velocities in the same order as positions
+  private CarView carView; // used instead of the arrays by models that keep cars off-heap, valid until the next step
   private int stepCount;
   private int stepDuration;
   private int vehiclesPassed;
+  private int enteredCars; // first cars in road order, put back at the start of an open road in this step
+
+  @Getter(AccessLevel.NONE)
+  SnapshotPool pool; // null if the snapshot is not pooled
+  @Getter(AccessLevel.NONE)
+  int references = 0; // guarded by the pool
+
+  public int getPosition(int index) {
+    return carView != null ? carView.getPosition(index) : positions[index];
+  }
+
+  public int getVelocity(int index) {
+    return carView != null ? carView.getVelocity(index) : velocities[index];
+  }
+
+  /**
+   * Step fields, set by the model after it filled the arrays and before it publishes the snapshot.
+   * Clears the entered cars, models of open roads set them after this.
+   */
+  public void setStep(int roadLength, int carCount, int stepCount, int vehiclesPassed) {
+    this.roadLength = roadLength;
+    this.carCount = carCount;
+    this.stepCount = stepCount;
+    this.vehiclesPassed = vehiclesPassed;
+    this.enteredCars = 0;
+  }
+
+  /**
+   * Cars that left an open road in this step and were put back at its start, they did not drive to their cells.
+   */
+  public void setEnteredCars(int enteredCars) {
+    this.enteredCars = enteredCars;
+  }
+
+  public void setCarView(CarView carView) {
+    this.carView = carView;
+  }
+
+  /**
+   * Copies cars and step fields of another snapshot into own arrays, which grow only if they are too short.
+   */
+  public void copyFrom(TrafficSnapshot source) {
+    int count = source.getCarCount();
+    ensureCapacity(count);
+    for (int i = 0; i < count; ++i) {
+      positions[i] = source.getPosition(i);
+      velocities[i] = source.getVelocity(i);
+    }
+    carView = null;
+    stepDuration = source.getStepDuration();
+    setStep(source.getRoadLength(), count, source.getStepCount(), source.getVehiclesPassed());
+    enteredCars = source.getEnteredCars();
+  }
+
+  void ensureCapacity(int carCount) {
+    if (positions == null || positions.length < carCount) {
+      positions = new int[carCount];
+      velocities = new int[carCount];
+    }
+  }
+
+  /**
+   * Keeps the snapshot from being refilled until {@link #release()}.
+   * @return false if the snapshot is not pooled or is a view of live model storage, it has to be copied then
+   */
+  public boolean retain() {
+    if (pool == null || carView != null) {
+      return false;
+    }
+    pool.retain(this);
+    return true;
+  }
+
+  public void release() {
+    if (pool != null) {
+      pool.release(this);
+    }
+  }
 }
@@ -0,0 +1,164 @@
+package m.traffic.core.engine;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+
+import m.traffic.core.model.CheckpointModel;
+import m.traffic.stats.SteadyStateCollector;
+
+/**
+ * Memory-mapped file with two slots for the state of a {@link CheckpointModel} and the lengths of its output
+ * files. Checkpoints are written to the slots in turn and a slot is marked valid only after it is fully written,
+ * so the previous checkpoint is still there if the process is killed while writing. A checkpoint is a copy of
+ * the model arrays into the mapping, the operating system writes the pages to the file.
+ * <p>
+ * Layout: magic, version, config fingerprint, size of a slot, then two slots of: step (-1 if invalid), output
+ * lengths, state of the stats collector, series of the steady-state collector if there is one, model state.
+ */
+public class CheckpointFile {
+  private static final int MAGIC = 0x544d4350; // "TMCP"
+  private static final int VERSION = 3;
+  private static final int VERSION_OFFSET = Integer.BYTES;
+  private static final int FINGERPRINT_OFFSET = 2 * Integer.BYTES;
+  private static final int SLOT_SIZE_OFFSET = FINGERPRINT_OFFSET + Long.BYTES;
+  private static final int HEADER_SIZE = SLOT_SIZE_OFFSET + Integer.BYTES;
+  private static final int SLOT_COUNT = 2;
+  private static final long NO_STEP = -1;
+
+  private final MappedByteBuffer buffer;
+  private final int slotSize;
+  private final int outputCount;
+  private final SteadyStateCollector steadyStateCollector; // null if steady state is not estimated
+  private int nextSlot = 0;
+
+  private CheckpointFile(MappedByteBuffer buffer, int slotSize, int outputCount,
+      SteadyStateCollector steadyStateCollector) {
+    this.buffer = buffer;
+    this.slotSize = slotSize;
+    this.outputCount = outputCount;
+    this.steadyStateCollector = steadyStateCollector;
+  }
+
+  /**
+   * Opens the checkpoint file of the model. With keepContent an existing file must be written for the same
+   * config, otherwise the file is created again.
+   * @param steadyStateCollector null if steady state is not estimated
+   */
+  public static CheckpointFile open(Path file, CheckpointModel model, SteadyStateCollector steadyStateCollector,
+      boolean keepContent) {
+    int outputCount = model.getStatsCollector().getOutputLengths().length;
+    int slotSize = Long.BYTES + outputCount * Long.BYTES + model.getStatsCollector().getStateSize()
+        + (steadyStateCollector != null ? steadyStateCollector.getStateSize() : 0) + model.getStateSize();
+    long fingerprint = getFingerprint(model);
+    boolean existing = keepContent && Files.exists(file);
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE)) {
+      long size = HEADER_SIZE + (long) SLOT_COUNT * slotSize;
+      if (existing && channel.size() != size) {
+        throw new IllegalStateException("Контрольна точка %s збережена для іншої конфігурації.".formatted(file));
+      }
+      if (!existing) {
+        channel.truncate(0);
+      }
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+      CheckpointFile checkpointFile = new CheckpointFile(buffer, slotSize, outputCount, steadyStateCollector);
+      if (existing) {
+        checkpointFile.checkHeader(file, fingerprint);
+      } else {
+        checkpointFile.writeHeader(fingerprint);
+      }
+      return checkpointFile;
+    } catch (IOException e) {
+      throw new UncheckedIOException("Не вдалося відкрити контрольну точку " + file, e);
+    }
+  }
+
+  /**
+   * Config values that change results, the output directory already contains the model parameters.
+   */
+  private static long getFingerprint(CheckpointModel model) {
+    String description = "%s|%s|%b|%d".formatted(model.getClass().getName(),
+        model.getStatsCollector().getOutputDirectory(), model.getConfig().isCyclic(), model.getConfig().getThreads());
+    return UUID.nameUUIDFromBytes(description.getBytes(StandardCharsets.UTF_8)).getMostSignificantBits();
+  }
+
+  private void writeHeader(long fingerprint) {
+    buffer.putInt(0, MAGIC).putInt(VERSION_OFFSET, VERSION).putLong(FINGERPRINT_OFFSET, fingerprint)
+        .putInt(SLOT_SIZE_OFFSET, slotSize);
+    for (int slot = 0; slot < SLOT_COUNT; ++slot) {
+      buffer.putLong(getSlotOffset(slot), NO_STEP);
+    }
+  }
+
+  private void checkHeader(Path file, long fingerprint) {
+    if (buffer.getInt(0) != MAGIC || buffer.getInt(VERSION_OFFSET) != VERSION
+        || buffer.getLong(FINGERPRINT_OFFSET) != fingerprint || buffer.getInt(SLOT_SIZE_OFFSET) != slotSize) {
+      throw new IllegalStateException("Контрольна точка %s збережена для іншої конфігурації.".formatted(file));
+    }
+  }
+
+  private int getSlotOffset(int slot) {
+    return HEADER_SIZE + slot * slotSize;
+  }
+
+  /**
+   * @param step index of the last step done by the model
+   */
+  public void save(CheckpointModel model, long step) {
+    int offset = getSlotOffset(nextSlot);
+    buffer.putLong(offset, NO_STEP); // invalid until it is fully written
+    ByteBuffer slot = buffer.slice(offset + Long.BYTES, slotSize - Long.BYTES);
+    for (long length : model.getStatsCollector().getOutputLengths()) {
+      slot.putLong(length);
+    }
+    model.getStatsCollector().saveState(slot);
+    if (steadyStateCollector != null) {
+      steadyStateCollector.saveState(slot);
+    }
+    model.saveState(slot);
+    buffer.putLong(offset, step);
+    nextSlot = (nextSlot + 1) % SLOT_COUNT;
+  }
+
+  /**
+   * Restores the model and its output files from the latest valid checkpoint.
+   * @return step of the checkpoint or -1 if there is no valid checkpoint, then the outputs are emptied
+   */
+  public long restore(CheckpointModel model) {
+    int latestSlot = -1;
+    long latestStep = NO_STEP;
+    for (int slot = 0; slot < SLOT_COUNT; ++slot) {
+      long step = buffer.getLong(getSlotOffset(slot));
+      if (step > latestStep) {
+        latestStep = step;
+        latestSlot = slot;
+      }
+    }
+    if (latestSlot < 0) {
+      model.getStatsCollector().truncateOutputs(new long[outputCount]);
+      return NO_STEP;
+    }
+
+    ByteBuffer slot = buffer.slice(getSlotOffset(latestSlot) + Long.BYTES, slotSize - Long.BYTES);
+    long[] outputLengths = new long[outputCount];
+    for (int i = 0; i < outputCount; ++i) {
+      outputLengths[i] = slot.getLong();
+    }
+    model.getStatsCollector().restoreState(slot);
+    if (steadyStateCollector != null) {
+      steadyStateCollector.restoreState(slot);
+    }
+    model.restoreState(slot);
+    model.getStatsCollector().truncateOutputs(outputLengths);
+    nextSlot = (latestSlot + 1) % SLOT_COUNT;
+    return latestStep;
+  }
+}
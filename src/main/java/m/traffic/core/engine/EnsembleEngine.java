@@ -0,0 +1,69 @@
+package m.traffic.core.engine;
+
+import java.io.File;
+import java.util.logging.Logger;
+import m.traffic.core.data.config.SimulationConfig;
+import m.traffic.core.data.state.SimulationStatistics;
+import m.traffic.core.model.ensemble.EnsembleModel;
+import m.traffic.stats.EnsembleStatsCollector;
+
+/**
+ * Step loop of an {@link EnsembleModel}: the same steps as {@link SimulationEngine}, but snapshots of replicas are
+ * not written, only statistics across replicas.
+ */
+public class EnsembleEngine {
+
+  private static final Logger logger = Logger.getLogger(EnsembleEngine.class.getName());
+  private final EnsembleModel model;
+  private final EnsembleStatsCollector statsCollector;
+  private boolean running = false;
+
+  public EnsembleEngine(EnsembleModel model) {
+    this.model = model;
+    this.statsCollector = new EnsembleStatsCollector(model.getConfig());
+  }
+
+  public void run() {
+    running = true;
+    SimulationConfig config = model.getConfig();
+    String name = new File(statsCollector.getOutputDirectory()).getName();
+    int vehicles = config.getCarCount() * model.getReplicaCount();
+    SimulationRunEvent runEvent = SimulationRunEvent.start();
+    SimulationStatistics[] replicaStatistics = new SimulationStatistics[model.getReplicaCount()];
+    try {
+      SimulationTelemetry telemetry = new SimulationTelemetry(config, name, () -> 0);
+      telemetry.register();
+      try {
+        while (running) {
+          model.nextStep();
+          telemetry.onStep(model.getLastStep(), vehicles);
+
+          for (int replica = 0; replica < replicaStatistics.length; ++replica) {
+            replicaStatistics[replica] = model.getStatistics(replica);
+          }
+          statsCollector.writeStatsToFile(replicaStatistics);
+
+          running = checkIfRunning();
+        }
+      } finally {
+        telemetry.unregister();
+      }
+    } finally {
+      statsCollector.close(); // also when a step failed, so a sweep does not keep the file open
+    }
+    SimulationRunEvent.finish(runEvent, config, name, model.getLastStep() + 1, vehicles);
+    logger.info("Ensemble %s completed.".formatted(model.getConfig().toString()));
+  }
+
+  private boolean checkIfRunning() {
+    if (!running) {
+      return false;
+    }
+    int configStepCount = model.getConfig().getStepCount();
+    return configStepCount == SimulationConfig.INFINITE_STEP_COUNT || model.getLastStep() <= configStepCount;
+  }
+
+  public void stop() {
+    running = false;
+  }
+}
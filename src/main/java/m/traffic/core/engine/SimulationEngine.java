@@ -1,17 +1,32 @@
 package m.traffic.core.engine;
 
+import java.io.File;
+import java.nio.file.Path;
+import m.traffic.core.model.CheckpointModel;
+import m.traffic.core.model.FastForwardModel;
 import m.traffic.core.model.TrafficModel;
 import m.traffic.stats.StatsCollector;
+import m.traffic.stats.SteadyStateCollector;
 import java.util.logging.Logger;
 import m.traffic.core.data.config.SimulationConfig;
 import m.traffic.core.data.state.TrafficSnapshot;
 
+/**
+ * Step loop of a {@link TrafficModel}. While it runs, its progress is a {@link SimulationMXBean}, and the phases of
+ * its steps and the run itself are JFR events ({@link StepPhaseEvent}, {@link SimulationRunEvent}) that cost nothing
+ * when no recording is running.
+ */
 public class SimulationEngine {
 
   private static final Logger logger = Logger.getLogger(SimulationEngine.class.getName());
   protected final TrafficModel model;
   protected final StatsCollector statsCollector;
   protected boolean running = false;
+  private CheckpointFile checkpointFile; // null if checkpoints are not used
+  private long lastCheckpointStep = -1;
+  private SteadyStateCollector steadyStateCollector; // null if steady state is not estimated
+  private StepPacer stepPacer; // null if steps are not paced
+  private String name; // output directory name of the MBean and the events
 
   public SimulationEngine(TrafficModel model) {
     this.model = model;
@@ -20,22 +35,136 @@ public class SimulationEngine {
 
   public void run() {
     running = true;
-    while(running) {
+    SimulationConfig config = model.getConfig();
+    SimulationRunEvent runEvent = SimulationRunEvent.start();
+    int firstStep;
+    try {
+      if (config.isSteadyState() || config.getCiTargetWidth() > 0) {
+        steadyStateCollector = new SteadyStateCollector(config);
+      }
+      if (config.getStepDuration() < 0) {
+        throw new IllegalArgumentException("Тривалість кроку не може бути від'ємною.");
+      }
+      if (config.getStepDuration() != SimulationConfig.NO_STEP_DURATION) {
+        stepPacer = new StepPacer(config.getStepDuration());
+      }
+      openCheckpoint();
+      name = new File(statsCollector.getOutputDirectory()).getName();
+      SimulationTelemetry telemetry = new SimulationTelemetry(config, name, statsCollector::getQueuedOutputBytes);
+      telemetry.register();
+      firstStep = model.getSnapshot() == null ? 0 : model.getSnapshot().getStepCount() + 1;
+      try {
+        if (model.getSnapshot() != null) {
+          running = checkIfRunning(model.getSnapshot()); // resumed run can be already complete
+        }
+        while (running) {
+          runStep(telemetry);
+        }
+      } finally {
+        telemetry.unregister();
+      }
+    } finally {
+      statsCollector.close(); // writes the queued records and stops the writer thread also when a step failed
+    }
+    TrafficSnapshot lastSnapshot = model.getSnapshot();
+    if (lastSnapshot != null) {
+      SimulationRunEvent.finish(runEvent, config, name, lastSnapshot.getStepCount() + 1 - firstStep,
+          lastSnapshot.getCarCount());
+    }
+    if (steadyStateCollector != null && model.getSnapshot() != null) {
+      steadyStateCollector.writeStatsToFile(model.getSnapshot().getStepCount() + 1L);
+    }
+    logger.info("Simulaion %s completed.".formatted(model.getConfig().toString()));
+    if (stepPacer != null) {
+      logger.info("Simulation %s missed %d of %d ticks of %d ms, drift mean %.3f ms, max %.3f ms.".formatted(
+          config.toString(), stepPacer.getMissedTicks(), stepPacer.getTicks(), config.getStepDuration(),
+          stepPacer.getMeanDriftMillis(), stepPacer.getMaxDriftMillis()));
+    }
+  }
+  
+  private void runStep(SimulationTelemetry telemetry) {
+    SimulationConfig modelConfig = model.getConfig();
+    boolean fastForwarded = canFastForward(modelConfig);
+    StepPhaseEvent event = StepPhaseEvent.start(fastForwarded ? StepPhaseEvent.FAST_FORWARD : StepPhaseEvent.STEP);
+    if (fastForwarded) {
+      ((FastForwardModel) model).fastForward(getRemainingSteps(modelConfig));
+    } else {
       model.nextStep();
-      
-      SimulationConfig modelConfig = model.getConfig();
-      sleepSimulation(modelConfig);
-      TrafficSnapshot snapshot = model.getSnapshot();
+    }
+    TrafficSnapshot snapshot = model.getSnapshot();
+    StepPhaseEvent.finish(event, name, snapshot.getStepCount());
+    telemetry.onStep(snapshot.getStepCount(), snapshot.getCarCount());
+
+    if (stepPacer != null) {
+      event = StepPhaseEvent.start(StepPhaseEvent.PACE);
+      awaitStepTick();
+      StepPhaseEvent.finish(event, name, snapshot.getStepCount());
+    }
 
-      // process the snapshot
+    // process the snapshot
+    event = StepPhaseEvent.start(StepPhaseEvent.OUTPUT);
+    if (steadyStateCollector != null && !fastForwarded) {
+      steadyStateCollector.addToStats(snapshot); // skipped steps have no per-step values
+    }
+    if (modelConfig.isWriteSnapshots()) {
       statsCollector.writeSnapshotToFile(snapshot);
-      // statsCollector.addToStats(model.getSimulationStatistics(), snapshot);
+    }
+    StepPhaseEvent.finish(event, name, snapshot.getStepCount());
+    // statsCollector.addToStats(model.getSimulationStatistics(), snapshot);
+    if (checkpointFile != null) {
+      event = StepPhaseEvent.start(StepPhaseEvent.CHECKPOINT);
+      saveCheckpointIfDue(modelConfig, snapshot);
+      StepPhaseEvent.finish(event, name, snapshot.getStepCount());
+    }
+
+    running = checkIfRunning(snapshot);
+  }
+
+  private void openCheckpoint() {
+    SimulationConfig config = model.getConfig();
+    if (config.getCheckpointInterval() <= 0 && !config.isResume()) {
+      return;
+    }
+    if (!(model instanceof CheckpointModel checkpointModel)) {
+      throw new IllegalArgumentException("Модель %s не підтримує контрольні точки, використайте рушій array."
+          .formatted(config.getModelType().getName()));
+    }
+    Path file = Path.of(statsCollector.getOutputDirectory(), "checkpoint");
+    checkpointFile = CheckpointFile.open(file, checkpointModel, steadyStateCollector, config.isResume());
+    if (config.isResume()) {
+      lastCheckpointStep = checkpointFile.restore(checkpointModel);
+      logger.info("Simulation %s resumed after step %d.".formatted(config.toString(), lastCheckpointStep));
+    }
+  }
 
-      running = checkIfRunning(snapshot);
+  private void saveCheckpointIfDue(SimulationConfig config, TrafficSnapshot snapshot) {
+    if (checkpointFile == null || config.getCheckpointInterval() <= 0) {
+      return;
+    }
+    // fast-forward can skip many steps at once, so the interval is the least distance between checkpoints
+    if (snapshot.getStepCount() - lastCheckpointStep >= config.getCheckpointInterval()) {
+      checkpointFile.save((CheckpointModel) model, snapshot.getStepCount());
+      lastCheckpointStep = snapshot.getStepCount();
     }
-    logger.info("Simulaion %s completed.".formatted(model.getConfig().toString()));
   }
-  
+
+  private boolean canFastForward(SimulationConfig config) {
+    // skipped steps have no snapshots, so fast-forward is used only when nothing reads the snapshots of every step
+    return config.isFastForward() && !config.isWriteSnapshots() && config.getAggregateSegmentLength() <= 0
+        && config.getDetectors().isBlank()
+        && model instanceof FastForwardModel fastForwardModel && fastForwardModel.canFastForward();
+  }
+
+  private int getRemainingSteps(SimulationConfig config) {
+    if (config.getStepCount() == SimulationConfig.INFINITE_STEP_COUNT) {
+      return Integer.MAX_VALUE;
+    }
+    TrafficSnapshot snapshot = model.getSnapshot();
+    int stepsDone = snapshot == null ? 0 : snapshot.getStepCount() + 1;
+    // steps are counted from 0 and the last one has index stepCount + 1, see checkIfRunning
+    return config.getStepCount() + 2 - stepsDone;
+  }
+
   private boolean checkIfRunning(TrafficSnapshot snapshot) {
     if (!running) {
       return false;
@@ -44,19 +173,21 @@ public class SimulationEngine {
     int configStepCount = config.getStepCount();
     running = configStepCount == SimulationConfig.INFINITE_STEP_COUNT 
                   || snapshot.getStepCount() <= configStepCount;
+    if (running && steadyStateCollector != null && steadyStateCollector.isPrecise()) {
+      logger.info("Simulation %s reached the target confidence interval width at step %d.".formatted(
+          config.toString(), snapshot.getStepCount()));
+      running = false; // stepCount is the upper limit then
+    }
     return running;
   }
 
-  private void sleepSimulation(SimulationConfig config) {
-    if (config.getStepDuration() == SimulationConfig.NO_STEP_DURATION) {
+  private void awaitStepTick() {
+    if (stepPacer == null) {
       return;
     }
-    if (config.getStepDuration() < 0) {
-      throw new IllegalArgumentException("Тривалість кроку не може бути від'ємною.");
-    }
 
     try {
-      Thread.sleep(config.getStepDuration());
+      stepPacer.awaitTick();
     } catch (InterruptedException e) {
       Thread.currentThread().interrupt();
       running = false;
@@ -0,0 +1,36 @@
+package m.traffic.core.engine;
+
+/**
+ * Progress of a running simulation, registered as "m.traffic:type=Simulation,name=..." while it runs, see
+ * {@link SimulationTelemetry}. Rates are measured over at least a second between reads.
+ */
+public interface SimulationMXBean {
+
+  /**
+   * Output directory of the run.
+   */
+  String getName();
+
+  int getStep();
+
+  /**
+   * Last step of the run, -1 if it runs until it is stopped.
+   */
+  int getStepCount();
+
+  double getElapsedSeconds();
+
+  double getStepsPerSecond();
+
+  /**
+   * Steps per second times the cells of the road and of every replica.
+   */
+  double getCellUpdatesPerSecond();
+
+  int getVehicles();
+
+  /**
+   * In-memory size of the records waiting for the writer thread, 0 if files are written by the simulation thread.
+   */
+  long getQueuedOutputBytes();
+}
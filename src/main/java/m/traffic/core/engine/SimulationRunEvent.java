@@ -0,0 +1,71 @@
+package m.traffic.core.engine;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import m.traffic.core.data.config.SimulationConfig;
+
+/**
+ * JFR event of a whole run of {@link SimulationEngine} or {@link EnsembleEngine}, to find slow configs of a sweep.
+ */
+@Name("m.traffic.SimulationRun")
+@Label("Simulation Run")
+@Category("Traffic Simulation")
+@Description("Run of a simulation config")
+class SimulationRunEvent extends Event {
+  @Label("Simulation")
+  String simulation;
+
+  @Label("Model")
+  String model;
+
+  @Label("Road Length")
+  int roadLength;
+
+  @Label("Vehicles")
+  int vehicles;
+
+  @Label("Replicas")
+  int replicas;
+
+  @Label("Steps")
+  int steps;
+
+  @Label("Cell Updates per Second")
+  double cellUpdatesPerSecond;
+
+  private transient long startNanos; // transient fields are not recorded
+
+  /**
+   * @return null if nothing records the event
+   */
+  static SimulationRunEvent start() {
+    SimulationRunEvent event = new SimulationRunEvent();
+    if (!event.isEnabled()) {
+      return null;
+    }
+    event.startNanos = System.nanoTime();
+    event.begin();
+    return event;
+  }
+
+  static void finish(SimulationRunEvent event, SimulationConfig config, String simulation, int steps, int vehicles) {
+    if (event == null) {
+      return;
+    }
+    event.end();
+    if (event.shouldCommit()) {
+      event.simulation = simulation;
+      event.model = config.getModelType().getName();
+      event.roadLength = config.getRoadLength();
+      event.vehicles = vehicles;
+      event.replicas = Math.max(1, config.getReplicas());
+      event.steps = steps;
+      double seconds = (System.nanoTime() - event.startNanos) / 1e9;
+      event.cellUpdatesPerSecond = seconds > 0 ? (double) steps * config.getRoadLength() * event.replicas / seconds : 0;
+      event.commit();
+    }
+  }
+}
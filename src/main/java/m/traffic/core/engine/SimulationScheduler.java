@@ -0,0 +1,136 @@
+package m.traffic.core.engine;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+import m.traffic.core.data.config.SimulationConfig;
+import m.traffic.core.model.type.EngineType;
+
+/**
+ * Runs configs on a work-stealing pool, the most expensive ones first, so a few long simulations do not finish
+ * alone after the short ones. Workers take configs from a window of the next configs ordered by estimated cost;
+ * a worker that finds the window empty stays in the pool and steals step chunks of simulations that are still
+ * running with threads > 1 (see {@link m.traffic.core.model.parallel.ParallelStepper}), so a large config gets
+ * the cores of the small ones once they are done. Configs without a threads option are not switched to the parallel
+ * step mode: it uses another random stream, so their results would differ from a run of the config alone.
+ * <p>
+ * Paced runs (stepDuration > 0) mostly wait for their ticks, so each of them gets a virtual thread as soon as it
+ * is taken from the iterator instead of a worker; thousands of them can run at once next to the CPU-bound ones.
+ */
+public class SimulationScheduler {
+
+  private static final Logger logger = Logger.getLogger(SimulationScheduler.class.getName());
+  private final int workerCount;
+  private final int window;
+
+  private record ScheduledConfig(SimulationConfig config, double cost) {
+  }
+
+  /**
+   * @param window number of configs taken from the iterator ahead of the workers and ordered by cost
+   */
+  public SimulationScheduler(int workerCount, int window) {
+    if (workerCount < 1 || window < 1) {
+      throw new IllegalArgumentException("Кількість потоків і вікно планувальника повинні бути додатними.");
+    }
+    this.workerCount = workerCount;
+    this.window = window;
+  }
+
+  /**
+   * Estimated time of a simulation in arbitrary units: the work of a step times the steps of all replicas. Runs
+   * without a step count are the most expensive.
+   */
+  public static double estimateCost(SimulationConfig config) {
+    if (config.getStepCount() == SimulationConfig.INFINITE_STEP_COUNT) {
+      return Double.POSITIVE_INFINITY;
+    }
+    return getStepCost(config) * config.getStepCount() * Math.max(1, config.getReplicas());
+  }
+
+  /**
+   * Work of a step, linear in what the engine iterates: cars of the NaSch and velocity based engines, cells of
+   * the object Rule 184 and words of the bit-packed one.
+   */
+  private static double getStepCost(SimulationConfig config) {
+    int carCount = Math.max(1, config.getCarCount());
+    return switch (config.getModelType()) {
+      case RULE_184 -> config.getEngineType() == EngineType.ARRAY
+          ? config.getRoadLength() / (double) Long.SIZE
+          : config.getRoadLength();
+      case NAGEL_SCHRECKENBERG -> carCount;
+      case VELOCITY_BASED_MODEL -> 1.5 * carCount; // two more random numbers per car
+    };
+  }
+
+  /**
+   * Runs every config and returns when all of them are done. Errors of a config are logged and do not stop others.
+   * @return number of configs that failed
+   */
+  public int run(Iterator<SimulationConfig> configs, Consumer<SimulationConfig> runner) {
+    AtomicInteger failures = new AtomicInteger();
+    PriorityQueue<ScheduledConfig> queue =
+        new PriorityQueue<>(Comparator.comparingDouble(ScheduledConfig::cost).reversed());
+    ForkJoinPool pool = new ForkJoinPool(workerCount);
+    try (ExecutorService pacedRuns = Executors.newVirtualThreadPerTaskExecutor()) {
+      List<ForkJoinTask<?>> workers = new ArrayList<>(workerCount);
+      for (int i = 0; i < workerCount; ++i) {
+        workers.add(pool.submit(() -> work(queue, configs, pacedRuns, runner, failures)));
+      }
+      for (ForkJoinTask<?> worker : workers) {
+        worker.join();
+      }
+    } // waits for the paced runs
+    pool.shutdown();
+    return failures.get();
+  }
+
+  /**
+   * Ensembles are not paced, see {@link EnsembleEngine}.
+   */
+  private static boolean isPaced(SimulationConfig config) {
+    return config.getStepDuration() > 0 && config.getReplicas() <= 1;
+  }
+
+  private void work(PriorityQueue<ScheduledConfig> queue, Iterator<SimulationConfig> configs,
+      ExecutorService pacedRuns, Consumer<SimulationConfig> runner, AtomicInteger failures) {
+    ScheduledConfig next;
+    while ((next = take(queue, configs, pacedRuns, runner, failures)) != null) {
+      runSafely(next.config(), runner, failures);
+    }
+  }
+
+  private ScheduledConfig take(PriorityQueue<ScheduledConfig> queue, Iterator<SimulationConfig> configs,
+      ExecutorService pacedRuns, Consumer<SimulationConfig> runner, AtomicInteger failures) {
+    synchronized (queue) {
+      while (queue.size() < window && configs.hasNext()) {
+        SimulationConfig config = configs.next();
+        if (isPaced(config)) {
+          pacedRuns.submit(() -> runSafely(config, runner, failures));
+        } else {
+          queue.add(new ScheduledConfig(config, estimateCost(config)));
+        }
+      }
+      return queue.poll();
+    }
+  }
+
+  private static void runSafely(SimulationConfig config, Consumer<SimulationConfig> runner, AtomicInteger failures) {
+    try {
+      runner.accept(config);
+    } catch (Exception e) {
+      failures.incrementAndGet();
+      logger.severe("Error occurred while processing a simulation configuration: " + e.getMessage());
+      e.printStackTrace();
+    }
+  }
+}
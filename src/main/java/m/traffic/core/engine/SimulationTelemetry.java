@@ -0,0 +1,124 @@
+package m.traffic.core.engine;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import m.traffic.core.data.config.SimulationConfig;
+
+/**
+ * {@link SimulationMXBean} of a run. The simulation thread only writes the step and the number of vehicles after
+ * every step, rates are computed when JMX reads them, so the run pays two volatile writes per step.
+ */
+class SimulationTelemetry implements SimulationMXBean {
+  private static final Logger logger = Logger.getLogger(SimulationTelemetry.class.getName());
+  private static final long RATE_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+  private static final AtomicLong nextId = new AtomicLong(); // runs with the same output directory get other names
+
+  private final String name;
+  private final int stepCount;
+  private final long cellsPerStep;
+  private final LongSupplier queuedOutputBytes;
+  private final long startNanos = System.nanoTime();
+  private volatile int step = -1;
+  private volatile int vehicles;
+  private ObjectName objectName; // null if it is not registered
+  // last sample of the rate, guarded by this
+  private long sampleNanos = startNanos;
+  private int sampleStep = -1;
+  private double stepsPerSecond = 0;
+
+  SimulationTelemetry(SimulationConfig config, String name, LongSupplier queuedOutputBytes) {
+    this.name = name;
+    this.stepCount = config.getStepCount();
+    this.cellsPerStep = (long) config.getRoadLength() * Math.max(1, config.getReplicas());
+    this.queuedOutputBytes = queuedOutputBytes;
+    this.vehicles = config.getCarCount() * Math.max(1, config.getReplicas());
+  }
+
+  /**
+   * Registers the bean in the platform MBean server, a run without it only logs a warning.
+   */
+  void register() {
+    try {
+      ObjectName objectName = new ObjectName("m.traffic:type=Simulation,name=%s,id=%d".formatted(
+          ObjectName.quote(name), nextId.getAndIncrement()));
+      ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+      this.objectName = objectName;
+    } catch (JMException e) {
+      logger.warning("MBean of simulation %s is not registered: %s".formatted(name, e.getMessage()));
+    }
+  }
+
+  void unregister() {
+    if (objectName == null) {
+      return;
+    }
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    try {
+      server.unregisterMBean(objectName);
+    } catch (JMException e) {
+      logger.warning("MBean of simulation %s is not unregistered: %s".formatted(name, e.getMessage()));
+    }
+    objectName = null;
+  }
+
+  /**
+   * Called by the simulation thread after every step.
+   */
+  void onStep(int step, int vehicles) {
+    this.step = step;
+    this.vehicles = vehicles;
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public int getStep() {
+    return step;
+  }
+
+  @Override
+  public int getStepCount() {
+    return stepCount;
+  }
+
+  @Override
+  public double getElapsedSeconds() {
+    return (System.nanoTime() - startNanos) / 1e9;
+  }
+
+  @Override
+  public synchronized double getStepsPerSecond() {
+    long now = System.nanoTime();
+    if (now - sampleNanos >= RATE_WINDOW_NANOS) {
+      int currentStep = step;
+      stepsPerSecond = (currentStep - sampleStep) * 1e9 / (now - sampleNanos);
+      sampleNanos = now;
+      sampleStep = currentStep;
+    }
+    return stepsPerSecond;
+  }
+
+  @Override
+  public double getCellUpdatesPerSecond() {
+    return getStepsPerSecond() * cellsPerStep;
+  }
+
+  @Override
+  public int getVehicles() {
+    return vehicles;
+  }
+
+  @Override
+  public long getQueuedOutputBytes() {
+    return queuedOutputBytes.getAsLong();
+  }
+}
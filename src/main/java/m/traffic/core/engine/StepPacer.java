@@ -0,0 +1,65 @@
+package m.traffic.core.engine;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fixed-rate ticks of a run with a step duration: step k is due k step durations after the run started, so the
+ * time the steps take does not add up over the run. A step that ends after its tick does not wait, the tick is
+ * missed and the following ticks are counted from the end of that step, so slow steps are not followed by steps
+ * without pauses to catch up. Drift is how late a step started after its tick, because of the step before it or
+ * because the thread woke up late.
+ */
+public class StepPacer {
+  private final long periodNanos;
+  private long nextTick; // System.nanoTime of the next tick
+  private long ticks = 0;
+  private long missedTicks = 0;
+  private long driftSumNanos = 0;
+  private long maxDriftNanos = 0;
+
+  public StepPacer(int stepDuration) {
+    if (stepDuration <= 0) {
+      throw new IllegalArgumentException("Тривалість кроку повинна бути додатною: " + stepDuration);
+    }
+    periodNanos = TimeUnit.MILLISECONDS.toNanos(stepDuration);
+    nextTick = System.nanoTime() + periodNanos;
+  }
+
+  /**
+   * Waits until the next tick, returns at once if it is already missed.
+   */
+  public void awaitTick() throws InterruptedException {
+    long now = System.nanoTime();
+    ticks++;
+    if (now >= nextTick) {
+      missedTicks++;
+      addDrift(now - nextTick);
+      nextTick = now + periodNanos;
+      return;
+    }
+    TimeUnit.NANOSECONDS.sleep(nextTick - now);
+    addDrift(Math.max(0, System.nanoTime() - nextTick));
+    nextTick += periodNanos;
+  }
+
+  private void addDrift(long driftNanos) {
+    driftSumNanos += driftNanos;
+    maxDriftNanos = Math.max(maxDriftNanos, driftNanos);
+  }
+
+  public long getTicks() {
+    return ticks;
+  }
+
+  public long getMissedTicks() {
+    return missedTicks;
+  }
+
+  public double getMeanDriftMillis() {
+    return ticks == 0 ? 0 : driftSumNanos / 1e6 / ticks;
+  }
+
+  public double getMaxDriftMillis() {
+    return maxDriftNanos / 1e6;
+  }
+}
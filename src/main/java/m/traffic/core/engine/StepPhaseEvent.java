@@ -0,0 +1,62 @@
+package m.traffic.core.engine;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * JFR event of a phase of a step of {@link SimulationEngine}. Only phases of at least 1 ms are recorded by default,
+ * to see every step record with settings made by "jfr configure +m.traffic.StepPhase#threshold=0ms --output
+ * traffic.jfc", e.g. -XX:StartFlightRecording:settings=traffic.jfc.
+ */
+@Name("m.traffic.StepPhase")
+@Label("Step Phase")
+@Category("Traffic Simulation")
+@Description("Phase of a simulation step: step, fastForward, pace, output or checkpoint")
+@Threshold("1 ms")
+@StackTrace(false) // always the step loop
+class StepPhaseEvent extends Event {
+  static final String STEP = "step";
+  static final String FAST_FORWARD = "fastForward";
+  static final String PACE = "pace";
+  static final String OUTPUT = "output";
+  static final String CHECKPOINT = "checkpoint";
+
+  @Label("Simulation")
+  String simulation;
+
+  @Label("Phase")
+  String phase;
+
+  @Label("Step")
+  int step;
+
+  /**
+   * @return null if nothing records the event, the phase then costs nothing
+   */
+  static StepPhaseEvent start(String phase) {
+    StepPhaseEvent event = new StepPhaseEvent();
+    if (!event.isEnabled()) {
+      return null;
+    }
+    event.phase = phase;
+    event.begin();
+    return event;
+  }
+
+  static void finish(StepPhaseEvent event, String simulation, int step) {
+    if (event == null) {
+      return;
+    }
+    event.end();
+    if (event.shouldCommit()) {
+      event.simulation = simulation;
+      event.step = step;
+      event.commit();
+    }
+  }
+}
@@ -0,0 +1,43 @@
+package m.traffic.core.model;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Model whose whole state can be saved to a checkpoint, so a stopped run can be continued with the same results
+ * as if it was never stopped.
+ */
+public interface CheckpointModel extends TrafficModel {
+
+  /**
+   * Number of bytes written by {@link #saveState}, it does not change between steps.
+   */
+  int getStateSize();
+
+  void saveState(ByteBuffer buffer);
+
+  /**
+   * Restores the state saved by a model initialised with the same config. The snapshot becomes the one of the
+   * last step before the checkpoint.
+   */
+  void restoreState(ByteBuffer buffer);
+
+  static void putInts(ByteBuffer buffer, int[] values) {
+    buffer.asIntBuffer().put(values);
+    buffer.position(buffer.position() + values.length * Integer.BYTES);
+  }
+
+  static void getInts(ByteBuffer buffer, int[] values) {
+    buffer.asIntBuffer().get(values);
+    buffer.position(buffer.position() + values.length * Integer.BYTES);
+  }
+
+  static void putLongs(ByteBuffer buffer, long[] values) {
+    buffer.asLongBuffer().put(values);
+    buffer.position(buffer.position() + values.length * Long.BYTES);
+  }
+
+  static void getLongs(ByteBuffer buffer, long[] values) {
+    buffer.asLongBuffer().get(values);
+    buffer.position(buffer.position() + values.length * Long.BYTES);
+  }
+}
@@ -0,0 +1,17 @@
+package m.traffic.core.model;
+
+import m.traffic.core.data.config.SimulationConfig;
+import m.traffic.core.data.state.TrafficSnapshot;
+
+/**
+ * Model that can start from the cars of another run instead of random ones. Continuation sweeps use it to start
+ * a density from the final state of the previous one, which needs only a short re-equilibration.
+ */
+public interface ContinuationModel extends TrafficModel {
+
+  /**
+   * Initialises the model with the cars of a state of a road with the same length. Cars missing to the car count
+   * of the config are added at random free cells with velocity 0, extra cars are removed at random.
+   */
+  void initialise(SimulationConfig config, TrafficSnapshot state);
+}
@@ -0,0 +1,16 @@
+package m.traffic.core.model;
+
+/**
+ * Model that can advance many steps at once when per-step snapshots are not needed.
+ */
+public interface FastForwardModel extends TrafficModel {
+
+  boolean canFastForward();
+
+  /**
+   * Advances the model by at most maxSteps steps, statistics are updated for every skipped step.
+   * @return number of steps done
+   */
+  int fastForward(int maxSteps);
+
+}
@@ -0,0 +1,446 @@
+package m.traffic.core.model;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import m.traffic.core.data.config.SimulationConfig;
+import m.traffic.core.data.state.SimulationStatistics;
+import m.traffic.core.data.state.SnapshotPool;
+import m.traffic.core.data.state.TrafficSnapshot;
+import m.traffic.core.model.kernel.VelocityKernel;
+import m.traffic.core.model.kernel.VelocityRule;
+import m.traffic.core.model.parallel.ParallelStepper;
+import m.traffic.core.model.random.RestorableRandom;
+import m.traffic.core.model.random.StepRandom;
+import m.traffic.core.model.type.EngineType;
+import m.traffic.stats.StatsCollector;
+
+/**
+ * Nagel-Schreckenberg model that keeps the road in primitive arrays instead of {@code Cell}/{@code Vehicle} objects.
+ * Cars are stored as parallel position/velocity arrays in cyclic road order starting from {@code head}, the road
+ * itself is an occupancy array. Random numbers are drawn in the same order as in {@link NagelSchreckenbergModel},
+ * so both models produce the same trajectories for the same seed. With more than one thread the step is split
+ * into chunks of cars, see {@link ParallelStepper}, and random numbers come from a counter-based {@link StepRandom}. Velocities and positions of all cars
+ * but the last one of the road are updated by a {@link VelocityKernel}, the Vector API one for the vector engine.
+ * The state is a few arrays, so it is saved to checkpoints as they are.
+ */
+public class NagelSchreckenbergArrayModel implements CheckpointModel, ContinuationModel {
+  private static final int DETECTOR_POSITION = 0;
+  private static final byte EMPTY = 0;
+  private static final byte OCCUPIED = 1;
+
+  private byte[] occupancy;
+  private int[] positions;
+  private int[] velocities;
+  private double[] randomValues; // random value of each slot for the current step
+  private int carCount;
+  private int roadLength;
+  private int maxSpeed;
+  private int head = 0; // slot of the car closest to the start of the road
+
+  private SimulationConfig config;
+  private TrafficSnapshot trafficSnapshot;
+  private SnapshotPool snapshotPool;
+  private SimulationStatistics simulationStatistics = new SimulationStatistics(0, 0, 0, 0);
+  private StatsCollector statsCollector;
+  private RestorableRandom random; // initial placement and speeds
+  private StepRandom stepRandom;
+  private VelocityRule velocityRule;
+  private VelocityKernel velocityKernel;
+  private ParallelStepper parallelStepper; // null if the model is stepped by one thread
+  private int[] vehiclesPassedPerChunk;
+  private int stepCount = 0;
+  private int vehiclesPassedPerStep = 0;
+  private int enteredCarsPerStep = 0;
+
+  @Override
+  public void initialise(SimulationConfig config) {
+    setUp(config);
+    randomiseCarPositionAndSpeed();
+  }
+
+  @Override
+  public void initialise(SimulationConfig config, TrafficSnapshot state) {
+    setUp(config);
+    continueFromState(state);
+  }
+
+  private void setUp(SimulationConfig config) {
+    this.config = config;
+    random = new RestorableRandom(config.getRandomSeed());
+    stepRandom = StepRandom.create(random, config);
+
+    statsCollector = new StatsCollector(config);
+
+    snapshotPool = SnapshotPool.forConfig(config);
+    roadLength = config.getRoadLength();
+    maxSpeed = config.getMaxSpeed();
+    carCount = config.getCarCount();
+    occupancy = new byte[roadLength];
+    positions = new int[carCount];
+    velocities = new int[carCount];
+    randomValues = new double[carCount];
+    velocityRule = createVelocityRule(config);
+    velocityKernel = VelocityKernel.create(config.getEngineType() == EngineType.VECTOR, roadLength,
+        DETECTOR_POSITION, velocityRule);
+    if (ParallelStepper.isParallel(config.getThreads())) {
+      parallelStepper = new ParallelStepper(config.getThreads());
+      vehiclesPassedPerChunk = new int[parallelStepper.getChunkCount(carCount)];
+    }
+  }
+
+  protected VelocityRule createVelocityRule(SimulationConfig config) {
+    return VelocityRule.nagelSchreckenberg(config);
+  }
+
+  private void randomiseCarPositionAndSpeed() {
+    // randomly place cars on the road
+    for (int i = 0; i < carCount; ++i) {
+      int position;
+      do {
+        position = getRandomInt(roadLength);
+      } while (occupancy[position] != EMPTY);
+      positions[i] = position;
+      occupancy[position] = OCCUPIED;
+    }
+
+    Arrays.sort(positions); // all velocities are still 0
+
+    // randomly set car speeds
+    for (int i = 0; i < carCount; ++i) {
+      int speed = getRandomInt(maxSpeed + 1);
+
+      int distanceToNextCar = getDistanceToNextCar(i);
+      if (speed >= Math.max(0, distanceToNextCar - 1)) {
+        speed = Math.max(0, distanceToNextCar - 1); // ensure that the car does not collide with the next car
+      }
+      velocities[i] = speed;
+    }
+  }
+
+  private void continueFromState(TrafficSnapshot state) {
+    if (state.getRoadLength() != roadLength) {
+      throw new IllegalArgumentException("Стан для продовження збережений для дороги іншої довжини: "
+          + state.getRoadLength());
+    }
+    // velocities of the cars by their cells, missing cars are added with velocity 0
+    int[] cellVelocities = new int[roadLength];
+    int stateCarCount = state.getCarCount();
+    boolean[] removed = new boolean[stateCarCount];
+    for (int i = carCount; i < stateCarCount; ++i) {
+      int car;
+      do {
+        car = getRandomInt(stateCarCount);
+      } while (removed[car]);
+      removed[car] = true;
+    }
+    for (int car = 0; car < stateCarCount; ++car) {
+      if (!removed[car]) {
+        occupancy[state.getPosition(car)] = OCCUPIED;
+        cellVelocities[state.getPosition(car)] = state.getVelocity(car);
+      }
+    }
+    for (int i = stateCarCount; i < carCount; ++i) {
+      int position;
+      do {
+        position = getRandomInt(roadLength);
+      } while (occupancy[position] != EMPTY);
+      occupancy[position] = OCCUPIED;
+    }
+
+    int car = 0;
+    for (int position = 0; position < roadLength; ++position) {
+      if (occupancy[position] == OCCUPIED) {
+        positions[car] = position;
+        velocities[car++] = cellVelocities[position];
+      }
+    }
+    for (int i = 0; i < carCount; ++i) {
+      // added cars can be closer than the velocity of the car behind them
+      velocities[i] = Math.min(velocities[i], Math.max(0, getDistanceToNextCar(i) - 1));
+    }
+  }
+
+  /**
+   * Cars never overtake each other, so their cyclic order stays the same and only the car closest to the start
+   * of the road changes: cars that passed the end of the road (only the last one can do it) become the first ones.
+   */
+  private void rotateHead(int carsPassedRoadEnd) {
+    if (carsPassedRoadEnd == 0) {
+      return;
+    }
+    head = (head + carCount - carsPassedRoadEnd) % carCount;
+  }
+
+  /**
+   * Array slot of the car by its index in road order, valid for indexes up to carCount.
+   */
+  private int slot(int index) {
+    int slot = head + index;
+    return slot < carCount ? slot : slot - carCount;
+  }
+
+  private int getRandomInt(int max) {
+    return random.nextInt(0, max);
+  }
+
+  private int getExitRandomInt(int max) {
+    return stepRandom.nextInt(StepRandom.EXIT_STREAM, stepCount, 0, max);
+  }
+
+  @Override
+  public void nextStep() {
+    int carsPassedRoadEnd = parallelStepper == null ? moveCars() : moveCarsInParallel();
+
+    rotateHead(carsPassedRoadEnd);
+    if (!config.isCyclic()) {
+      enteredCarsPerStep = carsPassedRoadEnd; // put back at the start of the road, now the first cars
+    }
+    takeSnapshot();
+    updateSimulationStatistics(getSnapshot());
+    vehiclesPassedPerStep = 0;
+    enteredCarsPerStep = 0;
+    stepCount++;
+  }
+
+  private int moveCars() {
+    if (carCount == 0) {
+      return 0;
+    }
+    fillRandomValues(0, carCount);
+    updateVelocities(0, carCount);
+
+    // all cars leave their cells before any car takes a new one
+    for (int slot = 0; slot < carCount; ++slot) {
+      occupancy[positions[slot]] = EMPTY;
+    }
+    int lastSlot = slot(carCount - 1);
+    int lastCarPosition = positions[lastSlot];
+    // only the last car can pass the end of the road, others are moved by the kernel in any order
+    int vehiclesPassed = velocityKernel.advancePositions(positions, velocities, lastSlot + 1, carCount)
+        + velocityKernel.advancePositions(positions, velocities, 0, lastSlot);
+    if (config.isCyclic()) {
+      vehiclesPassedPerStep += vehiclesPassed; // detector at the first cell of an open road is never passed
+    }
+    if (passesDetector(lastCarPosition, velocities[lastSlot])) {
+      vehiclesPassedPerStep++;
+    }
+    updateCarPosition(lastSlot);
+    for (int slot = 0; slot < carCount; ++slot) {
+      occupancy[positions[slot]] = OCCUPIED;
+    }
+    return positions[lastSlot] < lastCarPosition ? 1 : 0;
+  }
+
+  /**
+   * Draws braking random values of cars with road indexes [from, to) into their slots.
+   */
+  private void fillRandomValues(int from, int to) {
+    // road indexes are at most two ranges of slots
+    int firstSlot = slot(from);
+    int firstRangeLength = Math.min(to - from, carCount - firstSlot);
+    stepRandom.fillDoubles(StepRandom.BRAKING_STREAM, stepCount, from, randomValues, firstSlot, firstRangeLength);
+    stepRandom.fillDoubles(StepRandom.BRAKING_STREAM, stepCount, from + firstRangeLength, randomValues, 0,
+        to - from - firstRangeLength);
+  }
+
+  /**
+   * Updates velocities of cars with road indexes [from, to) using their values in randomValues.
+   */
+  private void updateVelocities(int from, int to) {
+    int lastIndex = carCount - 1;
+    int end = Math.min(to, lastIndex);
+    if (from < end) {
+      // road indexes are at most two ranges of slots
+      int firstSlot = slot(from);
+      int firstRangeLength = Math.min(end - from, carCount - firstSlot);
+      velocityKernel.updateVelocities(positions, velocities, randomValues, firstSlot, firstSlot + firstRangeLength);
+      velocityKernel.updateVelocities(positions, velocities, randomValues, 0, end - from - firstRangeLength);
+    }
+    if (to == carCount) {
+      // next car of the last one depends on the road type
+      int lastSlot = slot(lastIndex);
+      updateVelocity(lastIndex, randomValues[lastSlot]);
+    }
+  }
+
+  private int moveCarsInParallel() {
+    if (carCount == 0) {
+      return 0;
+    }
+    parallelStepper.forEachChunk(carCount, (chunk, from, to) -> {
+      fillRandomValues(from, to);
+      updateVelocities(from, to);
+    });
+
+    // all cars leave their cells before any car takes a new one, so parallel chunks do not overwrite each other
+    int lastSlot = slot(carCount - 1);
+    int lastCarPosition = positions[lastSlot];
+    parallelStepper.forEachChunk(carCount, (chunk, from, to) -> {
+      int vehiclesPassed = 0;
+      for (int i = from; i < to; ++i) {
+        int slot = slot(i);
+        if (passesDetector(positions[slot], velocities[slot])) {
+          vehiclesPassed++;
+        }
+        occupancy[positions[slot]] = EMPTY;
+        int nextPosition = positions[slot] + velocities[slot];
+        if (nextPosition < roadLength) {
+          positions[slot] = nextPosition;
+        } else if (config.isCyclic()) {
+          positions[slot] = nextPosition % roadLength;
+        } // else the car leaves non-cyclic road, it is placed back below
+      }
+      vehiclesPassedPerChunk[chunk] = vehiclesPassed;
+    });
+
+    // only the last car can pass the end of the road
+    if (!config.isCyclic() && lastCarPosition + velocities[lastSlot] >= roadLength) {
+      int nextPosition = Math.min(getExitRandomInt(positions[head]), maxSpeed - 1);
+      velocities[lastSlot] = velocityRule.accelerate(velocities[lastSlot], Math.max(nextPosition, 1));
+      positions[lastSlot] = nextPosition;
+    }
+
+    parallelStepper.forEachChunk(carCount, (chunk, from, to) -> {
+      for (int i = from; i < to; ++i) {
+        occupancy[positions[slot(i)]] = OCCUPIED;
+      }
+    });
+
+    for (int vehiclesPassed : vehiclesPassedPerChunk) {
+      vehiclesPassedPerStep += vehiclesPassed;
+    }
+    return positions[lastSlot] < lastCarPosition ? 1 : 0;
+  }
+
+  private void updateVelocity(int index, double randomValue) {
+    int distanceToNextCar = getDistanceToNextCar(index);
+
+    int slot = slot(index);
+    int velocity = velocityRule.accelerate(velocities[slot], distanceToNextCar);
+    velocities[slot] = velocityRule.brake(velocity, randomValue);
+  }
+
+  private boolean passesDetector(int position, int velocity) {
+    if (config.isCyclic()) {
+      // the car passes the detector when it leaves detector cell: it either starts there or drives through it
+      // and at least one cell further
+      int distanceToDetector = Math.floorMod(DETECTOR_POSITION - position, roadLength);
+      return velocity > distanceToDetector;
+    }
+    return position < DETECTOR_POSITION && position + velocity >= DETECTOR_POSITION;
+  }
+
+  private void updateSimulationStatistics(TrafficSnapshot snapshot) {
+    statsCollector.addToStats(simulationStatistics, snapshot);
+    statsCollector.writeStatsToFile(simulationStatistics);
+  }
+
+  private int getNextCarPosition(int index) {
+    boolean lastCar = (index + 1) == carCount;
+    if (!lastCar) {
+      return positions[slot(index + 1)];
+    } else if (config.isCyclic()) {
+      return positions[head];
+    }
+    return positions[head] != 0
+        ? roadLength + maxSpeed // no next car, so car is out of road
+        : roadLength; // next car is just before out of road to avoid collision with car that is at the first place
+  }
+
+  private int getDistanceToNextCar(int index) {
+    int nextCarPosition = getNextCarPosition(index);
+    int currentCarPosition = positions[slot(index)];
+    int distanceToNextCar = nextCarPosition - currentCarPosition;
+    if (distanceToNextCar < 0) {
+      if (config.isCyclic()) {
+        distanceToNextCar += roadLength;
+      } else {
+        throw new IllegalStateException("Next car is behind the current car. Current car position: "
+            + currentCarPosition + ", next car position: " + nextCarPosition);
+      }
+    }
+    return distanceToNextCar;
+  }
+
+  private void updateCarPosition(int slot) {
+    int nextPosition = positions[slot] + velocities[slot];
+    if (nextPosition >= roadLength) {
+      if (config.isCyclic()) {
+        nextPosition = nextPosition % roadLength; // cycle around the road
+      } else {
+        nextPosition = Math.min(getExitRandomInt(positions[head]), maxSpeed - 1); // if not cyclic, place car randomly on the road
+        velocities[slot] = velocityRule.accelerate(velocities[slot], Math.max(nextPosition, 1));
+      }
+    }
+    positions[slot] = nextPosition;
+  }
+
+  @Override
+  public int getStateSize() {
+    return 3 * Integer.BYTES + Long.BYTES + SimulationStatistics.BYTES + 2 * carCount * Integer.BYTES;
+  }
+
+  @Override
+  public void saveState(ByteBuffer buffer) {
+    buffer.putInt(stepCount).putInt(head).putInt(carCount).putLong(random.getState());
+    simulationStatistics.saveState(buffer);
+    CheckpointModel.putInts(buffer, positions);
+    CheckpointModel.putInts(buffer, velocities);
+  }
+
+  @Override
+  public void restoreState(ByteBuffer buffer) {
+    stepCount = buffer.getInt();
+    head = buffer.getInt();
+    if (buffer.getInt() != carCount) {
+      throw new IllegalStateException("Контрольна точка збережена для іншої кількості автомобілів.");
+    }
+    random.setState(buffer.getLong());
+    simulationStatistics.restoreState(buffer);
+    CheckpointModel.getInts(buffer, positions);
+    CheckpointModel.getInts(buffer, velocities);
+
+    Arrays.fill(occupancy, EMPTY);
+    for (int slot = 0; slot < carCount; ++slot) {
+      occupancy[positions[slot]] = OCCUPIED;
+    }
+    stepCount--; // snapshot of the last saved step
+    takeSnapshot();
+    stepCount++;
+  }
+
+  @Override
+  public SimulationConfig getConfig() {
+    return config;
+  }
+
+  @Override
+  public TrafficSnapshot getSnapshot() {
+    return trafficSnapshot;
+  }
+
+  @Override
+  public SimulationStatistics getStatistics() {
+    return simulationStatistics;
+  }
+
+  @Override
+  public StatsCollector getStatsCollector() {
+    return statsCollector;
+  }
+
+  private void takeSnapshot() {
+    TrafficSnapshot snapshot = snapshotPool.acquire(carCount);
+    copyInRoadOrder(positions, snapshot.getPositions());
+    copyInRoadOrder(velocities, snapshot.getVelocities());
+    snapshot.setStep(roadLength, carCount, stepCount, vehiclesPassedPerStep);
+    snapshot.setEnteredCars(enteredCarsPerStep);
+    trafficSnapshot = snapshotPool.publish(snapshot);
+  }
+
+  private void copyInRoadOrder(int[] source, int[] target) {
+    System.arraycopy(source, head, target, 0, carCount - head);
+    System.arraycopy(source, 0, target, carCount - head, head);
+  }
+}
@@ -8,7 +8,10 @@ import m.traffic.core.data.config.SimulationConfig;
 import m.traffic.core.data.simulation.Cell;
 import m.traffic.core.data.simulation.Vehicle;
 import m.traffic.core.data.state.SimulationStatistics;
+import m.traffic.core.data.state.SnapshotPool;
 import m.traffic.core.data.state.TrafficSnapshot;
+import m.traffic.core.model.parallel.ParallelStepper;
+import m.traffic.core.model.random.StepRandom;
 import m.traffic.stats.StatsCollector;
 
 public class NagelSchreckenbergModel implements TrafficModel {
@@ -17,20 +20,33 @@ public class NagelSchreckenbergModel implements TrafficModel {
   private List<Vehicle> cars;
   private SimulationConfig config;
   private TrafficSnapshot trafficSnapshot;
+  private SnapshotPool snapshotPool;
   private SimulationStatistics simulationStatistics = new SimulationStatistics(0, 0, 0, 0);
   private StatsCollector statsCollector;
-  private Random random;
+  private Random random; // initial placement and speeds
+  private StepRandom stepRandom;
+  private ParallelStepper parallelStepper; // null if the model is stepped by one thread
+  private int[] vehiclesPassedPerChunk;
   private int stepCount = 0;
   private int vehiclesPassedPerStep = 0;
+  private int enteredCarsPerStep = 0;
+  private int head = 0; // index in cars of the car closest to the start of the road
 
   @Override
   public void initialise(SimulationConfig config) {
     this.config = config;
     random = new Random(config.getRandomSeed());
+    stepRandom = StepRandom.create(random, config);
 
     statsCollector = new StatsCollector(config);
+
+    snapshotPool = SnapshotPool.forConfig(config);
     road = new ArrayList<>(config.getRoadLength());
     cars = new ArrayList<>(config.getCarCount());
+    if (ParallelStepper.isParallel(config.getThreads())) {
+      parallelStepper = new ParallelStepper(config.getThreads());
+      vehiclesPassedPerChunk = new int[parallelStepper.getChunkCount(config.getCarCount())];
+    }
     randomiseCarPositionAndSpeed();
   }
 
@@ -58,7 +74,7 @@ public class NagelSchreckenbergModel implements TrafficModel {
     for (int i = 0; i < carCount; ++i) {
       int speed = getRandomInt(config.getMaxSpeed() + 1);
 
-      Vehicle currentCar = cars.get(i);
+      Vehicle currentCar = getCar(i);
       int distanceToNextCar = getDistanceToNextCar(currentCar, getNextCar(i, carCount));
       if (speed >= Math.max(0, distanceToNextCar - 1)) {
         speed = Math.max(0, distanceToNextCar - 1); // ensure that the car does not collide with the next car
@@ -71,57 +87,136 @@ public class NagelSchreckenbergModel implements TrafficModel {
     cars.sort((a, b) -> Integer.compare(a.getRoadPosition(), b.getRoadPosition()));
   }
 
+  /**
+   * Cars never overtake each other, so their cyclic order stays the same and only the car closest to the start
+   * of the road changes: cars that passed the end of the road (only the last one can do it) become the first ones.
+   */
+  private void rotateHead(int carsPassedRoadEnd) {
+    if (carsPassedRoadEnd == 0) {
+      return;
+    }
+    int carCount = cars.size();
+    head = (head + carCount - carsPassedRoadEnd) % carCount;
+  }
+
+  /**
+   * Get the car by its index in road order, 0 is the car closest to the start of the road.
+   */
+  private Vehicle getCar(int index) {
+    return cars.get((head + index) % cars.size());
+  }
+
   private int getRandomInt(int max) {
     return random.nextInt(0, max);
   }
 
+  private int getExitRandomInt(int max) {
+    return stepRandom.nextInt(StepRandom.EXIT_STREAM, stepCount, 0, max);
+  }
+
   @Override
   public void nextStep() {
     int carCount = cars.size();
-    for (int i = 0; i < carCount; ++i) { // TODO: implement in parallel
-      Vehicle nextCar = getNextCar(i, carCount); // NB: should be sorted by road position
-      Vehicle currentCar = cars.get(i);
+    int carsPassedRoadEnd = parallelStepper == null ? moveCars(carCount) : moveCarsInParallel(carCount);
 
-      int distanceToNextCar = getDistanceToNextCar(currentCar, nextCar);
-
-      updateCarVelocity(currentCar, distanceToNextCar);
-      randomlyBrake(currentCar);
-    }
-
-    for (var currentCar : cars) {
-      checkIfVehiclePassesDetector(currentCar);
-      updateCarPosition(currentCar);
+    rotateHead(carsPassedRoadEnd);
+    if (!config.isCyclic()) {
+      enteredCarsPerStep = carsPassedRoadEnd; // put back at the start of the road, now the first cars
     }
-
-    sortCarsByRoadPosition();
     takeSnapshot();
     updateSimulationStatistics(getSnapshot());
     vehiclesPassedPerStep = 0;
+    enteredCarsPerStep = 0;
     stepCount++;
   }
 
-  private void checkIfVehiclePassesDetector(Vehicle currentCar) {
-    if (config.isCyclic()) {
-      int nextCarPosition = getCarNextPosition(currentCar);
-      boolean atDetectorNow = currentCar.getRoadPosition() == DETECTOR_POSITION;
-      for (int pos = currentCar.getRoadPosition() + 1; (pos % config.getRoadLength()) != ((nextCarPosition + 1) % config.getRoadLength()); pos++) {
-        int checkPos = pos % config.getRoadLength();
-        if (checkPos == DETECTOR_POSITION) {
-          // should pass detector in the next step
-          atDetectorNow = true;
-          continue;
-        }
-        if (atDetectorNow) {
-          vehiclesPassedPerStep++;
-          break;
+  private int moveCars(int carCount) {
+    for (int i = 0; i < carCount; ++i) {
+      updateVelocity(i, carCount, stepRandom.nextDouble(StepRandom.BRAKING_STREAM, stepCount, i));
+    }
+
+    int carsPassedRoadEnd = 0;
+    for (int i = 0; i < carCount; ++i) {
+      Vehicle currentCar = getCar(i);
+      int previousPosition = currentCar.getRoadPosition();
+      if (passesDetector(currentCar)) {
+        vehiclesPassedPerStep++;
+      }
+      updateCarPosition(currentCar);
+      if (currentCar.getRoadPosition() < previousPosition) {
+        carsPassedRoadEnd++;
+      }
+    }
+    return carsPassedRoadEnd;
+  }
+
+  private int moveCarsInParallel(int carCount) {
+    if (carCount == 0) {
+      return 0;
+    }
+    parallelStepper.forEachChunk(carCount, (chunk, from, to) -> {
+      for (int i = from; i < to; ++i) {
+        updateVelocity(i, carCount, stepRandom.nextDouble(StepRandom.BRAKING_STREAM, stepCount, i));
+      }
+    });
+
+    // all cars leave their cells before any car takes a new one, so parallel chunks do not overwrite each other
+    Vehicle lastCar = getCar(carCount - 1);
+    int lastCarPosition = lastCar.getRoadPosition();
+    parallelStepper.forEachChunk(carCount, (chunk, from, to) -> {
+      int vehiclesPassed = 0;
+      for (int i = from; i < to; ++i) {
+        Vehicle currentCar = getCar(i);
+        if (passesDetector(currentCar)) {
+          vehiclesPassed++;
         }
+        road.get(currentCar.getRoadPosition()).setItem(null);
+        boolean leavesRoad = currentCar.getRoadPosition() + currentCar.getVelocity() >= config.getRoadLength();
+        if (!leavesRoad || config.isCyclic()) {
+          currentCar.setRoadPosition(getCarNextPosition(currentCar));
+        } // else the car leaves non-cyclic road, it is placed back below
       }
-    } else {
-      if (currentCar.getRoadPosition() < DETECTOR_POSITION && 
-          currentCar.getRoadPosition() + currentCar.getVelocity() >= DETECTOR_POSITION) {
-        vehiclesPassedPerStep++;
+      vehiclesPassedPerChunk[chunk] = vehiclesPassed;
+    });
+
+    // only the last car can pass the end of the road
+    if (!config.isCyclic() && lastCarPosition + lastCar.getVelocity() >= config.getRoadLength()) {
+      int nextPosition = Math.min(getExitRandomInt(getCar(0).getRoadPosition()), config.getMaxSpeed() - 1);
+      updateCarVelocity(lastCar, Math.max(nextPosition, 1));
+      lastCar.setRoadPosition(nextPosition);
+    }
+
+    parallelStepper.forEachChunk(carCount, (chunk, from, to) -> {
+      for (int i = from; i < to; ++i) {
+        Vehicle currentCar = getCar(i);
+        road.get(currentCar.getRoadPosition()).setItem(currentCar);
       }
+    });
+
+    for (int vehiclesPassed : vehiclesPassedPerChunk) {
+      vehiclesPassedPerStep += vehiclesPassed;
     }
+    return lastCar.getRoadPosition() < lastCarPosition ? 1 : 0;
+  }
+
+  private void updateVelocity(int index, int carCount, double randomValue) {
+    Vehicle nextCar = getNextCar(index, carCount); // NB: cars are read in road order starting from head
+    Vehicle currentCar = getCar(index);
+
+    int distanceToNextCar = getDistanceToNextCar(currentCar, nextCar);
+
+    updateCarVelocity(currentCar, distanceToNextCar);
+    randomlyBrake(currentCar, randomValue);
+  }
+
+  private boolean passesDetector(Vehicle currentCar) {
+    if (config.isCyclic()) {
+      // the car leaves the detector cell in this step if the detector is less than its velocity ahead
+      return Math.floorMod(DETECTOR_POSITION - currentCar.getRoadPosition(), config.getRoadLength())
+          < currentCar.getVelocity();
+    }
+    return currentCar.getRoadPosition() < DETECTOR_POSITION && 
+        currentCar.getRoadPosition() + currentCar.getVelocity() >= DETECTOR_POSITION;
   }
 
   private void updateSimulationStatistics(TrafficSnapshot snapshot) {
@@ -132,11 +227,11 @@ public class NagelSchreckenbergModel implements TrafficModel {
   private Vehicle getNextCar(int index, int carCount) {
     boolean lastCar = (index + 1) == carCount;
     if (!lastCar) {
-      return cars.get(index + 1);
+      return getCar(index + 1);
     } else if (lastCar && config.isCyclic()) {
-      return cars.get(0);
+      return getCar(0);
     }
-    return cars.get(0).getRoadPosition() != 0 
+    return getCar(0).getRoadPosition() != 0 
         ? new Vehicle(config.getRoadLength() + config.getMaxSpeed(), config.getMaxSpeed()) // no next car, so car is out of road
         : new Vehicle(config.getRoadLength(), 0); // next car is just before out of road to avoid collision with car tath is at the first place
   }
@@ -162,9 +257,9 @@ public class NagelSchreckenbergModel implements TrafficModel {
     currentCar.setVelocity( Math.min(nextVelocity, Math.max(distanceToNextCar - 1, 0)) );
   }
   
-  private void randomlyBrake(Vehicle currentCar) {
+  private void randomlyBrake(Vehicle currentCar, double randomValue) {
     int carVelocity = currentCar.getVelocity();
-    if (randomNextDouble() < config.getBrakingProbability() && carVelocity > 0) {
+    if (randomValue < config.getBrakingProbability() && carVelocity > 0) {
       currentCar.setVelocity(carVelocity - 1);
     }
   }
@@ -187,16 +282,13 @@ public class NagelSchreckenbergModel implements TrafficModel {
       if (config.isCyclic()) {
         nextPosition = nextPosition % config.getRoadLength(); // cycle around the road
       } else {
-        nextPosition = Math.min(getRandomInt(cars.get(0).getRoadPosition()), config.getMaxSpeed() - 1); // if not cyclic, place car randomly on the road
+        nextPosition = Math.min(getExitRandomInt(getCar(0).getRoadPosition()), config.getMaxSpeed() - 1); // if not cyclic, place car randomly on the road
         updateCarVelocity(currentCar, Math.max(nextPosition, 1)); // speed is based on how car is placed on the road. Eg car passed 3 cells from 0, so its speed should be 3
       }
     }
     return nextPosition;
   }
 
-  private double randomNextDouble() {
-    return random.nextDouble();
-  }
 
   @Override
   public SimulationConfig getConfig() {
@@ -219,10 +311,18 @@ public class NagelSchreckenbergModel implements TrafficModel {
   }
 
   private void takeSnapshot() {
-    trafficSnapshot = new TrafficSnapshot();
-    trafficSnapshot.setRoad(road);
-    trafficSnapshot.setCars(cars);
-    trafficSnapshot.setStepCount(stepCount);
-    trafficSnapshot.setVehiclesPassed(vehiclesPassedPerStep);
+    int carCount = cars.size();
+    TrafficSnapshot snapshot = snapshotPool.acquire(carCount);
+    int[] positions = snapshot.getPositions();
+    int[] velocities = snapshot.getVelocities();
+    for (int i = 0; i < carCount; ++i) {
+      Vehicle car = getCar(i);
+      positions[i] = car.getRoadPosition();
+      velocities[i] = car.getVelocity();
+    }
+
+    snapshot.setStep(config.getRoadLength(), carCount, stepCount, vehiclesPassedPerStep);
+    snapshot.setEnteredCars(enteredCarsPerStep);
+    trafficSnapshot = snapshotPool.publish(snapshot);
   }
 }
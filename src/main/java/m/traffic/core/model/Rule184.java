@@ -8,7 +8,9 @@ import m.traffic.core.data.config.SimulationConfig;
 import m.traffic.core.data.simulation.Cell;
 import m.traffic.core.data.simulation.Vehicle;
 import m.traffic.core.data.state.SimulationStatistics;
+import m.traffic.core.data.state.SnapshotPool;
 import m.traffic.core.data.state.TrafficSnapshot;
+import m.traffic.core.model.random.StepRandom;
 import m.traffic.stats.StatsCollector;
 
 public class Rule184 implements TrafficModel {
@@ -19,11 +21,13 @@ public class Rule184 implements TrafficModel {
   private List<Vehicle> cars;
   private SimulationConfig config;
   private TrafficSnapshot trafficSnapshot;
+  private SnapshotPool snapshotPool;
   private SimulationStatistics simulationStatistics = new SimulationStatistics(0, 0, 0, 0);
   private StatsCollector statsCollector;
   private int stepCount = 0;
   private int vehiclesPassedPerStep = 0;
-  private Random random;
+  private Random random; // initial placement
+  private StepRandom stepRandom;
 
   @Override
   public void initialise(SimulationConfig config) {
@@ -32,8 +36,11 @@ public class Rule184 implements TrafficModel {
     }
     this.config = config;
     random = new Random(config.getRandomSeed());
+    stepRandom = StepRandom.create(random, config);
 
     statsCollector = new StatsCollector(config);
+
+    snapshotPool = SnapshotPool.forConfig(config);
     road = new ArrayList<>(config.getRoadLength());
     nextStepRoad = new ArrayList<>(config.getRoadLength());
     cars = new ArrayList<>(config.getCarCount());
@@ -79,7 +86,7 @@ public class Rule184 implements TrafficModel {
       Vehicle currentCar = getVehicle(i);
       Vehicle rightCar = getVehicle(i + 1);
 
-      checkIfVehiclePassedDetector(currentCar, rightCar);
+      checkIfVehiclePassedDetector(i, currentCar, rightCar);
       // Rule 184 logic: if the left car is 1 and current car is 0 then set current car to 1
       // or if the current car is 1 and right car is 0 then set current car to 0
       // else keep the current car's velocity
@@ -99,8 +106,9 @@ public class Rule184 implements TrafficModel {
     stepCount++;
   }
 
-  private void checkIfVehiclePassedDetector(Vehicle currentCar, Vehicle rightCar) {
-    if (currentCar != null && rightCar == null && currentCar.getRoadPosition() == DETECTOR_POSITION) {
+  private void checkIfVehiclePassedDetector(int position, Vehicle currentCar, Vehicle rightCar) {
+    // vehicles keep their initial road position in this model, so the detector checks the cell itself
+    if (currentCar != null && rightCar == null && position == DETECTOR_POSITION) {
       vehiclesPassedPerStep++;
     }
   }
@@ -114,7 +122,9 @@ public class Rule184 implements TrafficModel {
       // TODO: this code can cause random spawning of vehicle on the road and also can remove vehicle from it
       // cannot be implemented in not cyclic mode?
       if (i < 0 || i >= roadLength) { // randomly return a vehicle with max speed if out of bounds
-        int randomNum = getRandomInt(config.getMaxSpeed() + 1); // maxSpeed is 1, so randomNum can be 0 or 1
+        // maxSpeed is 1, so randomNum can be 0 or 1
+        int randomNum = stepRandom.nextInt(StepRandom.BOUNDARY_STREAM, stepCount, i < 0 ? 0 : 1,
+            config.getMaxSpeed() + 1);
         return randomNum == 1 ? new Vehicle(i, randomNum) : null;
       } else {
         index = i;
@@ -125,11 +135,21 @@ public class Rule184 implements TrafficModel {
   }
 
   private void takeSnapshot() {
-    trafficSnapshot = new TrafficSnapshot();
-    trafficSnapshot.setRoad(road);
-    trafficSnapshot.setCars(cars);
-    trafficSnapshot.setStepCount(stepCount);
-    trafficSnapshot.setVehiclesPassed(vehiclesPassedPerStep);
+    int roadLength = config.getRoadLength();
+    TrafficSnapshot snapshot = snapshotPool.acquire(roadLength); // every cell can hold a car of an open road
+    int[] positions = snapshot.getPositions();
+    int[] velocities = snapshot.getVelocities();
+    int carCount = 0;
+    for (Cell cell : road) {
+      if (cell.getItem() instanceof Vehicle vehicle) {
+        positions[carCount] = cell.getPosition();
+        velocities[carCount] = vehicle.getVelocity();
+        carCount++;
+      }
+    }
+
+    snapshot.setStep(roadLength, carCount, stepCount, vehiclesPassedPerStep);
+    trafficSnapshot = snapshotPool.publish(snapshot);
   }
 
   private void updateSimulationStatistics(TrafficSnapshot snapshot) {
@@ -0,0 +1,256 @@
+package m.traffic.core.model;
+
+import java.nio.ByteBuffer;
+
+import m.traffic.core.data.config.SimulationConfig;
+import m.traffic.core.data.state.CarView;
+import m.traffic.core.data.state.SimulationStatistics;
+import m.traffic.core.data.state.SnapshotPool;
+import m.traffic.core.data.state.TrafficSnapshot;
+import m.traffic.core.model.hashlife.Rule184Hashlife;
+import m.traffic.core.model.random.RestorableRandom;
+import m.traffic.core.model.random.StepRandom;
+import m.traffic.stats.StatsCollector;
+
+/**
+ * Rule 184 on a bit-packed road: cell i is bit (i % 64) of word i / 64. The whole road is updated 64 cells at a
+ * time with shifts, next = (left & ~current) | (current & right), so no objects are created while stepping.
+ * Random numbers are drawn in the same order as in {@link Rule184}, so both models produce the same trajectories.
+ * A cyclic road is deterministic, so it can be fast-forwarded by {@link Rule184Hashlife}.
+ * <p>
+ * Snapshots are {@link CarView}s of the road words: a step only counts the cars, positions are found when a writer
+ * or the aggregator reads them. Readers go through the cars in road order, so a position costs O(1) on average.
+ */
+public class Rule184BitModel implements FastForwardModel, CheckpointModel, CarView {
+  private static final int DETECTOR_POSITION = 0;
+  private static final int WORD_BITS = 64;
+  private static final int MAX_FAST_FORWARD_LEVEL = 20; // at most 2^20 steps per jump
+
+  private long[] road;
+  private int roadLength;
+  private int wordCount;
+  private long lastWordMask; // cells of the last word that are on the road
+  private SimulationConfig config;
+  private TrafficSnapshot trafficSnapshot;
+  private SnapshotPool snapshotPool;
+  private SimulationStatistics simulationStatistics = new SimulationStatistics(0, 0, 0, 0);
+  private StatsCollector statsCollector;
+  private int stepCount = 0;
+  private int vehiclesPassedPerStep = 0;
+  private RestorableRandom random; // initial placement
+  private StepRandom stepRandom;
+  private Rule184Hashlife hashlife; // created on the first fast-forward
+  private int cursorIndex = -1; // car of the last position read from the view
+  private int cursorWord;
+  private long cursorBits; // cars of cursorWord after the cursor car
+  private int cursorPosition; // position of the cursor car
+
+  @Override
+  public void initialise(SimulationConfig config) {
+    if (config.getMaxSpeed() != 1) {
+      throw new IllegalArgumentException("Для моделі Rule 184 максимальна швидкість повинна бути 1.");
+    }
+    this.config = config;
+    random = new RestorableRandom(config.getRandomSeed());
+    stepRandom = StepRandom.create(random, config);
+
+    statsCollector = new StatsCollector(config);
+
+    snapshotPool = SnapshotPool.forConfig(config);
+    roadLength = config.getRoadLength();
+    wordCount = (roadLength + WORD_BITS - 1) / WORD_BITS;
+    road = new long[wordCount];
+    int lastWordBits = roadLength - (wordCount - 1) * WORD_BITS;
+    lastWordMask = lastWordBits == WORD_BITS ? -1L : (1L << lastWordBits) - 1;
+    randomiseCarPosition();
+  }
+
+  private void randomiseCarPosition() {
+    // randomly place cars on the road
+    for (int i = 0; i < config.getCarCount(); ++i) {
+      int position;
+      do {
+        position = getRandomInt(roadLength);
+      } while (isOccupied(position));
+      road[position >>> 6] |= 1L << position;
+    }
+  }
+
+  private int getRandomInt(int max) {
+    return random.nextInt(0, max);
+  }
+
+  private boolean isOccupied(int position) {
+    return (road[position >>> 6] & (1L << position)) != 0;
+  }
+
+  @Override
+  public void nextStep() {
+    // cells just outside of the road: neighbours through the wrap-around or random cars on an open road
+    long leftOfRoad;
+    long rightOfRoad;
+    if (config.isCyclic()) {
+      leftOfRoad = isOccupied(roadLength - 1) ? 1 : 0;
+      rightOfRoad = isOccupied(0) ? 1 : 0;
+    } else {
+      // same as Rule184: cars randomly enter the road from the left and leave it on the right
+      // maxSpeed is 1, so it can be 0 or 1
+      leftOfRoad = stepRandom.nextInt(StepRandom.BOUNDARY_STREAM, stepCount, 0, config.getMaxSpeed() + 1);
+      rightOfRoad = stepRandom.nextInt(StepRandom.BOUNDARY_STREAM, stepCount, 1, config.getMaxSpeed() + 1);
+    }
+
+    int detectorWord = DETECTOR_POSITION >>> 6;
+    long previousWord = leftOfRoad << (WORD_BITS - 1); // carry for the first cell
+    for (int w = 0; w < wordCount; ++w) {
+      long current = road[w];
+      long left = (current << 1) | (previousWord >>> (WORD_BITS - 1));
+      long right = w + 1 < wordCount
+          ? (current >>> 1) | (road[w + 1] << (WORD_BITS - 1))
+          : (current >>> 1) | (rightOfRoad << (roadLength - 1 - w * WORD_BITS));
+
+      // Rule 184: car moves into an empty cell from the left, car leaves its cell if the right one is empty
+      long moving = current & ~right;
+      if (w == detectorWord) {
+        vehiclesPassedPerStep += (int) ((moving >>> DETECTOR_POSITION) & 1);
+      }
+      road[w] = (left & ~current) | (current & right);
+      previousWord = current;
+    }
+    road[wordCount - 1] &= lastWordMask;
+
+    takeSnapshot();
+    updateSimulationStatistics(getSnapshot());
+    vehiclesPassedPerStep = 0;
+    stepCount++;
+  }
+
+  @Override
+  public boolean canFastForward() {
+    return config.isCyclic(); // open road takes random cars at every step
+  }
+
+  @Override
+  public int fastForward(int maxSteps) {
+    if (maxSteps < (1 << Rule184Hashlife.MIN_STEP_LEVEL)) {
+      nextStep();
+      return 1;
+    }
+    if (hashlife == null) {
+      hashlife = new Rule184Hashlife();
+    }
+    int stepLevel = Math.min(31 - Integer.numberOfLeadingZeros(maxSteps), MAX_FAST_FORWARD_LEVEL);
+    int steps = 1 << stepLevel;
+    vehiclesPassedPerStep = (int) hashlife.advance(road, roadLength, stepLevel, DETECTOR_POSITION);
+
+    stepCount += steps - 1; // snapshot is taken after the last skipped step
+    takeSnapshot();
+    statsCollector.addToStats(simulationStatistics, trafficSnapshot, steps);
+    statsCollector.writeStatsToFile(simulationStatistics);
+    vehiclesPassedPerStep = 0;
+    stepCount++;
+    return steps;
+  }
+
+  @Override
+  public int getStateSize() {
+    return 2 * Integer.BYTES + Long.BYTES + SimulationStatistics.BYTES + wordCount * Long.BYTES;
+  }
+
+  @Override
+  public void saveState(ByteBuffer buffer) {
+    buffer.putInt(stepCount).putInt(roadLength).putLong(random.getState());
+    simulationStatistics.saveState(buffer);
+    CheckpointModel.putLongs(buffer, road);
+  }
+
+  @Override
+  public void restoreState(ByteBuffer buffer) {
+    stepCount = buffer.getInt();
+    if (buffer.getInt() != roadLength) {
+      throw new IllegalStateException("Контрольна точка збережена для іншої довжини дороги.");
+    }
+    random.setState(buffer.getLong());
+    simulationStatistics.restoreState(buffer);
+    CheckpointModel.getLongs(buffer, road);
+
+    stepCount--; // snapshot of the last saved step
+    takeSnapshot();
+    stepCount++;
+  }
+
+  private void takeSnapshot() {
+    int carCount = 0;
+    for (long word : road) {
+      carCount += Long.bitCount(word);
+    }
+    TrafficSnapshot snapshot = snapshotPool.acquire(0); // cars are read from the road words
+    snapshot.setCarView(this);
+    cursorIndex = -1;
+    cursorWord = 0;
+    cursorBits = road[0];
+    snapshot.setStep(roadLength, carCount, stepCount, vehiclesPassedPerStep);
+    trafficSnapshot = snapshotPool.publish(snapshot);
+  }
+
+  @Override
+  public int getPosition(int index) {
+    if (index == cursorIndex) {
+      return cursorPosition; // merging readers read a car again before they move on
+    }
+    if (index != cursorIndex + 1) {
+      seek(index);
+    }
+    while (cursorBits == 0) {
+      cursorBits = road[++cursorWord];
+    }
+    cursorPosition = cursorWord * WORD_BITS + Long.numberOfTrailingZeros(cursorBits);
+    cursorBits &= cursorBits - 1;
+    cursorIndex = index;
+    return cursorPosition;
+  }
+
+  /**
+   * Moves the cursor just before the car, for reads that are not in road order.
+   */
+  private void seek(int index) {
+    int carsBefore = index;
+    cursorWord = 0;
+    while (Long.bitCount(road[cursorWord]) <= carsBefore) {
+      carsBefore -= Long.bitCount(road[cursorWord++]);
+    }
+    cursorBits = road[cursorWord];
+    for (; carsBefore > 0; --carsBefore) {
+      cursorBits &= cursorBits - 1;
+    }
+  }
+
+  @Override
+  public int getVelocity(int index) {
+    return config.getMaxSpeed(); // Rule 184 uses max speed of 1
+  }
+
+  private void updateSimulationStatistics(TrafficSnapshot snapshot) {
+    statsCollector.addToStats(simulationStatistics, snapshot);
+    statsCollector.writeStatsToFile(simulationStatistics);
+  }
+
+  @Override
+  public SimulationConfig getConfig() {
+    return config;
+  }
+
+  @Override
+  public TrafficSnapshot getSnapshot() {
+    return trafficSnapshot;
+  }
+
+  @Override
+  public SimulationStatistics getStatistics() {
+    return simulationStatistics;
+  }
+
+  @Override
+  public StatsCollector getStatsCollector() {
+    return statsCollector;
+  }
+}
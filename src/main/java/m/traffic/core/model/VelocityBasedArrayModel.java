@@ -0,0 +1,36 @@
+package m.traffic.core.model;
+
+import m.traffic.core.data.config.SimulationConfig;
+import m.traffic.core.data.config.VelocityBasedModelConfig;
+import m.traffic.core.data.state.TrafficSnapshot;
+import m.traffic.core.model.kernel.VelocityRule;
+
+/**
+ * Velocity based model on primitive arrays. It differs from {@link NagelSchreckenbergArrayModel} only by the braking
+ * rule, random numbers are drawn in the same order as in {@link VelocityBasedModel}.
+ */
+public class VelocityBasedArrayModel extends NagelSchreckenbergArrayModel {
+
+  @Override
+  public void initialise(SimulationConfig config) {
+    checkConfig(config);
+    super.initialise(config);
+  }
+
+  @Override
+  public void initialise(SimulationConfig config, TrafficSnapshot state) {
+    checkConfig(config);
+    super.initialise(config, state);
+  }
+
+  private static void checkConfig(SimulationConfig config) {
+    if (!(config instanceof VelocityBasedModelConfig)) {
+      throw new IllegalArgumentException("Конфігурація повинна бути типу VelocityBasedModelConfig");
+    }
+  }
+
+  @Override
+  protected VelocityRule createVelocityRule(SimulationConfig config) {
+    return VelocityRule.velocityBased((VelocityBasedModelConfig) config);
+  }
+}
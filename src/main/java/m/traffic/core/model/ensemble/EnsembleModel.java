@@ -0,0 +1,273 @@
+package m.traffic.core.model.ensemble;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import m.traffic.core.data.config.SimulationConfig;
+import m.traffic.core.data.state.SimulationStatistics;
+import m.traffic.core.model.kernel.VelocityRule;
+import m.traffic.core.model.random.SequentialRandom;
+import m.traffic.core.model.random.StepRandom;
+import m.traffic.core.model.type.ModelType;
+
+/**
+ * Replicas of the same NaSch or velocity based config with seeds randomSeed, randomSeed + 1, ... stepped together.
+ * Cars are interleaved: the car in slot s of replica r is at s * replicaCount + r, so one pass over the arrays steps
+ * all replicas. Every replica keeps its own head (see {@link m.traffic.core.model.NagelSchreckenbergArrayModel}) and
+ * its own random sequence, so replica r has the same trajectory as a single-threaded run with seed randomSeed + r.
+ */
+public class EnsembleModel {
+  private static final int DETECTOR_POSITION = 0;
+
+  private SimulationConfig config;
+  private VelocityRule velocityRule;
+  private int replicaCount;
+  private int carCount;
+  private int roadLength;
+  private int maxSpeed;
+
+  private int[] positions;
+  private int[] velocities;
+  private double[] randomValues;
+  private int[] heads; // slot of the car closest to the start of the road of each replica
+  private int[] lastSlots;
+  private int[] lastCarPositions;
+  private StepRandom[] stepRandoms;
+
+  private SimulationStatistics[] statistics;
+  private int[] vehiclesPassed;
+  private long[] velocitySums;
+  private int stepCount = 0;
+
+  public void initialise(SimulationConfig config) {
+    if (config.getModelType() == ModelType.RULE_184) {
+      throw new IllegalArgumentException("Ансамбль реплік підтримується лише для моделей NaSch та VBM.");
+    }
+    if (config.getReplicas() < 1) {
+      throw new IllegalArgumentException("Кількість реплік повинна бути додатною: " + config.getReplicas());
+    }
+    this.config = config;
+    velocityRule = VelocityRule.forConfig(config);
+    replicaCount = config.getReplicas();
+    carCount = config.getCarCount();
+    roadLength = config.getRoadLength();
+    maxSpeed = config.getMaxSpeed();
+
+    positions = new int[carCount * replicaCount];
+    velocities = new int[carCount * replicaCount];
+    randomValues = new double[carCount * replicaCount];
+    heads = new int[replicaCount];
+    lastSlots = new int[replicaCount];
+    lastCarPositions = new int[replicaCount];
+    stepRandoms = new StepRandom[replicaCount];
+    statistics = new SimulationStatistics[replicaCount];
+    vehiclesPassed = new int[replicaCount];
+    velocitySums = new long[replicaCount];
+    for (int replica = 0; replica < replicaCount; ++replica) {
+      Random random = new Random(config.getRandomSeed() + replica);
+      stepRandoms[replica] = new SequentialRandom(random); // continues the sequence of the initialisation
+      statistics[replica] = new SimulationStatistics(0, 0, 0, 0);
+      randomiseCarPositionAndSpeed(replica, random);
+    }
+  }
+
+  private void randomiseCarPositionAndSpeed(int replica, Random random) {
+    // randomly place cars on the road
+    int[] replicaPositions = new int[carCount];
+    long[] occupied = new long[(roadLength + 63) / 64];
+    for (int i = 0; i < carCount; ++i) {
+      int position;
+      do {
+        position = random.nextInt(0, roadLength);
+      } while ((occupied[position >>> 6] & (1L << position)) != 0);
+      replicaPositions[i] = position;
+      occupied[position >>> 6] |= 1L << position;
+    }
+
+    Arrays.sort(replicaPositions);
+    for (int slot = 0; slot < carCount; ++slot) {
+      positions[index(slot, replica)] = replicaPositions[slot];
+    }
+
+    // randomly set car speeds
+    for (int slot = 0; slot < carCount; ++slot) {
+      int speed = random.nextInt(0, maxSpeed + 1);
+
+      int distanceToNextCar = getDistanceToNextCar(replica, slot);
+      if (speed >= Math.max(0, distanceToNextCar - 1)) {
+        speed = Math.max(0, distanceToNextCar - 1); // ensure that the car does not collide with the next car
+      }
+      velocities[index(slot, replica)] = speed;
+    }
+  }
+
+  private int index(int slot, int replica) {
+    return slot * replicaCount + replica;
+  }
+
+  private int getLastSlot(int replica) {
+    return (heads[replica] == 0 ? carCount : heads[replica]) - 1;
+  }
+
+  /**
+   * Distance to the next car by the same rules as in the array models.
+   */
+  private int getDistanceToNextCar(int replica, int slot) {
+    int position = positions[index(slot, replica)];
+    int nextCarPosition;
+    if (slot != getLastSlot(replica) || config.isCyclic()) {
+      nextCarPosition = positions[index(slot + 1 < carCount ? slot + 1 : 0, replica)];
+    } else {
+      nextCarPosition = positions[index(heads[replica], replica)] != 0
+          ? roadLength + maxSpeed // no next car, so car is out of road
+          : roadLength; // next car is just before out of road to avoid collision with car that is at the first place
+    }
+
+    int distanceToNextCar = nextCarPosition - position;
+    if (distanceToNextCar < 0) {
+      if (config.isCyclic()) {
+        distanceToNextCar += roadLength;
+      } else {
+        throw new IllegalStateException("Next car is behind the current car. Current car position: "
+            + position + ", next car position: " + nextCarPosition);
+      }
+    }
+    return distanceToNextCar;
+  }
+
+  public void nextStep() {
+    for (int replica = 0; replica < replicaCount; ++replica) {
+      lastSlots[replica] = getLastSlot(replica);
+      fillRandomValues(replica);
+    }
+    updateVelocities();
+    moveCars();
+    updateStatistics();
+    stepCount++;
+  }
+
+  private void fillRandomValues(int replica) {
+    // drawn in road order of the replica, as in a separate run
+    int head = heads[replica];
+    StepRandom stepRandom = stepRandoms[replica];
+    for (int i = 0; i < carCount; ++i) {
+      int slot = head + i < carCount ? head + i : head + i - carCount;
+      randomValues[index(slot, replica)] = stepRandom.nextDouble(StepRandom.BRAKING_STREAM, stepCount, i);
+    }
+  }
+
+  private void updateVelocities() {
+    boolean cyclic = config.isCyclic();
+    for (int slot = 0; slot < carCount; ++slot) {
+      int base = slot * replicaCount;
+      int nextBase = (slot + 1 < carCount ? slot + 1 : 0) * replicaCount;
+      for (int replica = 0; replica < replicaCount; ++replica) {
+        if (!cyclic && slot == lastSlots[replica]) {
+          continue; // the last car of an open road sees the end of the road, it is updated below
+        }
+        int distanceToNextCar = positions[nextBase + replica] - positions[base + replica];
+        if (distanceToNextCar < 0) {
+          distanceToNextCar += roadLength;
+        }
+        int velocity = velocityRule.accelerate(velocities[base + replica], distanceToNextCar);
+        velocities[base + replica] = velocityRule.brake(velocity, randomValues[base + replica]);
+      }
+    }
+
+    if (!cyclic) {
+      for (int replica = 0; replica < replicaCount && carCount > 0; ++replica) {
+        int i = index(lastSlots[replica], replica);
+        int velocity = velocityRule.accelerate(velocities[i], getDistanceToNextCar(replica, lastSlots[replica]));
+        velocities[i] = velocityRule.brake(velocity, randomValues[i]);
+      }
+    }
+  }
+
+  private void moveCars() {
+    boolean cyclic = config.isCyclic();
+    for (int replica = 0; replica < replicaCount && carCount > 0; ++replica) {
+      lastCarPositions[replica] = positions[index(lastSlots[replica], replica)];
+      vehiclesPassed[replica] = 0;
+    }
+
+    for (int slot = 0; slot < carCount; ++slot) {
+      int base = slot * replicaCount;
+      for (int replica = 0; replica < replicaCount; ++replica) {
+        if (!cyclic && slot == lastSlots[replica]) {
+          continue; // may leave the road, it is placed after all other cars moved
+        }
+        int position = positions[base + replica];
+        int velocity = velocities[base + replica];
+        // the detector at the first cell of an open road is never passed
+        if (cyclic && velocity > Math.floorMod(DETECTOR_POSITION - position, roadLength)) {
+          vehiclesPassed[replica]++;
+        }
+        int nextPosition = position + velocity;
+        positions[base + replica] = nextPosition < roadLength ? nextPosition : nextPosition - roadLength;
+      }
+    }
+
+    for (int replica = 0; replica < replicaCount && carCount > 0; ++replica) {
+      int lastSlot = lastSlots[replica];
+      if (!cyclic) {
+        moveLastCarOfOpenRoad(replica, lastSlot);
+      }
+      // only the last car can pass the end of the road, then it becomes the first one
+      if (positions[index(lastSlot, replica)] < lastCarPositions[replica]) {
+        heads[replica] = lastSlot;
+      }
+    }
+  }
+
+  private void moveLastCarOfOpenRoad(int replica, int lastSlot) {
+    int i = index(lastSlot, replica);
+    int nextPosition = positions[i] + velocities[i];
+    if (nextPosition >= roadLength) {
+      int firstCarPosition = positions[index(heads[replica], replica)];
+      // if not cyclic, place car randomly on the road
+      nextPosition = Math.min(stepRandoms[replica].nextInt(StepRandom.EXIT_STREAM, stepCount, 0, firstCarPosition),
+          maxSpeed - 1);
+      velocities[i] = velocityRule.accelerate(velocities[i], Math.max(nextPosition, 1));
+    }
+    positions[i] = nextPosition;
+  }
+
+  private void updateStatistics() {
+    Arrays.fill(velocitySums, 0);
+    for (int slot = 0; slot < carCount; ++slot) {
+      int base = slot * replicaCount;
+      for (int replica = 0; replica < replicaCount; ++replica) {
+        velocitySums[replica] += velocities[base + replica];
+      }
+    }
+
+    // same values as StatsCalculator gives for a snapshot of the replica
+    double density = carCount / (double) roadLength;
+    for (int replica = 0; replica < replicaCount; ++replica) {
+      SimulationStatistics replicaStatistics = statistics[replica];
+      replicaStatistics.addDensity(density);
+      replicaStatistics.addAverageSpeed(carCount == 0 ? 0.0 : velocitySums[replica] / (double) carCount);
+      replicaStatistics.addFlow(vehiclesPassed[replica]);
+      replicaStatistics.incrementIterationCount();
+    }
+  }
+
+  /**
+   * Index of the last done step, as the step count of a snapshot.
+   */
+  public int getLastStep() {
+    return stepCount - 1;
+  }
+
+  public int getReplicaCount() {
+    return replicaCount;
+  }
+
+  public SimulationStatistics getStatistics(int replica) {
+    return statistics[replica];
+  }
+
+  public SimulationConfig getConfig() {
+    return config;
+  }
+}
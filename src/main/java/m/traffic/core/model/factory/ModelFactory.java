@@ -1,9 +1,16 @@
 package m.traffic.core.model.factory;
 
+import m.traffic.core.data.config.SimulationConfig;
+import m.traffic.core.model.VelocityBasedArrayModel;
 import m.traffic.core.model.VelocityBasedModel;
+import m.traffic.core.model.NagelSchreckenbergArrayModel;
 import m.traffic.core.model.NagelSchreckenbergModel;
 import m.traffic.core.model.Rule184;
+import m.traffic.core.model.Rule184BitModel;
 import m.traffic.core.model.TrafficModel;
+import m.traffic.core.model.segment.SegmentedRingModel;
+import m.traffic.core.model.store.OffHeapModel;
+import m.traffic.core.model.type.EngineType;
 import m.traffic.core.model.type.ModelType;
 
 public class ModelFactory {
@@ -24,4 +31,34 @@ public class ModelFactory {
         throw new IllegalArgumentException("Невідомий тип моделі: " + modelType);
     }
   }
+
+  public static TrafficModel createModel(SimulationConfig config) {
+    ModelType modelType = config.getModelType();
+    EngineType engineType = config.getEngineType();
+    if (engineType == EngineType.OBJECT) {
+      return createModel(modelType);
+    }
+    if (engineType == EngineType.SEGMENTED && modelType != ModelType.RULE_184) {
+      return new SegmentedRingModel();
+    }
+    if (engineType == EngineType.OFF_HEAP && modelType != ModelType.RULE_184) {
+      return new OffHeapModel();
+    }
+
+    switch (modelType) {
+      case NAGEL_SCHRECKENBERG:
+        return new NagelSchreckenbergArrayModel();
+      case VELOCITY_BASED_MODEL:
+        return new VelocityBasedArrayModel();
+      case RULE_184:
+        if (engineType == EngineType.ARRAY) {
+          return new Rule184BitModel(); // already updates 64 cells per instruction
+        }
+        break;
+      default:
+        break;
+    }
+    throw new IllegalArgumentException("Рушій %s не підтримується для моделі %s".formatted(
+        engineType.getName(), modelType.getName()));
+  }
 }
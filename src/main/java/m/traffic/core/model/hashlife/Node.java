@@ -0,0 +1,39 @@
+package m.traffic.core.model.hashlife;
+
+/**
+ * Canonical block of 2^level cells. Blocks up to {@link Rule184Hashlife#LEAF_LEVEL} keep their cells in bits,
+ * bigger ones are split into two canonical halves, so equal blocks are the same object.
+ */
+final class Node {
+  final int level;
+  final long bits; // cells of a leaf, bit i is cell i
+  final Node left;
+  final Node right;
+
+  // memoized evolution: centre half of the block after 2^(level - 2) steps
+  Node result;
+  // cars that crossed the bond in the middle of the block during those steps
+  long centreFlux;
+
+  Node(int level, long bits) {
+    this.level = level;
+    this.bits = bits;
+    this.left = null;
+    this.right = null;
+  }
+
+  Node(Node left, Node right) {
+    this.level = left.level + 1;
+    this.bits = 0;
+    this.left = left;
+    this.right = right;
+  }
+
+  boolean isLeaf() {
+    return left == null;
+  }
+
+  int size() {
+    return 1 << level;
+  }
+}
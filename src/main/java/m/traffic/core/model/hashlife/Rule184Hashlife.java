@@ -0,0 +1,191 @@
+package m.traffic.core.model.hashlife;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hashlife style fast-forward of a cyclic Rule 184 road stored as a bitset (cell i is bit i % 64 of word i / 64).
+ * <p>
+ * A block of 2^k cells determines its centre half 2^(k-2) steps later, because information moves by one cell per
+ * step. Blocks are hash-consed into {@link Node}s and the evolution of every node is memoized, so repeating
+ * patterns (free flow, regular jams) are evolved only once. The same recursion counts the cars that cross the
+ * middle bond of a block, which gives the detector count for the whole skipped interval.
+ */
+public class Rule184Hashlife {
+  static final int LEAF_LEVEL = 6; // 64 cells are evolved directly on a long
+  public static final int MIN_STEP_LEVEL = LEAF_LEVEL - 2; // smallest jump is 2^4 steps
+  private static final int MAX_CACHED_NODES = 1 << 22;
+
+  private final List<Map<Long, Node>> leaves = new ArrayList<>();
+  private final Map<Children, Node> nodes = new HashMap<>();
+  private long[] nextRoad;
+
+  private record Children(Node left, Node right) {
+  }
+
+  public Rule184Hashlife() {
+    for (int level = 0; level <= LEAF_LEVEL; level++) {
+      leaves.add(new HashMap<>());
+    }
+  }
+
+  /**
+   * Advances the cyclic road by 2^stepLevel steps in place.
+   * @return number of cars that moved from the detector cell to the next one during these steps
+   */
+  public long advance(long[] road, int roadLength, int stepLevel, int detectorPosition) {
+    if (stepLevel < MIN_STEP_LEVEL) {
+      throw new IllegalArgumentException("Крок перемотування повинен бути не меншим за 2^" + MIN_STEP_LEVEL);
+    }
+    clearCacheIfFull();
+    if (nextRoad == null || nextRoad.length != road.length) {
+      nextRoad = new long[road.length];
+    }
+
+    int level = stepLevel + 2;
+    int steps = 1 << stepLevel;
+    int blockSize = 2 * steps; // centre half of a node
+    int writtenCells = Math.min(blockSize, roadLength);
+    for (long blockStart = 0; blockStart < roadLength; blockStart += blockSize) {
+      long start = Math.min(blockStart, Math.max(0, roadLength - blockSize)); // last block overlaps the previous one
+      Node window = build(road, roadLength, level, Math.floorMod(start - steps, roadLength));
+      write(nextRoad, roadLength, start, evolve(window), writtenCells);
+    }
+
+    // node with the detector bond (detectorPosition, detectorPosition + 1) in the middle
+    Node detectorWindow = build(road, roadLength, level,
+        Math.floorMod((long) detectorPosition + 1 - blockSize, roadLength));
+    evolve(detectorWindow);
+
+    System.arraycopy(nextRoad, 0, road, 0, road.length);
+    return detectorWindow.centreFlux;
+  }
+
+  private Node evolve(Node node) {
+    if (node.result != null) {
+      return node.result;
+    }
+    if (node.level == LEAF_LEVEL) {
+      evolveLeaf(node);
+      return node.result;
+    }
+
+    // first half of the time: three overlapping quarters-wide results
+    Node middle = join(rightHalf(node.left), leftHalf(node.right));
+    Node first = evolve(node.left);
+    Node second = evolve(middle);
+    Node third = evolve(node.right);
+
+    // second half of the time: evolve the two halves of what is left
+    Node leftResult = evolve(join(first, second));
+    Node rightResult = evolve(join(second, third));
+
+    // the middle bond is in the centre of 'middle' first and then of the node around it
+    Node centre = join(join(rightHalf(first), leftHalf(second)), join(rightHalf(second), leftHalf(third)));
+    evolve(centre);
+
+    node.centreFlux = middle.centreFlux + centre.centreFlux;
+    node.result = join(leftResult, rightResult);
+    return node.result;
+  }
+
+  private void evolveLeaf(Node node) {
+    int size = node.size();
+    int half = size / 2;
+    long cells = node.bits;
+    long flux = 0;
+    for (int step = 0; step < size / 4; step++) {
+      flux += (cells >>> (half - 1)) & ~(cells >>> half) & 1; // car leaves the cell left of the middle bond
+      cells = ((cells << 1) & ~cells) | (cells & (cells >>> 1));
+    }
+    node.centreFlux = flux;
+    node.result = leaf(node.level - 1, (cells >>> (size / 4)) & mask(half));
+  }
+
+  private Node build(long[] road, int roadLength, int level, long start) {
+    if (level <= LEAF_LEVEL) {
+      return leaf(level, readBits(road, roadLength, start, 1 << level));
+    }
+    int half = 1 << (level - 1);
+    return join(build(road, roadLength, level - 1, start),
+                build(road, roadLength, level - 1, (start + half) % roadLength));
+  }
+
+  private int write(long[] road, int roadLength, long start, Node node, int cellsLeft) {
+    if (cellsLeft <= 0) {
+      return 0;
+    }
+    if (node.isLeaf()) {
+      int count = Math.min(node.size(), cellsLeft);
+      writeBits(road, roadLength, start, count, node.bits);
+      return count;
+    }
+    int written = write(road, roadLength, start, node.left, cellsLeft);
+    return written + write(road, roadLength, (start + written) % roadLength, node.right, cellsLeft - written);
+  }
+
+  private Node leaf(int level, long bits) {
+    return leaves.get(level).computeIfAbsent(bits, key -> new Node(level, key));
+  }
+
+  private Node join(Node left, Node right) {
+    if (left.level < LEAF_LEVEL) {
+      return leaf(left.level + 1, left.bits | (right.bits << left.size()));
+    }
+    return nodes.computeIfAbsent(new Children(left, right), key -> new Node(left, right));
+  }
+
+  private Node leftHalf(Node node) {
+    if (node.isLeaf()) {
+      return leaf(node.level - 1, node.bits & mask(node.size() / 2));
+    }
+    return node.left;
+  }
+
+  private Node rightHalf(Node node) {
+    if (node.isLeaf()) {
+      return leaf(node.level - 1, node.bits >>> (node.size() / 2));
+    }
+    return node.right;
+  }
+
+  private void clearCacheIfFull() {
+    int cached = nodes.size();
+    for (Map<Long, Node> levelLeaves : leaves) {
+      cached += levelLeaves.size();
+    }
+    if (cached > MAX_CACHED_NODES) {
+      nodes.clear();
+      leaves.forEach(Map::clear);
+    }
+  }
+
+  private static long readBits(long[] road, int roadLength, long start, int count) {
+    long bits = 0;
+    int done = 0;
+    while (done < count) {
+      int position = (int) ((start + done) % roadLength);
+      int run = Math.min(Math.min(count - done, roadLength - position), 64 - (position & 63));
+      bits |= ((road[position >>> 6] >>> position) & mask(run)) << done;
+      done += run;
+    }
+    return bits;
+  }
+
+  private static void writeBits(long[] road, int roadLength, long start, int count, long bits) {
+    int done = 0;
+    while (done < count) {
+      int position = (int) ((start + done) % roadLength);
+      int run = Math.min(Math.min(count - done, roadLength - position), 64 - (position & 63));
+      long runMask = mask(run) << position;
+      road[position >>> 6] = (road[position >>> 6] & ~runMask) | (((bits >>> done) << position) & runMask);
+      done += run;
+    }
+  }
+
+  private static long mask(int bits) {
+    return bits == 64 ? -1L : (1L << bits) - 1;
+  }
+}
@@ -0,0 +1,45 @@
+package m.traffic.core.model.kernel;
+
+/**
+ * One car at a time, also used for the tails that do not fill a vector.
+ */
+public class ScalarVelocityKernel implements VelocityKernel {
+  private final int roadLength;
+  private final int detectorPosition;
+  private final VelocityRule rule;
+
+  public ScalarVelocityKernel(int roadLength, int detectorPosition, VelocityRule rule) {
+    this.roadLength = roadLength;
+    this.detectorPosition = detectorPosition;
+    this.rule = rule;
+  }
+
+  @Override
+  public void updateVelocities(int[] positions, int[] velocities, double[] randomValues, int from, int to) {
+    int carCount = positions.length;
+    for (int slot = from; slot < to; ++slot) {
+      int nextSlot = slot + 1 < carCount ? slot + 1 : 0;
+      int distanceToNextCar = positions[nextSlot] - positions[slot];
+      if (distanceToNextCar < 0) {
+        distanceToNextCar += roadLength;
+      }
+      int velocity = rule.accelerate(velocities[slot], distanceToNextCar);
+      velocities[slot] = rule.brake(velocity, randomValues[slot]);
+    }
+  }
+
+  @Override
+  public int advancePositions(int[] positions, int[] velocities, int from, int to) {
+    int vehiclesPassed = 0;
+    for (int slot = from; slot < to; ++slot) {
+      // the car passes the detector when it leaves detector cell: it either starts there or drives through it
+      int distanceToDetector = Math.floorMod(detectorPosition - positions[slot], roadLength);
+      if (velocities[slot] > distanceToDetector) {
+        vehiclesPassed++;
+      }
+      int nextPosition = positions[slot] + velocities[slot];
+      positions[slot] = nextPosition < roadLength ? nextPosition : nextPosition - roadLength;
+    }
+    return vehiclesPassed;
+  }
+}
@@ -0,0 +1,89 @@
+package m.traffic.core.model.kernel;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Vector API kernel: several cars per instruction, tails are done by {@link ScalarVelocityKernel}.
+ * Int vectors have as many lanes as the preferred double vectors, so every car lane has its random value lane.
+ * Results are the same as of the scalar kernel.
+ */
+class VectorVelocityKernel implements VelocityKernel {
+  private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+  private static final VectorSpecies<Integer> INTS =
+      VectorSpecies.of(int.class, VectorShape.forBitSize(DOUBLES.length() * Integer.SIZE));
+
+  private final int roadLength;
+  private final int detectorPosition;
+  private final VelocityRule rule;
+  private final ScalarVelocityKernel scalarKernel;
+
+  VectorVelocityKernel(int roadLength, int detectorPosition, VelocityRule rule) {
+    this.roadLength = roadLength;
+    this.detectorPosition = detectorPosition;
+    this.rule = rule;
+    this.scalarKernel = new ScalarVelocityKernel(roadLength, detectorPosition, rule);
+  }
+
+  @Override
+  public void updateVelocities(int[] positions, int[] velocities, double[] randomValues, int from, int to) {
+    // the last slot reads slot 0 as the next car, it is left to the scalar tail
+    int vectorEnd = Math.min(to, positions.length - 1);
+    int slot = from;
+    if (vectorEnd > from) {
+      int upperBound = from + INTS.loopBound(vectorEnd - from);
+      IntVector maxSpeed = IntVector.broadcast(INTS, rule.maxSpeed());
+      DoubleVector brakingProbability = DoubleVector.broadcast(DOUBLES, rule.brakingProbability());
+      DoubleVector startProbability = DoubleVector.broadcast(DOUBLES,
+          Math.max(rule.brakingProbability(), rule.startAccelerationProbability()));
+      DoubleVector maxSpeedProbability = DoubleVector.broadcast(DOUBLES,
+          Math.max(rule.brakingProbability(), rule.maxSpeedBrakingProbability()));
+
+      for (; slot < upperBound; slot += INTS.length()) {
+        IntVector position = IntVector.fromArray(INTS, positions, slot);
+        IntVector distanceToNextCar = IntVector.fromArray(INTS, positions, slot + 1).sub(position);
+        distanceToNextCar = distanceToNextCar.add(roadLength, distanceToNextCar.lt(0));
+
+        // accelerate and keep the distance to the next car
+        IntVector velocity = IntVector.fromArray(INTS, velocities, slot)
+            .add(1)
+            .min(maxSpeed)
+            .min(distanceToNextCar.sub(1).max(0));
+
+        // braking threshold of each lane is the largest probability of the rules for its velocity
+        VectorMask<Double> starting = velocity.eq(1).cast(DOUBLES);
+        VectorMask<Double> atMaxSpeed = velocity.compare(VectorOperators.GE, maxSpeed).cast(DOUBLES);
+        DoubleVector threshold = brakingProbability.blend(startProbability, starting)
+            .max(brakingProbability.blend(maxSpeedProbability, atMaxSpeed));
+        VectorMask<Integer> brakes = DoubleVector.fromArray(DOUBLES, randomValues, slot).lt(threshold).cast(INTS)
+            .and(velocity.compare(VectorOperators.GT, 0));
+
+        velocity.sub(1, brakes).intoArray(velocities, slot);
+      }
+    }
+    scalarKernel.updateVelocities(positions, velocities, randomValues, slot, to);
+  }
+
+  @Override
+  public int advancePositions(int[] positions, int[] velocities, int from, int to) {
+    int upperBound = from + INTS.loopBound(to - from);
+    int vehiclesPassed = 0;
+    int slot = from;
+    for (; slot < upperBound; slot += INTS.length()) {
+      IntVector position = IntVector.fromArray(INTS, positions, slot);
+      IntVector velocity = IntVector.fromArray(INTS, velocities, slot);
+
+      IntVector distanceToDetector = position.neg().add(detectorPosition);
+      distanceToDetector = distanceToDetector.add(roadLength, distanceToDetector.lt(0));
+      vehiclesPassed += velocity.compare(VectorOperators.GT, distanceToDetector).trueCount();
+
+      IntVector nextPosition = position.add(velocity);
+      nextPosition.sub(roadLength, nextPosition.compare(VectorOperators.GE, roadLength)).intoArray(positions, slot);
+    }
+    return vehiclesPassed + scalarKernel.advancePositions(positions, velocities, slot, to);
+  }
+}
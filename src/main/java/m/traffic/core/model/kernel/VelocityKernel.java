@@ -0,0 +1,34 @@
+package m.traffic.core.model.kernel;
+
+import java.util.logging.Logger;
+
+/**
+ * Lane-parallel part of a NaSch-like step over structure-of-arrays cars. Cars are stored in slots in cyclic road
+ * order, so the car in front of slot s is in slot (s + 1) % carCount. Special cars (the last car of an open road)
+ * are left to the model.
+ */
+public interface VelocityKernel {
+
+  /**
+   * Updates velocities of cars in slots [from, to) with the random value of each slot, positions are not changed.
+   */
+  void updateVelocities(int[] positions, int[] velocities, double[] randomValues, int from, int to);
+
+  /**
+   * Moves cars in slots [from, to) by their velocities around a cyclic road.
+   * @return number of cars that left the detector cell
+   */
+  int advancePositions(int[] positions, int[] velocities, int from, int to);
+
+  static VelocityKernel create(boolean vectorized, int roadLength, int detectorPosition, VelocityRule rule) {
+    if (vectorized) {
+      if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+        return new VectorVelocityKernel(roadLength, detectorPosition, rule);
+      }
+      Logger.getLogger(VelocityKernel.class.getName())
+          .warning("Модуль jdk.incubator.vector недоступний (--add-modules jdk.incubator.vector), "
+              + "використовується скалярне ядро.");
+    }
+    return new ScalarVelocityKernel(roadLength, detectorPosition, rule);
+  }
+}
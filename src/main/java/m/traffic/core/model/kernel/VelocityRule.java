@@ -0,0 +1,68 @@
+package m.traffic.core.model.kernel;
+
+import m.traffic.core.data.config.SimulationConfig;
+import m.traffic.core.data.config.VelocityBasedModelConfig;
+import m.traffic.core.model.type.ModelType;
+
+/**
+ * Velocity update of NaSch-like models: accelerate by one up to max speed, keep distance to the next car, then brake
+ * by one with a probability that depends on the accelerated velocity. All braking rules of the velocity based model
+ * are "randomValue < probability", so a car brakes when the random value is below the largest probability that
+ * applies to its velocity.
+ */
+public record VelocityRule(int maxSpeed, double brakingProbability, double startAccelerationProbability,
+    double maxSpeedBrakingProbability) {
+
+  /**
+   * Rule of the model type of the config.
+   */
+  public static VelocityRule forConfig(SimulationConfig config) {
+    if (config.getModelType() != ModelType.VELOCITY_BASED_MODEL) {
+      return nagelSchreckenberg(config);
+    }
+    if (!(config instanceof VelocityBasedModelConfig abmConfig)) {
+      throw new IllegalArgumentException("Конфігурація повинна бути типу VelocityBasedModelConfig");
+    }
+    return velocityBased(abmConfig);
+  }
+
+  public static VelocityRule nagelSchreckenberg(SimulationConfig config) {
+    return new VelocityRule(config.getMaxSpeed(), config.getBrakingProbability(), 0, 0);
+  }
+
+  public static VelocityRule velocityBased(VelocityBasedModelConfig config) {
+    double maxSpeedBrakingProbability = config.isUseMaxSpeedBrakingProbability()
+        ? Math.min(1, config.getMaxSpeedBrakingProbability())
+        : 0;
+    return new VelocityRule(config.getMaxSpeed(), config.getBrakingProbability(),
+        config.getStartAccelerationProbability(), maxSpeedBrakingProbability);
+  }
+
+  public int accelerate(int velocity, int distanceToNextCar) {
+    int nextVelocity = Math.min(velocity + 1, maxSpeed);
+
+    // distanceToNextCar - 1 as we should update position before next car
+    return Math.min(nextVelocity, Math.max(distanceToNextCar - 1, 0));
+  }
+
+  /**
+   * Probability to brake for the velocity after acceleration.
+   */
+  public double getBrakingThreshold(int velocity) {
+    double threshold = brakingProbability;
+    if (velocity == 1) {
+      threshold = Math.max(threshold, startAccelerationProbability); // slow to start rule
+    }
+    if (velocity >= maxSpeed) {
+      threshold = Math.max(threshold, maxSpeedBrakingProbability);
+    }
+    return threshold;
+  }
+
+  public int brake(int velocity, double randomValue) {
+    if (velocity > 0 && randomValue < getBrakingThreshold(velocity)) {
+      return velocity - 1;
+    }
+    return velocity;
+  }
+}
@@ -0,0 +1,91 @@
+package m.traffic.core.model.parallel;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * Runs a step phase of a model over fixed size chunks of road-ordered cars on a ForkJoinPool.
+ * Chunk boundaries depend only on the car count and random numbers are addressed by car index
+ * (see {@link m.traffic.core.model.random.StepRandom}), so results are the same for any number of threads.
+ * A simulation that already runs on a ForkJoinPool (see {@link m.traffic.core.engine.SimulationScheduler}) forks its
+ * chunks there, so idle workers of that pool help it.
+ */
+public class ParallelStepper {
+  public static final int CHUNK_SIZE = 4096;
+
+  // simulations with the same number of threads share the pool
+  private static final Map<Integer, ForkJoinPool> pools = new ConcurrentHashMap<>();
+
+  private final ForkJoinPool pool;
+
+  public ParallelStepper(int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("Кількість потоків повинна бути додатною: " + threads);
+    }
+    this.pool = pools.computeIfAbsent(threads, ForkJoinPool::new);
+  }
+
+  public static boolean isParallel(int threads) {
+    return threads > 1;
+  }
+
+  public int getChunkCount(int carCount) {
+    return (carCount + CHUNK_SIZE - 1) / CHUNK_SIZE;
+  }
+
+  /**
+   * Runs the task for every chunk of car indexes in [0, carCount) and waits until all chunks are done.
+   */
+  public void forEachChunk(int carCount, ChunkTask task) {
+    forEach(getChunkCount(carCount), chunk -> {
+      int from = chunk * CHUNK_SIZE;
+      task.run(chunk, from, Math.min(from + CHUNK_SIZE, carCount));
+    });
+  }
+
+  /**
+   * Runs the task for every index in [0, taskCount) and waits until all of them are done.
+   */
+  public void forEach(int taskCount, IntConsumer task) {
+    if (taskCount == 0) {
+      return;
+    }
+    IndexAction action = new IndexAction(task, 0, taskCount);
+    if (ForkJoinTask.inForkJoinPool()) {
+      action.invoke();
+    } else {
+      pool.invoke(action);
+    }
+  }
+
+  @FunctionalInterface
+  public interface ChunkTask {
+    void run(int chunk, int from, int to);
+  }
+
+  private static class IndexAction extends RecursiveAction {
+    private final IntConsumer task;
+    private final int from;
+    private final int to;
+
+    IndexAction(IntConsumer task, int from, int to) {
+      this.task = task;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from == 1) {
+        task.accept(from);
+        return;
+      }
+      int middle = (from + to) >>> 1;
+      invokeAll(new IndexAction(task, from, middle), new IndexAction(task, middle, to));
+    }
+  }
+}
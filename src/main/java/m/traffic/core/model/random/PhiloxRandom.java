@@ -0,0 +1,69 @@
+package m.traffic.core.model.random;
+
+/**
+ * Philox4x32-10 counter-based generator (Salmon et al., "Parallel random numbers: as easy as 1, 2, 3"). The key is
+ * the seed, the counter is (index, step, stream, 0), so every value is a pure function of its address and
+ * can be computed by any thread in any order. No state is shared between calls.
+ */
+public class PhiloxRandom implements StepRandom {
+  private static final long M0 = 0xD2511F53L;
+  private static final long M1 = 0xCD9E8D57L;
+  private static final int W0 = 0x9E3779B9;
+  private static final int W1 = 0xBB67AE85;
+  private static final int ROUNDS = 10;
+  private static final double DOUBLE_UNIT = 0x1.0p-53;
+
+  private final int key0;
+  private final int key1;
+
+  public PhiloxRandom(long seed) {
+    this.key0 = (int) seed;
+    this.key1 = (int) (seed >>> 32);
+  }
+
+  @Override
+  public double nextDouble(int stream, int step, int index) {
+    return (block(index, step, stream, 0) >>> 11) * DOUBLE_UNIT;
+  }
+
+  @Override
+  public int nextInt(int stream, int step, int index, int bound) {
+    if (bound <= 0) {
+      throw new IllegalArgumentException("Верхня межа повинна бути додатною: " + bound);
+    }
+    // high 32 bits scaled to [0, bound)
+    return (int) (((block(index, step, stream, 0) >>> 32) * bound) >>> 32);
+  }
+
+  @Override
+  public void fillDoubles(int stream, int step, int firstIndex, double[] target, int offset, int count) {
+    for (int i = 0; i < count; ++i) {
+      target[offset + i] = (block(firstIndex + i, step, stream, 0) >>> 11) * DOUBLE_UNIT;
+    }
+  }
+
+  /**
+   * First two 32-bit words of the Philox output block for the counter, as one long.
+   */
+  long block(int counter0, int counter1, int counter2, int counter3) {
+    int c0 = counter0;
+    int c1 = counter1;
+    int c2 = counter2;
+    int c3 = counter3;
+    int k0 = key0;
+    int k1 = key1;
+    for (int round = 0; round < ROUNDS; ++round) {
+      long product0 = M0 * (c0 & 0xFFFFFFFFL);
+      long product1 = M1 * (c2 & 0xFFFFFFFFL);
+      int next0 = (int) (product1 >>> 32) ^ c1 ^ k0;
+      int next2 = (int) (product0 >>> 32) ^ c3 ^ k1;
+      c1 = (int) product1;
+      c3 = (int) product0;
+      c0 = next0;
+      c2 = next2;
+      k0 += W0;
+      k1 += W1;
+    }
+    return ((long) c0 << 32) | (c1 & 0xFFFFFFFFL);
+  }
+}
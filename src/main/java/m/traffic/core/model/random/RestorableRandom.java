@@ -0,0 +1,40 @@
+package m.traffic.core.model.random;
+
+import java.util.Random;
+
+/**
+ * {@link Random} with the same sequence for the same seed whose state can be read and set, so a model can be saved
+ * to a checkpoint in the middle of the sequence. All methods of {@link Random} take their bits from {@link #next},
+ * only the cached value of {@link #nextGaussian()} is not a part of the state. Not thread-safe.
+ */
+public class RestorableRandom extends Random {
+  private static final long MULTIPLIER = 0x5DEECE66DL;
+  private static final long ADDEND = 0xBL;
+  private static final long MASK = (1L << 48) - 1;
+
+  private long state; // set by setSeed from the constructor of Random
+
+  public RestorableRandom(long seed) {
+    super(seed);
+  }
+
+  @Override
+  public synchronized void setSeed(long seed) {
+    super.setSeed(seed);
+    state = (seed ^ MULTIPLIER) & MASK;
+  }
+
+  @Override
+  protected int next(int bits) {
+    state = (state * MULTIPLIER + ADDEND) & MASK;
+    return (int) (state >>> (48 - bits));
+  }
+
+  public long getState() {
+    return state;
+  }
+
+  public void setState(long state) {
+    this.state = state & MASK;
+  }
+}
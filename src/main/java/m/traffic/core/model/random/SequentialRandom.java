@@ -0,0 +1,25 @@
+package m.traffic.core.model.random;
+
+import java.util.Random;
+
+/**
+ * Draws from {@link Random} in call order, stream, step and index are ignored. Values must be requested in the
+ * same order every run, so it can be used by a single thread only.
+ */
+public class SequentialRandom implements StepRandom {
+  private final Random random;
+
+  public SequentialRandom(Random random) {
+    this.random = random;
+  }
+
+  @Override
+  public double nextDouble(int stream, int step, int index) {
+    return random.nextDouble();
+  }
+
+  @Override
+  public int nextInt(int stream, int step, int index, int bound) {
+    return random.nextInt(0, bound);
+  }
+}
@@ -0,0 +1,40 @@
+package m.traffic.core.model.random;
+
+import java.util.Random;
+
+import m.traffic.core.data.config.SimulationConfig;
+
+/**
+ * Random numbers used by models while stepping. A number is addressed by a stream (what it is used for), the step
+ * and an index (usually the car index in road order), so counter-based generators can compute it in any order.
+ */
+public interface StepRandom {
+  int BRAKING_STREAM = 0; // one value per car for random braking
+  int EXIT_STREAM = 1; // new position of a car that left an open road
+  int BOUNDARY_STREAM = 2; // cells outside of an open Rule 184 road, index 0 is the left one, 1 is the right one
+
+  double nextDouble(int stream, int step, int index);
+
+  int nextInt(int stream, int step, int index, int bound);
+
+  /**
+   * Fills target[offset, offset + count) with values of indexes [firstIndex, firstIndex + count).
+   */
+  default void fillDoubles(int stream, int step, int firstIndex, double[] target, int offset, int count) {
+    for (int i = 0; i < count; ++i) {
+      target[offset + i] = nextDouble(stream, step, firstIndex + i);
+    }
+  }
+
+  /**
+   * Without a threads option models continue the sequence of the random used for initialisation, so their results
+   * stay the same as before. With any thread count, 1 included, they use a counter-based generator keyed by the same
+   * seed, so the results do not depend on the number of threads.
+   */
+  static StepRandom create(Random sequentialRandom, SimulationConfig config) {
+    if (config.getThreads() > 0) {
+      return new PhiloxRandom(config.getRandomSeed());
+    }
+    return new SequentialRandom(sequentialRandom);
+  }
+}
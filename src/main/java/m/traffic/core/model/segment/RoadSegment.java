@@ -0,0 +1,123 @@
+package m.traffic.core.model.segment;
+
+/**
+ * Contiguous part [start, end) of a cyclic road with its cars in road order. Cars that cross the end of the segment
+ * are put into the outbox and taken over by the next segment, so neighbours only exchange cars at the boundary.
+ */
+final class RoadSegment {
+  final int start;
+  final int end;
+
+  // cars in road order, ring buffer starting at first so cars can be added to the front and removed from the back
+  private int[] positions;
+  private int[] velocities;
+  private int first = 0;
+  private int count = 0;
+
+  // cars that left the segment in the last move, in road order
+  final int[] outPositions;
+  final int[] outVelocities;
+  int outCount = 0;
+
+  // published after the move for the previous segment: cars that stayed and the position of the first of them
+  int stayedCount = 0;
+  int firstStayedPosition = -1;
+
+  int vehiclesPassed = 0;
+
+  RoadSegment(int start, int end, int maxSpeed, int expectedCarCount) {
+    this.start = start;
+    this.end = end;
+    int capacity = Integer.highestOneBit(Math.max(expectedCarCount, 1) * 2 - 1);
+    positions = new int[capacity];
+    velocities = new int[capacity];
+    // only cars in the last maxSpeed cells can leave the segment in one step
+    outPositions = new int[Math.max(maxSpeed, 1)];
+    outVelocities = new int[Math.max(maxSpeed, 1)];
+  }
+
+  boolean contains(int position) {
+    return position >= start && position < end;
+  }
+
+  int count() {
+    return count;
+  }
+
+  private int slot(int index) {
+    return (first + index) & (positions.length - 1);
+  }
+
+  int getPosition(int index) {
+    return positions[slot(index)];
+  }
+
+  int getVelocity(int index) {
+    return velocities[slot(index)];
+  }
+
+  void setPosition(int index, int position) {
+    positions[slot(index)] = position;
+  }
+
+  void setVelocity(int index, int velocity) {
+    velocities[slot(index)] = velocity;
+  }
+
+  void addFirst(int position, int velocity) {
+    ensureCapacity();
+    first = (first - 1) & (positions.length - 1);
+    positions[first] = position;
+    velocities[first] = velocity;
+    count++;
+  }
+
+  void addLast(int position, int velocity) {
+    ensureCapacity();
+    positions[slot(count)] = position;
+    velocities[slot(count)] = velocity;
+    count++;
+  }
+
+  /**
+   * Moves the last cars that are no longer in the segment to the outbox.
+   */
+  void moveLeavingCarsToOutbox() {
+    int leaving = 0;
+    while (leaving < count && !contains(getPosition(count - 1 - leaving))) {
+      leaving++;
+    }
+    for (int i = 0; i < leaving; ++i) {
+      outPositions[i] = getPosition(count - leaving + i);
+      outVelocities[i] = getVelocity(count - leaving + i);
+    }
+    outCount = leaving;
+    count -= leaving;
+    stayedCount = count;
+    firstStayedPosition = count > 0 ? getPosition(0) : -1;
+  }
+
+  /**
+   * Takes over cars from the outbox of the previous segment, they are in front of all cars of this segment.
+   */
+  void receive(RoadSegment previous) {
+    for (int i = previous.outCount - 1; i >= 0; --i) {
+      addFirst(previous.outPositions[i], previous.outVelocities[i]);
+    }
+  }
+
+  private void ensureCapacity() {
+    if (count < positions.length) {
+      return;
+    }
+    int[] newPositions = new int[positions.length * 2];
+    int[] newVelocities = new int[positions.length * 2];
+    for (int i = 0; i < count; ++i) {
+      newPositions[i] = getPosition(i);
+      newVelocities[i] = getVelocity(i);
+    }
+    positions = newPositions;
+    velocities = newVelocities;
+    first = 0;
+  }
+}
@@ -0,0 +1,246 @@
+package m.traffic.core.model.segment;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import m.traffic.core.data.config.SimulationConfig;
+import m.traffic.core.data.state.SimulationStatistics;
+import m.traffic.core.data.state.SnapshotPool;
+import m.traffic.core.data.state.TrafficSnapshot;
+import m.traffic.core.model.TrafficModel;
+import m.traffic.core.model.kernel.VelocityRule;
+import m.traffic.core.model.parallel.ParallelStepper;
+import m.traffic.core.model.random.PhiloxRandom;
+import m.traffic.core.model.random.StepRandom;
+import m.traffic.stats.StatsCollector;
+
+/**
+ * NaSch or velocity based model on a cyclic road split into contiguous {@link RoadSegment}s, so a single very long
+ * road can be stepped by many threads. Every segment is at least maxSpeed + 1 cells long, so a car can only move
+ * into the next segment and the next car beyond the first car of the next segment is never closer than maxSpeed + 1.
+ * <p>
+ * A step has two phases separated by the join of the pool, and segments only read state of their neighbours:
+ * <ol>
+ *   <li>move: cars of the segment move, cars that crossed its end go to the outbox;</li>
+ *   <li>settle: the segment takes over the outbox of the previous one, copies its cars into the snapshot and
+ *   updates velocities for the next step. The next car of its last car is the first car of the own outbox or the
+ *   first car that stayed in the next segment.</li>
+ * </ol>
+ * Random values are addressed by the car index in road order, so results are the same as of the array engine with
+ * more than one thread and do not depend on the number of segments.
+ */
+public class SegmentedRingModel implements TrafficModel {
+  private static final int DETECTOR_POSITION = 0;
+  private static final int SEGMENTS_PER_THREAD = 4; // smaller segments let threads balance jams
+  private static final int NO_CAR = -1;
+
+  private SimulationConfig config;
+  private VelocityRule velocityRule;
+  private StepRandom stepRandom;
+  private ParallelStepper parallelStepper;
+  private RoadSegment[] segments;
+  private int roadLength;
+  private int carCount;
+  private int maxSpeed;
+
+  private TrafficSnapshot trafficSnapshot;
+  private SnapshotPool snapshotPool;
+  private SimulationStatistics simulationStatistics = new SimulationStatistics(0, 0, 0, 0);
+  private StatsCollector statsCollector;
+  private int stepCount = 0;
+
+  @Override
+  public void initialise(SimulationConfig config) {
+    if (!config.isCyclic()) {
+      throw new IllegalArgumentException("Сегментований рушій підтримує лише циклічну дорогу.");
+    }
+    this.config = config;
+    velocityRule = VelocityRule.forConfig(config);
+    roadLength = config.getRoadLength();
+    carCount = config.getCarCount();
+    maxSpeed = config.getMaxSpeed();
+    stepRandom = new PhiloxRandom(config.getRandomSeed());
+    parallelStepper = new ParallelStepper(Math.max(1, config.getThreads()));
+    statsCollector = new StatsCollector(config);
+    snapshotPool = SnapshotPool.forConfig(config);
+
+    int[] positions = new int[carCount];
+    int[] velocities = new int[carCount];
+    randomiseCarPositionAndSpeed(positions, velocities);
+    createSegments(positions, velocities);
+
+    // velocities for the first step
+    parallelStepper.forEach(segments.length, index -> updateVelocities(index, stepCount));
+  }
+
+  /**
+   * Same placement as in the other models: positions from java.util.Random, then speeds in road order.
+   */
+  private void randomiseCarPositionAndSpeed(int[] positions, int[] velocities) {
+    Random random = new Random(config.getRandomSeed());
+    long[] occupied = new long[(roadLength + 63) / 64];
+    for (int i = 0; i < carCount; ++i) {
+      int position;
+      do {
+        position = random.nextInt(0, roadLength);
+      } while ((occupied[position >>> 6] & (1L << position)) != 0);
+      positions[i] = position;
+      occupied[position >>> 6] |= 1L << position;
+    }
+
+    Arrays.sort(positions);
+
+    for (int i = 0; i < carCount; ++i) {
+      int speed = random.nextInt(0, maxSpeed + 1);
+
+      int nextCarPosition = positions[(i + 1) % carCount];
+      int distanceToNextCar = Math.floorMod(nextCarPosition - positions[i], roadLength);
+      if (speed >= Math.max(0, distanceToNextCar - 1)) {
+        speed = Math.max(0, distanceToNextCar - 1); // ensure that the car does not collide with the next car
+      }
+      velocities[i] = speed;
+    }
+  }
+
+  private void createSegments(int[] positions, int[] velocities) {
+    int threads = Math.max(1, config.getThreads());
+    int segmentCount = Math.max(1, Math.min(threads * SEGMENTS_PER_THREAD, roadLength / (maxSpeed + 1)));
+    segments = new RoadSegment[segmentCount];
+    int car = 0;
+    for (int s = 0; s < segmentCount; ++s) {
+      int start = (int) ((long) roadLength * s / segmentCount);
+      int end = (int) ((long) roadLength * (s + 1) / segmentCount);
+      RoadSegment segment = new RoadSegment(start, end, maxSpeed, carCount / segmentCount);
+      while (car < carCount && positions[car] < end) {
+        segment.addLast(positions[car], velocities[car]);
+        car++;
+      }
+      segment.moveLeavingCarsToOutbox(); // nothing leaves, publishes the first car
+      segments[s] = segment;
+    }
+  }
+
+  @Override
+  public void nextStep() {
+    parallelStepper.forEach(segments.length, this::moveCars);
+
+    TrafficSnapshot snapshot = snapshotPool.acquire(carCount);
+    int[] positions = snapshot.getPositions();
+    int[] velocities = snapshot.getVelocities();
+    parallelStepper.forEach(segments.length, index -> settle(index, positions, velocities));
+
+    int vehiclesPassed = 0;
+    for (RoadSegment segment : segments) {
+      vehiclesPassed += segment.vehiclesPassed;
+    }
+    snapshot.setStep(roadLength, carCount, stepCount, vehiclesPassed);
+    trafficSnapshot = snapshotPool.publish(snapshot);
+    updateSimulationStatistics(getSnapshot());
+    stepCount++;
+  }
+
+  private void moveCars(int index) {
+    RoadSegment segment = segments[index];
+    int vehiclesPassed = 0;
+    for (int i = 0; i < segment.count(); ++i) {
+      int position = segment.getPosition(i);
+      int velocity = segment.getVelocity(i);
+      // the car passes the detector when it leaves detector cell: it either starts there or drives through it
+      if (velocity > Math.floorMod(DETECTOR_POSITION - position, roadLength)) {
+        vehiclesPassed++;
+      }
+      int nextPosition = position + velocity;
+      segment.setPosition(i, nextPosition < roadLength ? nextPosition : nextPosition - roadLength);
+    }
+    segment.vehiclesPassed = vehiclesPassed;
+    segment.moveLeavingCarsToOutbox();
+  }
+
+  private void settle(int index, int[] positions, int[] velocities) {
+    RoadSegment segment = segments[index];
+    segment.receive(previous(index));
+
+    int offset = getCarOffset(index);
+    for (int i = 0; i < segment.count(); ++i) {
+      positions[offset + i] = segment.getPosition(i);
+      velocities[offset + i] = segment.getVelocity(i);
+    }
+    updateVelocities(index, stepCount + 1);
+  }
+
+  private void updateVelocities(int index, int step) {
+    RoadSegment segment = segments[index];
+    int offset = getCarOffset(index);
+    int count = segment.count();
+    for (int i = 0; i < count; ++i) {
+      int position = segment.getPosition(i);
+      int nextCarPosition = i + 1 < count ? segment.getPosition(i + 1) : getFirstCarAfter(index);
+
+      int distanceToNextCar;
+      if (carCount == 1) {
+        distanceToNextCar = 0; // the only car is its own next car, as in the other models
+      } else if (nextCarPosition == NO_CAR) {
+        distanceToNextCar = maxSpeed + 1; // next segment is empty, so the next car is too far to matter
+      } else {
+        distanceToNextCar = Math.floorMod(nextCarPosition - position, roadLength);
+      }
+
+      int velocity = velocityRule.accelerate(segment.getVelocity(i), distanceToNextCar);
+      double randomValue = stepRandom.nextDouble(StepRandom.BRAKING_STREAM, step, offset + i);
+      segment.setVelocity(i, velocityRule.brake(velocity, randomValue));
+    }
+  }
+
+  /**
+   * Position of the first car of the next segment after cars are handed over, it is read from the state published
+   * in the move phase only.
+   */
+  private int getFirstCarAfter(int index) {
+    RoadSegment segment = segments[index];
+    if (segment.outCount > 0) {
+      return segment.outPositions[0]; // cars that left this segment are now the first cars of the next one
+    }
+    RoadSegment next = segments[(index + 1) % segments.length];
+    return next.stayedCount > 0 ? next.firstStayedPosition : NO_CAR;
+  }
+
+  /**
+   * Road index of the first car of the segment after cars are handed over.
+   */
+  private int getCarOffset(int index) {
+    int offset = 0;
+    for (int s = 0; s < index; ++s) {
+      offset += segments[s].stayedCount + previous(s).outCount;
+    }
+    return offset;
+  }
+
+  private RoadSegment previous(int index) {
+    return segments[(index + segments.length - 1) % segments.length];
+  }
+
+  private void updateSimulationStatistics(TrafficSnapshot snapshot) {
+    statsCollector.addToStats(simulationStatistics, snapshot);
+    statsCollector.writeStatsToFile(simulationStatistics);
+  }
+
+  @Override
+  public SimulationConfig getConfig() {
+    return config;
+  }
+
+  @Override
+  public TrafficSnapshot getSnapshot() {
+    return trafficSnapshot;
+  }
+
+  @Override
+  public SimulationStatistics getStatistics() {
+    return simulationStatistics;
+  }
+
+  @Override
+  public StatsCollector getStatsCollector() {
+    return statsCollector;
+  }
+}
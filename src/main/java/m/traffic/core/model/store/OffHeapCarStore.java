@@ -0,0 +1,94 @@
+package m.traffic.core.model.store;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Positions and velocities of cars kept outside of the Java heap, so they are never scanned or moved by the GC.
+ * A car takes {@link #CAR_BYTES} bytes: position and velocity ints next to each other. Car indexes are ints like
+ * the car count of the config, but all cars take up to 16 GiB, so they are split into chunks of at most 1 GiB:
+ * a single buffer is indexed by int. The store either lives in direct memory or is mapped from a file, then the
+ * road can be bigger than the physical memory.
+ */
+public class OffHeapCarStore {
+  public static final int CAR_BYTES = 2 * Integer.BYTES;
+  private static final int CHUNK_SHIFT = 27; // 2^27 cars per chunk
+  private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+  private static final int VELOCITY_OFFSET = Integer.BYTES;
+
+  private final ByteBuffer[] chunks;
+  private final int carCount;
+
+  private OffHeapCarStore(ByteBuffer[] chunks, int carCount) {
+    this.chunks = chunks;
+    this.carCount = carCount;
+  }
+
+  public static OffHeapCarStore allocate(int carCount) {
+    ByteBuffer[] chunks = new ByteBuffer[getChunkCount(carCount)];
+    for (int chunk = 0; chunk < chunks.length; ++chunk) {
+      chunks[chunk] = ByteBuffer.allocateDirect(getChunkBytes(carCount, chunk)).order(ByteOrder.nativeOrder());
+    }
+    return new OffHeapCarStore(chunks, carCount);
+  }
+
+  /**
+   * Store backed by the file, its previous content is overwritten. The file stays mapped after the channel is
+   * closed, until the store is garbage collected.
+   */
+  public static OffHeapCarStore map(Path file, int carCount) {
+    ByteBuffer[] chunks = new ByteBuffer[getChunkCount(carCount)];
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      for (int chunk = 0; chunk < chunks.length; ++chunk) {
+        long offset = ((long) chunk << CHUNK_SHIFT) * CAR_BYTES;
+        chunks[chunk] = channel.map(FileChannel.MapMode.READ_WRITE, offset, getChunkBytes(carCount, chunk))
+            .order(ByteOrder.nativeOrder());
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Не вдалося відобразити файл " + file + " у пам'ять", e);
+    }
+    return new OffHeapCarStore(chunks, carCount);
+  }
+
+  private static int getChunkCount(int carCount) {
+    if (carCount < 0) {
+      throw new IllegalArgumentException("Кількість автомобілів не може бути від'ємною: " + carCount);
+    }
+    return (int) ((carCount + (long) CHUNK_MASK) >>> CHUNK_SHIFT);
+  }
+
+  private static int getChunkBytes(int carCount, int chunk) {
+    int chunkCars = Math.min(carCount - (chunk << CHUNK_SHIFT), 1 << CHUNK_SHIFT);
+    return chunkCars * CAR_BYTES;
+  }
+
+  public int getCarCount() {
+    return carCount;
+  }
+
+  public int getPosition(int car) {
+    return chunks[car >>> CHUNK_SHIFT].getInt(offset(car));
+  }
+
+  public void setPosition(int car, int position) {
+    chunks[car >>> CHUNK_SHIFT].putInt(offset(car), position);
+  }
+
+  public int getVelocity(int car) {
+    return chunks[car >>> CHUNK_SHIFT].getInt(offset(car) + VELOCITY_OFFSET);
+  }
+
+  public void setVelocity(int car, int velocity) {
+    chunks[car >>> CHUNK_SHIFT].putInt(offset(car) + VELOCITY_OFFSET, velocity);
+  }
+
+  private static int offset(int car) {
+    return (car & CHUNK_MASK) * CAR_BYTES;
+  }
+}
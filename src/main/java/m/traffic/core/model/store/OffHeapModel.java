@@ -0,0 +1,249 @@
+package m.traffic.core.model.store;
+
+import java.nio.file.Path;
+import java.util.Random;
+
+import m.traffic.core.data.config.SimulationConfig;
+import m.traffic.core.data.state.CarView;
+import m.traffic.core.data.state.SimulationStatistics;
+import m.traffic.core.data.state.SnapshotPool;
+import m.traffic.core.data.state.TrafficSnapshot;
+import m.traffic.core.model.TrafficModel;
+import m.traffic.core.model.kernel.VelocityRule;
+import m.traffic.core.model.random.StepRandom;
+import m.traffic.stats.StatsCollector;
+
+/**
+ * Nagel-Schreckenberg and velocity based models with cars kept in an {@link OffHeapCarStore}, so the heap does not
+ * grow with the road. Cars are stored in cyclic road order starting from {@code head} like in the array models and
+ * the same random numbers are used, so results are the same as of the array engine. The road itself is not stored:
+ * cars never overtake each other, so the next car in the store is also the next one on the road. Snapshots read
+ * the store directly through a {@link CarView} instead of copying it.
+ * <p>
+ * Road length is an int like in the other engines. Positions are kept below {@link #MAX_ROAD_LENGTH} so that a
+ * position plus a velocity and the position behind the end of an open road do not overflow.
+ */
+public class OffHeapModel implements TrafficModel, CarView {
+  private static final int DETECTOR_POSITION = 0;
+  private static final int MAX_ROAD_LENGTH = Integer.MAX_VALUE / 2;
+
+  private OffHeapCarStore cars;
+  private int carCount;
+  private int roadLength;
+  private int maxSpeed;
+  private int head = 0; // slot of the car closest to the start of the road
+
+  private SimulationConfig config;
+  private TrafficSnapshot trafficSnapshot;
+  private SnapshotPool snapshotPool;
+  private SimulationStatistics simulationStatistics = new SimulationStatistics(0, 0, 0, 0);
+  private StatsCollector statsCollector;
+  private Random random; // initial placement and speeds
+  private StepRandom stepRandom;
+  private VelocityRule velocityRule;
+  private int stepCount = 0;
+  private int vehiclesPassedPerStep = 0;
+  private int enteredCarsPerStep = 0;
+
+  @Override
+  public void initialise(SimulationConfig config) {
+    this.config = config;
+    random = new Random(config.getRandomSeed());
+    stepRandom = StepRandom.create(random, config);
+
+    statsCollector = new StatsCollector(config);
+
+    snapshotPool = SnapshotPool.forConfig(config);
+    roadLength = config.getRoadLength();
+    maxSpeed = config.getMaxSpeed();
+    if (roadLength > MAX_ROAD_LENGTH || maxSpeed > MAX_ROAD_LENGTH) {
+      throw new IllegalArgumentException("Рушій offheap підтримує дороги до %d клітинок.".formatted(MAX_ROAD_LENGTH));
+    }
+    carCount = config.getCarCount();
+    String file = config.getOffHeapFile();
+    cars = file == null || file.isBlank()
+        ? OffHeapCarStore.allocate(carCount)
+        : OffHeapCarStore.map(Path.of(file), carCount);
+    velocityRule = VelocityRule.forConfig(config);
+    randomiseCarPositionAndSpeed();
+  }
+
+  private void randomiseCarPositionAndSpeed() {
+    // randomly place cars on the road, a bit per cell is enough to reject occupied cells
+    long[] occupied = new long[(int) ((roadLength + Long.SIZE - 1L) / Long.SIZE)];
+    for (int i = 0; i < carCount; ++i) {
+      int position;
+      do {
+        position = getRandomInt(roadLength);
+      } while ((occupied[position >>> 6] & (1L << position)) != 0);
+      occupied[position >>> 6] |= 1L << position;
+    }
+
+    // cars in road order are the set bits in order
+    int car = 0;
+    for (int word = 0; word < occupied.length; ++word) {
+      long bits = occupied[word];
+      while (bits != 0) {
+        cars.setPosition(car++, word * Long.SIZE + Long.numberOfTrailingZeros(bits));
+        bits &= bits - 1;
+      }
+    }
+
+    // randomly set car speeds
+    for (int i = 0; i < carCount; ++i) {
+      int speed = getRandomInt(maxSpeed + 1);
+
+      int distanceToNextCar = getDistanceToNextCar(i, getNextCarPosition(i, cars.getPosition(head)));
+      if (speed >= Math.max(0, distanceToNextCar - 1)) {
+        speed = Math.max(0, distanceToNextCar - 1); // ensure that the car does not collide with the next car
+      }
+      cars.setVelocity(i, speed);
+    }
+  }
+
+  /**
+   * Slot of the car in the store by its index in road order.
+   */
+  private int slot(int index) {
+    int slot = head + index;
+    return slot < carCount ? slot : slot - carCount;
+  }
+
+  private int getRandomInt(int max) {
+    return random.nextInt(0, max);
+  }
+
+  private int getExitRandomInt(int max) {
+    return stepRandom.nextInt(StepRandom.EXIT_STREAM, stepCount, 0, max);
+  }
+
+  @Override
+  public void nextStep() {
+    if (carCount > 0) {
+      moveCars();
+    }
+    takeSnapshot();
+    updateSimulationStatistics(getSnapshot());
+    vehiclesPassedPerStep = 0;
+    enteredCarsPerStep = 0;
+    stepCount++;
+  }
+
+  /**
+   * Velocity of a car depends only on the next car, so every car is moved right after its velocity is updated.
+   * Only the first car is moved before its previous car looks at it, so its old position is kept aside.
+   */
+  private void moveCars() {
+    int firstCarPosition = cars.getPosition(head);
+    int lastSlot = slot(carCount - 1);
+    int lastCarPosition = cars.getPosition(lastSlot);
+    for (int i = 0; i < carCount; ++i) {
+      int slot = slot(i);
+      int position = cars.getPosition(slot);
+      int distanceToNextCar = getDistanceToNextCar(i, getNextCarPosition(i, firstCarPosition));
+      int velocity = velocityRule.accelerate(cars.getVelocity(slot), distanceToNextCar);
+      velocity = velocityRule.brake(velocity, stepRandom.nextDouble(StepRandom.BRAKING_STREAM, stepCount, i));
+      if (passesDetector(position, velocity)) {
+        vehiclesPassedPerStep++;
+      }
+
+      int nextPosition = position + velocity;
+      if (nextPosition >= roadLength) {
+        if (config.isCyclic()) {
+          nextPosition = nextPosition % roadLength; // cycle around the road
+        } else {
+          // only the last car can leave the road, it is placed randomly near the start of the road
+          nextPosition = Math.min(getExitRandomInt(cars.getPosition(head)), maxSpeed - 1);
+          velocity = velocityRule.accelerate(velocity, Math.max(nextPosition, 1));
+          enteredCarsPerStep++;
+        }
+      }
+      cars.setPosition(slot, nextPosition);
+      cars.setVelocity(slot, velocity);
+    }
+
+    // the last car that passed the end of the road becomes the first one
+    if (cars.getPosition(lastSlot) < lastCarPosition) {
+      head = lastSlot;
+    }
+  }
+
+  private boolean passesDetector(int position, int velocity) {
+    if (config.isCyclic()) {
+      // the car passes the detector when it leaves detector cell: it either starts there or drives through it
+      // and at least one cell further
+      int distanceToDetector = Math.floorMod(DETECTOR_POSITION - position, roadLength);
+      return velocity > distanceToDetector;
+    }
+    return position < DETECTOR_POSITION && position + velocity >= DETECTOR_POSITION;
+  }
+
+  private int getNextCarPosition(int index, int firstCarPosition) {
+    boolean lastCar = (index + 1) == carCount;
+    if (!lastCar) {
+      return cars.getPosition(slot(index + 1));
+    } else if (config.isCyclic()) {
+      return firstCarPosition;
+    }
+    return firstCarPosition != 0
+        ? roadLength + maxSpeed // no next car, so car is out of road
+        : roadLength; // next car is just before out of road to avoid collision with car that is at the first place
+  }
+
+  private int getDistanceToNextCar(int index, int nextCarPosition) {
+    int currentCarPosition = cars.getPosition(slot(index));
+    int distanceToNextCar = nextCarPosition - currentCarPosition;
+    if (distanceToNextCar < 0) {
+      if (config.isCyclic()) {
+        distanceToNextCar += roadLength;
+      } else {
+        throw new IllegalStateException("Next car is behind the current car. Current car position: "
+            + currentCarPosition + ", next car position: " + nextCarPosition);
+      }
+    }
+    return distanceToNextCar;
+  }
+
+  private void updateSimulationStatistics(TrafficSnapshot snapshot) {
+    statsCollector.addToStats(simulationStatistics, snapshot);
+    statsCollector.writeStatsToFile(simulationStatistics);
+  }
+
+  private void takeSnapshot() {
+    TrafficSnapshot snapshot = snapshotPool.acquire(0); // cars stay in the store
+    snapshot.setCarView(this);
+    snapshot.setStep(roadLength, carCount, stepCount, vehiclesPassedPerStep);
+    snapshot.setEnteredCars(enteredCarsPerStep);
+    trafficSnapshot = snapshotPool.publish(snapshot);
+  }
+
+  @Override
+  public int getPosition(int index) {
+    return cars.getPosition(slot(index));
+  }
+
+  @Override
+  public int getVelocity(int index) {
+    return cars.getVelocity(slot(index));
+  }
+
+  @Override
+  public SimulationConfig getConfig() {
+    return config;
+  }
+
+  @Override
+  public TrafficSnapshot getSnapshot() {
+    return trafficSnapshot;
+  }
+
+  @Override
+  public SimulationStatistics getStatistics() {
+    return simulationStatistics;
+  }
+
+  @Override
+  public StatsCollector getStatsCollector() {
+    return statsCollector;
+  }
+}
@@ -0,0 +1,25 @@
+package m.traffic.core.model.type;
+
+public enum BackpressurePolicy {
+  BLOCK("block"), // the simulation waits for the writer when the write queue is full
+  DROP("drop"); // snapshots that do not fit into the full write queue are not written
+
+  private final String name;
+
+  BackpressurePolicy(String name) {
+    this.name = name;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public static BackpressurePolicy fromString(String name) {
+    for (BackpressurePolicy policy : BackpressurePolicy.values()) {
+      if (policy.name.equalsIgnoreCase(name)) {
+        return policy;
+      }
+    }
+    throw new IllegalArgumentException("Невідома політика заповненої черги запису: " + name);
+  }
+}
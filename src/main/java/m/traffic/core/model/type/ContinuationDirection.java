@@ -0,0 +1,27 @@
+package m.traffic.core.model.type;
+
+public enum ContinuationDirection {
+  NONE("none"), // every grid point starts from random cars
+  UP("up"), // car counts in increasing order, each one starts from the final state of the previous one
+  DOWN("down"), // car counts in decreasing order
+  BOTH("both"); // up and then down, to compare branches of the fundamental diagram
+
+  private final String name;
+
+  ContinuationDirection(String name) {
+    this.name = name;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public static ContinuationDirection fromString(String name) {
+    for (ContinuationDirection direction : ContinuationDirection.values()) {
+      if (direction.name.equalsIgnoreCase(name)) {
+        return direction;
+      }
+    }
+    throw new IllegalArgumentException("Невідомий напрям продовження перебору: " + name);
+  }
+}
@@ -0,0 +1,28 @@
+package m.traffic.core.model.type;
+
+public enum EngineType {
+  OBJECT("object"), // List<Cell> + List<Vehicle> models
+  ARRAY("array"), // primitive array models: structure-of-arrays NaSch and VBM, bit-packed Rule 184
+  VECTOR("vector"), // array models with the Vector API velocity kernel, needs --add-modules jdk.incubator.vector
+  SEGMENTED("segmented"), // cyclic road split into segments stepped by separate threads
+  OFF_HEAP("offheap"); // NaSch and VBM with cars in direct or file-mapped memory, for roads that do not fit the heap
+
+  private final String name;
+
+  EngineType(String name) {
+    this.name = name;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public static EngineType fromString(String name) {
+    for (EngineType type : EngineType.values()) {
+      if (type.name.equalsIgnoreCase(name)) {
+        return type;
+      }
+    }
+    throw new IllegalArgumentException("Невідомий тип рушія: " + name);
+  }
+}
@@ -0,0 +1,26 @@
+package m.traffic.core.model.type;
+
+public enum OutputFormat {
+  TEXT("text"), // position and velocity files with a line of numbers per step
+  BINARY("binary"), // bit-packed position.bin and byte-per-cell velocity.bin with a header
+  DELTA("delta"); // spacetime.delta with changed cells of every step and periodic keyframes
+
+  private final String name;
+
+  OutputFormat(String name) {
+    this.name = name;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public static OutputFormat fromString(String name) {
+    for (OutputFormat format : OutputFormat.values()) {
+      if (format.name.equalsIgnoreCase(name)) {
+        return format;
+      }
+    }
+    throw new IllegalArgumentException("Невідомий формат виводу: " + name);
+  }
+}
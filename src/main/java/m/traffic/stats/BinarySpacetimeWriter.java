@@ -0,0 +1,155 @@
+package m.traffic.stats;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import m.traffic.core.data.config.SimulationConfig;
+import m.traffic.core.data.state.TrafficSnapshot;
+
+/**
+ * Spacetime file with one binary row per step, read by plot/stats/stats_reader.py with numpy.
+ * <p>
+ * Little-endian header of {@link #HEADER_SIZE} bytes: magic "TMST", int32 version, int32 row type (0 occupancy,
+ * 1 velocity), int32 max speed, int64 road length, int64 row count, then the model name padded with zeros.
+ * Occupancy rows are bit-packed, cell i is bit i % 8 of byte i / 8, velocity rows have an int8 per cell (-1 for
+ * cells of an empty cyclic road). Rows are buffered and written at the position kept in memory, the row count of
+ * the header is updated by {@link #flush()} and {@link #close()}; readers count whole rows by the file size.
+ */
+public class BinarySpacetimeWriter {
+  public static final int HEADER_SIZE = 64;
+  private static final byte[] MAGIC = "TMST".getBytes(StandardCharsets.US_ASCII);
+  private static final int VERSION = 1;
+  private static final int ROW_COUNT_OFFSET = 24;
+  private static final int MODEL_NAME_OFFSET = 32;
+  private static final int MODEL_NAME_LENGTH = HEADER_SIZE - MODEL_NAME_OFFSET;
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  public enum RowType {
+    OCCUPANCY, VELOCITY
+  }
+
+  private final File file;
+  private final FileChannel channel;
+  private final RowType rowType;
+  private final StatsWriter statsWriter;
+  private final long rowBytes;
+  private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+  private final ByteBuffer rowCountBuffer = ByteBuffer.allocate(Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+  private int bitsInByte = 0; // occupancy cells of the current byte
+  private int currentByte = 0;
+  private long position = -1; // end of the file, read at the first write: a resumed file can be cut to a checkpoint
+  private long rowCount;
+
+  /**
+   * @param append continue an existing file of a resumed run instead of creating a new one
+   */
+  public BinarySpacetimeWriter(File file, RowType rowType, SimulationConfig config, boolean append) {
+    if (rowType == RowType.VELOCITY && config.getMaxSpeed() > Byte.MAX_VALUE) {
+      throw new IllegalArgumentException("Двійковий формат підтримує максимальну швидкість до " + Byte.MAX_VALUE);
+    }
+    this.file = file;
+    this.rowType = rowType;
+    this.statsWriter = new StatsWriter(config);
+    this.rowBytes = rowType == RowType.OCCUPANCY ? (config.getRoadLength() + 7L) / 8 : config.getRoadLength();
+    try {
+      channel = append
+          ? FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)
+          : FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+              StandardOpenOption.TRUNCATE_EXISTING);
+      if (channel.size() == 0) {
+        writeHeader(config);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Не вдалось відкрити файл: " + file, e);
+    }
+  }
+
+  private void writeHeader(SimulationConfig config) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    header.put(MAGIC).putInt(VERSION).putInt(rowType.ordinal()).putInt(config.getMaxSpeed())
+        .putLong(config.getRoadLength()).putLong(0);
+    byte[] modelName = config.getModelType().getName().getBytes(StandardCharsets.US_ASCII);
+    header.position(MODEL_NAME_OFFSET);
+    header.put(modelName, 0, Math.min(modelName.length, MODEL_NAME_LENGTH));
+    header.clear();
+    channel.write(header, 0);
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  public void writeRow(TrafficSnapshot trafficSnapshot) {
+    try {
+      if (position < 0) {
+        position = channel.size();
+        rowCount = (position - HEADER_SIZE) / rowBytes;
+      }
+      if (rowType == RowType.OCCUPANCY) {
+        statsWriter.forEachCellOccupancy(trafficSnapshot, this::putBit);
+        if (bitsInByte > 0) {
+          putByte(currentByte);
+        }
+      } else {
+        statsWriter.forEachCellVelocity(trafficSnapshot, this::putByte);
+      }
+      rowCount++;
+    } catch (IOException e) {
+      throw new UncheckedIOException("Не вдалось записати файл: " + file, e);
+    }
+  }
+
+  private void putBit(int occupied) throws IOException {
+    currentByte |= occupied << bitsInByte;
+    if (++bitsInByte == Byte.SIZE) {
+      putByte(currentByte);
+    }
+  }
+
+  private void putByte(int value) throws IOException {
+    buffer.put((byte) value);
+    bitsInByte = 0;
+    currentByte = 0;
+    if (!buffer.hasRemaining()) {
+      flushBuffer();
+    }
+  }
+
+  private void flushBuffer() throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      position += channel.write(buffer, position);
+    }
+    buffer.clear();
+  }
+
+  /**
+   * Writes the buffered rows and the row count, called before the file length is saved with a checkpoint.
+   */
+  public void flush() {
+    if (position < 0) {
+      return; // nothing written
+    }
+    try {
+      flushBuffer();
+      rowCountBuffer.clear();
+      rowCountBuffer.putLong(rowCount).flip();
+      channel.write(rowCountBuffer, ROW_COUNT_OFFSET);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Не вдалось записати файл: " + file, e);
+    }
+  }
+
+  public void close() {
+    try (channel) {
+      flush();
+    } catch (IOException e) {
+      throw new UncheckedIOException("Не вдалось закрити файл: " + file, e);
+    }
+  }
+}
@@ -0,0 +1,281 @@
+package m.traffic.stats;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import m.traffic.core.data.config.SimulationConfig;
+import m.traffic.core.data.state.TrafficSnapshot;
+
+/**
+ * Spacetime file with only the cells that changed since the previous step, decoded by read_delta_spacetime of
+ * plot/stats/stats_reader.py. Roads with few cars or with mostly stopped cars take a small part of the binary rows.
+ * <p>
+ * Little-endian header of {@link BinarySpacetimeWriter#HEADER_SIZE} bytes: magic "TMSD", int32 version, int32
+ * keyframe interval, int16 max speed, int8 1 for a cyclic road, a padding byte, int64 road length, int64 frame
+ * count, then the model name padded with zeros. Every step is a frame: int8 kind, int32 payload length, payload.
+ * A keyframe (kind 0) has a varint car count and for every car a varint distance from the previous car (from cell 0
+ * for the first one) and an int8 velocity. A delta frame (kind 1) has runs of changed cells: a varint number of
+ * unchanged cells before the run, a varint run length and an int8 per cell, 0 for an empty cell or velocity + 1.
+ * Frames with a number divisible by the keyframe interval are keyframes, so is the first frame after a resume.
+ * Frames are buffered and written at the position kept in memory, the frame count of the header is updated by
+ * {@link #flush()} and {@link #close()}; readers count whole frames by their headers.
+ */
+public class DeltaSpacetimeWriter {
+  private static final byte[] MAGIC = "TMSD".getBytes(StandardCharsets.US_ASCII);
+  private static final int VERSION = 1;
+  private static final int FRAME_COUNT_OFFSET = 24;
+  private static final int MODEL_NAME_OFFSET = 32;
+  private static final int MODEL_NAME_LENGTH = BinarySpacetimeWriter.HEADER_SIZE - MODEL_NAME_OFFSET;
+  private static final int FRAME_HEADER_SIZE = 5;
+  private static final byte KEYFRAME = 0;
+  private static final byte DELTA = 1;
+  private static final int MAX_VARINT_SIZE = 5; // of an int
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private final File file;
+  private final FileChannel channel;
+  private final int keyframeInterval;
+  private final ByteBuffer frameHeader = ByteBuffer.allocate(FRAME_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+  private final ByteBuffer frameCountBuffer = ByteBuffer.allocate(Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+  private final ByteBuffer output = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+  private ByteBuffer frame = ByteBuffer.allocate(BUFFER_SIZE);
+  private long position = -1; // end of the file, read at the first write: a resumed file can be cut to a checkpoint
+  private long frameCount;
+  private int[] previousPositions = new int[0];
+  private int[] previousVelocities = new int[0];
+  private int previousCount = -1; // no previous step, the next frame is a keyframe
+  private int[] changedCells = new int[0];
+  private int[] changedValues = new int[0];
+
+  /**
+   * @param append continue an existing file of a resumed run instead of creating a new one
+   */
+  public DeltaSpacetimeWriter(File file, SimulationConfig config, boolean append) {
+    if (config.getMaxSpeed() >= Byte.MAX_VALUE) {
+      throw new IllegalArgumentException("Дельта-формат підтримує максимальну швидкість до " + (Byte.MAX_VALUE - 1));
+    }
+    if (config.getDeltaKeyframeInterval() < 1) {
+      throw new IllegalArgumentException("Інтервал ключових кадрів має бути додатним: "
+          + config.getDeltaKeyframeInterval());
+    }
+    this.file = file;
+    this.keyframeInterval = config.getDeltaKeyframeInterval();
+    try {
+      channel = append
+          ? FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+              StandardOpenOption.WRITE)
+          : FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+              StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+      if (channel.size() == 0) {
+        writeHeader(config);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Не вдалось відкрити файл: " + file, e);
+    }
+  }
+
+  private void writeHeader(SimulationConfig config) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(BinarySpacetimeWriter.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    header.put(MAGIC).putInt(VERSION).putInt(keyframeInterval).putShort((short) config.getMaxSpeed())
+        .put((byte) (config.isCyclic() ? 1 : 0)).put((byte) 0).putLong(config.getRoadLength()).putLong(0);
+    byte[] modelName = config.getModelType().getName().getBytes(StandardCharsets.US_ASCII);
+    header.position(MODEL_NAME_OFFSET);
+    header.put(modelName, 0, Math.min(modelName.length, MODEL_NAME_LENGTH));
+    header.clear();
+    channel.write(header, 0);
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * @throws UncheckedIOException if the frame is not written, the next frame would be a delta to a missing one
+   */
+  public void writeFrame(TrafficSnapshot trafficSnapshot) {
+    try {
+      if (position < 0) {
+        position = channel.size();
+        frameCount = countFrames();
+      }
+      boolean keyframe = previousCount < 0 || frameCount % keyframeInterval == 0;
+      frame.clear();
+      if (keyframe) {
+        encodeKeyframe(trafficSnapshot);
+      } else {
+        encodeDelta(trafficSnapshot);
+      }
+      frame.flip();
+
+      if (output.remaining() < FRAME_HEADER_SIZE + frame.remaining()) {
+        flushOutput();
+      }
+      output.put(keyframe ? KEYFRAME : DELTA).putInt(frame.remaining());
+      if (frame.remaining() <= output.remaining()) {
+        output.put(frame);
+      } else {
+        flushOutput(); // a frame larger than the buffer is written directly
+        write(frame);
+      }
+      frameCount++;
+    } catch (IOException e) {
+      throw new UncheckedIOException("Не вдалось записати файл: " + file, e);
+    }
+    rememberCars(trafficSnapshot);
+  }
+
+  private void flushOutput() throws IOException {
+    output.flip();
+    write(output);
+    output.clear();
+  }
+
+  private void write(ByteBuffer bytes) throws IOException {
+    while (bytes.hasRemaining()) {
+      position += channel.write(bytes, position);
+    }
+  }
+
+  /**
+   * Writes the buffered frames and the frame count, called before the file length is saved with a checkpoint.
+   */
+  public void flush() {
+    if (position < 0) {
+      return; // nothing written
+    }
+    try {
+      flushOutput();
+      frameCountBuffer.clear();
+      frameCountBuffer.putLong(frameCount).flip();
+      channel.write(frameCountBuffer, FRAME_COUNT_OFFSET);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Не вдалось записати файл: " + file, e);
+    }
+  }
+
+  private void encodeKeyframe(TrafficSnapshot trafficSnapshot) {
+    int carCount = trafficSnapshot.getCarCount();
+    ensureFrameCapacity(MAX_VARINT_SIZE + (long) carCount * (MAX_VARINT_SIZE + 1));
+    putVarint(carCount);
+    int previousPosition = 0;
+    for (int car = 0; car < carCount; ++car) {
+      int position = trafficSnapshot.getPosition(car);
+      putVarint(position - previousPosition);
+      frame.put((byte) trafficSnapshot.getVelocity(car));
+      previousPosition = position;
+    }
+  }
+
+  private void encodeDelta(TrafficSnapshot trafficSnapshot) {
+    // both car lists are sorted by position, merging them gives the changed cells in road order
+    int carCount = trafficSnapshot.getCarCount();
+    ensureChangeCapacity(previousCount + carCount);
+    int changeCount = 0;
+    int previous = 0;
+    int current = 0;
+    int currentPosition = carCount > 0 ? trafficSnapshot.getPosition(0) : Integer.MAX_VALUE; // read once per car
+    while (previous < previousCount || current < carCount) {
+      int previousPosition = previous < previousCount ? previousPositions[previous] : Integer.MAX_VALUE;
+      if (previousPosition == currentPosition) {
+        int velocity = trafficSnapshot.getVelocity(current);
+        if (velocity != previousVelocities[previous]) {
+          changedCells[changeCount] = currentPosition;
+          changedValues[changeCount++] = velocity + 1;
+        }
+        previous++;
+        currentPosition = ++current < carCount ? trafficSnapshot.getPosition(current) : Integer.MAX_VALUE;
+      } else if (previousPosition < currentPosition) {
+        changedCells[changeCount] = previousPosition;
+        changedValues[changeCount++] = 0;
+        previous++;
+      } else {
+        changedCells[changeCount] = currentPosition;
+        changedValues[changeCount++] = trafficSnapshot.getVelocity(current) + 1;
+        currentPosition = ++current < carCount ? trafficSnapshot.getPosition(current) : Integer.MAX_VALUE;
+      }
+    }
+
+    ensureFrameCapacity((long) changeCount * (2 * MAX_VARINT_SIZE + 1));
+    int nextCell = 0; // first cell after the previous run
+    for (int run = 0; run < changeCount; ) {
+      int end = run + 1;
+      while (end < changeCount && changedCells[end] == changedCells[end - 1] + 1) {
+        end++;
+      }
+      putVarint(changedCells[run] - nextCell);
+      putVarint(end - run);
+      for (int i = run; i < end; ++i) {
+        frame.put((byte) changedValues[i]);
+      }
+      nextCell = changedCells[end - 1] + 1;
+      run = end;
+    }
+  }
+
+  private void rememberCars(TrafficSnapshot trafficSnapshot) {
+    int carCount = trafficSnapshot.getCarCount();
+    if (previousPositions.length < carCount) {
+      previousPositions = new int[carCount];
+      previousVelocities = new int[carCount];
+    }
+    for (int car = 0; car < carCount; ++car) {
+      previousPositions[car] = trafficSnapshot.getPosition(car);
+      previousVelocities[car] = trafficSnapshot.getVelocity(car);
+    }
+    previousCount = carCount;
+  }
+
+  private void putVarint(int value) {
+    while ((value & ~0x7F) != 0) {
+      frame.put((byte) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    frame.put((byte) value);
+  }
+
+  private void ensureFrameCapacity(long bytes) {
+    if (bytes > frame.capacity()) {
+      frame = ByteBuffer.allocate((int) Math.min(Integer.MAX_VALUE - 8, Math.max(bytes, 2L * frame.capacity())));
+    }
+  }
+
+  private void ensureChangeCapacity(int changes) {
+    if (changedCells.length < changes) {
+      changedCells = new int[changes];
+      changedValues = new int[changes];
+    }
+  }
+
+  /**
+   * Frames of a resumed file, whole frames only: the file ends at a frame boundary after a checkpoint cut.
+   */
+  private long countFrames() throws IOException {
+    long count = 0;
+    long offset = BinarySpacetimeWriter.HEADER_SIZE;
+    long size = channel.size();
+    while (offset + FRAME_HEADER_SIZE <= size) {
+      frameHeader.clear();
+      while (frameHeader.hasRemaining()) {
+        if (channel.read(frameHeader, offset + frameHeader.position()) < 0) {
+          return count;
+        }
+      }
+      offset += FRAME_HEADER_SIZE + frameHeader.getInt(1);
+      count++;
+    }
+    return count;
+  }
+
+  public void close() {
+    try (channel) {
+      flush();
+    } catch (IOException e) {
+      throw new UncheckedIOException("Не вдалось закрити файл: " + file, e);
+    }
+  }
+}
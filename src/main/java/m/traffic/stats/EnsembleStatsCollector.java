@@ -0,0 +1,73 @@
+package m.traffic.stats;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.function.ToDoubleFunction;
+import m.traffic.core.data.config.SimulationConfig;
+import m.traffic.core.data.state.SimulationStatistics;
+
+/**
+ * Writes one line per step to the "ensemble" file in the output directory of the config:
+ * mean and sample variance across replicas of density, average speed and flow, in this order. Every replica value
+ * is the same running average as in the density, average_speed and flow files of a single run. Lines are
+ * buffered and written when the buffer is full and by {@link #close()}.
+ */
+public class EnsembleStatsCollector {
+  private BufferedWriter ensembleWriter;
+  private final String outputDirectory;
+  private final StringBuilder row = new StringBuilder();
+
+  public EnsembleStatsCollector(SimulationConfig simulationConfig) {
+    String directoryName = StatsCollector.getPrefix(simulationConfig);
+    StatsCollector.initDirectory(directoryName);
+    outputDirectory = directoryName;
+    try {
+      ensembleWriter = new BufferedWriter(new FileWriter(directoryName + "/ensemble"));
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  public String getOutputDirectory() {
+    return outputDirectory;
+  }
+
+  public void writeStatsToFile(SimulationStatistics[] replicaStatistics) {
+    row.setLength(0);
+    appendMeanAndVariance(replicaStatistics, SimulationStatistics::getDensity);
+    appendMeanAndVariance(replicaStatistics, SimulationStatistics::getAverageSpeed);
+    appendMeanAndVariance(replicaStatistics, SimulationStatistics::getFlow);
+    try {
+      ensembleWriter.append(row);
+      ensembleWriter.newLine();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  private void appendMeanAndVariance(SimulationStatistics[] replicaStatistics,
+      ToDoubleFunction<SimulationStatistics> value) {
+    double mean = 0;
+    for (SimulationStatistics statistics : replicaStatistics) {
+      mean += value.applyAsDouble(statistics);
+    }
+    mean /= replicaStatistics.length;
+
+    double squaredDeviations = 0;
+    for (SimulationStatistics statistics : replicaStatistics) {
+      double deviation = value.applyAsDouble(statistics) - mean;
+      squaredDeviations += deviation * deviation;
+    }
+    double variance = replicaStatistics.length > 1 ? squaredDeviations / (replicaStatistics.length - 1) : 0.0;
+    row.append(mean).append(' ').append(variance).append(' ');
+  }
+
+  public void close() {
+    try {
+      ensembleWriter.close();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+}
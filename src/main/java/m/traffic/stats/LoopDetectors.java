@@ -0,0 +1,163 @@
+package m.traffic.stats;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import m.traffic.core.data.config.SimulationConfig;
+import m.traffic.core.data.state.TrafficSnapshot;
+import m.traffic.core.model.type.ModelType;
+
+/**
+ * Virtual loop detectors at cells of the road. A detector counts the cars that leave its cell, like the flow
+ * detector of the models, sums their velocities for the time-mean speed and counts the steps its cell is occupied.
+ * Crossings are found from the snapshot: a car at position p with velocity v left cells p - v .. p - 1 in the step,
+ * the detectors among them are found by a binary search in the sorted detector positions. Cars put back at the start
+ * of an open road (see {@link TrafficSnapshot#getEnteredCars()}) did not drive there and pass no detector.
+ * <p>
+ * The "detectors" file gets a line per interval with three values per detector in the order of positions: number
+ * of cars, their mean velocity (NaN if no car passed) and occupancy, the part of the steps with a car in the cell.
+ * Like {@link SpaceTimeAggregator} the sums of a complete interval go through the {@link WriteBehindQueue} if
+ * there is one.
+ */
+class LoopDetectors {
+  private final int[] positions; // sorted
+  private final int roadLength;
+  private final boolean cyclic;
+  private final int interval;
+  private final long[] counts;
+  private final long[] velocitySums;
+  private final long[] occupiedSteps;
+  private int intervalSteps = 0;
+
+  LoopDetectors(SimulationConfig config) {
+    if (config.getModelType() == ModelType.RULE_184) {
+      throw new IllegalArgumentException(
+          "Детектори не підтримуються моделлю Rule 184: її знімки не містять швидкостей.");
+    }
+    if (config.getDetectorInterval() <= 0) {
+      throw new IllegalArgumentException("Інтервал детекторів має бути додатним: " + config.getDetectorInterval());
+    }
+    roadLength = config.getRoadLength();
+    cyclic = config.isCyclic();
+    interval = config.getDetectorInterval();
+    positions = parsePositions(config.getDetectors(), roadLength);
+    counts = new long[positions.length];
+    velocitySums = new long[positions.length];
+    occupiedSteps = new long[positions.length];
+  }
+
+  /**
+   * Sorted positions from a comma-separated list.
+   */
+  private static int[] parsePositions(String detectors, int roadLength) {
+    int[] positions = Arrays.stream(detectors.split(","))
+        .map(String::trim)
+        .filter(position -> !position.isEmpty())
+        .mapToInt(Integer::parseInt)
+        .sorted()
+        .toArray();
+    for (int i = 0; i < positions.length; ++i) {
+      if (positions[i] < 0 || positions[i] >= roadLength) {
+        throw new IllegalArgumentException("Позиція детектора поза дорогою: " + positions[i]);
+      }
+      if (i > 0 && positions[i] == positions[i - 1]) {
+        throw new IllegalArgumentException("Два детектори в одній клітинці: " + positions[i]);
+      }
+    }
+    return positions;
+  }
+
+  /**
+   * @return true if the step completed an interval and its line should be written
+   */
+  boolean add(TrafficSnapshot snapshot) {
+    int carCount = snapshot.getCarCount();
+    int enteredCars = snapshot.getEnteredCars();
+    for (int car = 0; car < carCount; ++car) {
+      addCar(snapshot.getPosition(car), snapshot.getVelocity(car), car < enteredCars);
+    }
+    return ++intervalSteps == interval;
+  }
+
+  private void addCar(int position, int velocity, boolean entered) {
+    int from = entered ? position : position - velocity; // first cell the car left
+    if (from < 0) {
+      if (cyclic) {
+        countCrossings(from + roadLength, roadLength, velocity);
+      }
+      from = 0;
+    }
+    int detector = countCrossings(from, position, velocity);
+    if (detector < positions.length && positions[detector] == position) {
+      occupiedSteps[detector]++;
+    }
+  }
+
+  /**
+   * Adds the car to the detectors in cells from .. to - 1.
+   * @return index of the first detector at or after cell to
+   */
+  private int countCrossings(int from, int to, int velocity) {
+    int index = Arrays.binarySearch(positions, from);
+    int detector = index >= 0 ? index : -index - 1;
+    for (; detector < positions.length && positions[detector] < to; ++detector) {
+      counts[detector]++;
+      velocitySums[detector] += velocity;
+    }
+    return detector;
+  }
+
+  boolean hasPartialInterval() {
+    return intervalSteps > 0;
+  }
+
+  /**
+   * Writes the line of the current interval and starts the next one, the writer is flushed by the caller.
+   */
+  void writeInterval(BufferedWriter writer) throws IOException {
+    StringBuilder line = new StringBuilder();
+    for (int detector = 0; detector < positions.length; ++detector) {
+      line.append(counts[detector]).append(' ')
+          .append(counts[detector] > 0 ? (double) velocitySums[detector] / counts[detector] : Double.NaN)
+          .append(' ')
+          .append((double) occupiedSteps[detector] / intervalSteps).append(' ');
+    }
+    writer.append(line);
+    writer.newLine();
+    startInterval();
+  }
+
+  /**
+   * Clears the sums, called when the current interval is queued instead of written.
+   */
+  void startInterval() {
+    Arrays.fill(counts, 0);
+    Arrays.fill(velocitySums, 0);
+    Arrays.fill(occupiedSteps, 0);
+    intervalSteps = 0;
+  }
+
+  /**
+   * Size of the interval that is not written yet, saved with checkpoints.
+   */
+  int getStateSize() {
+    return Integer.BYTES + 3 * positions.length * Long.BYTES;
+  }
+
+  void saveState(ByteBuffer buffer) {
+    buffer.putInt(intervalSteps);
+    for (int detector = 0; detector < positions.length; ++detector) {
+      buffer.putLong(counts[detector]).putLong(velocitySums[detector]).putLong(occupiedSteps[detector]);
+    }
+  }
+
+  void restoreState(ByteBuffer buffer) {
+    intervalSteps = buffer.getInt();
+    for (int detector = 0; detector < positions.length; ++detector) {
+      counts[detector] = buffer.getLong();
+      velocitySums[detector] = buffer.getLong();
+      occupiedSteps[detector] = buffer.getLong();
+    }
+  }
+}
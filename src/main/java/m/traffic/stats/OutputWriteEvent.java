@@ -0,0 +1,63 @@
+package m.traffic.stats;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * JFR event of writing and flushing output files: a batch of the writer thread of a {@link WriteBehindQueue}, or
+ * one step written by the simulation thread. Only writes of at least 1 ms are recorded by default, see
+ * the event m.traffic.StepPhase for lower thresholds.
+ */
+@Name("m.traffic.OutputWrite")
+@Label("Output Write")
+@Category("Traffic Simulation")
+@Description("Records written to the output files of a simulation and flushed")
+@Threshold("1 ms")
+@StackTrace(false) // always the writer loop or writeStatsToFile and writeSnapshotToFile
+class OutputWriteEvent extends Event {
+  @Label("Output Directory")
+  String outputDirectory;
+
+  @Label("Records")
+  int records;
+
+  @Label("Record Size")
+  @DataAmount
+  long recordBytes; // in memory, see WriteBehindQueue#getRecordSize
+
+  @Label("Queued")
+  @Description("Records left in the queue after the batch")
+  int queued;
+
+  /**
+   * @return null if nothing records the event
+   */
+  static OutputWriteEvent start() {
+    OutputWriteEvent event = new OutputWriteEvent();
+    if (!event.isEnabled()) {
+      return null;
+    }
+    event.begin();
+    return event;
+  }
+
+  static void finish(OutputWriteEvent event, String outputDirectory, int records, long recordBytes, int queued) {
+    if (event == null) {
+      return;
+    }
+    event.end();
+    if (event.shouldCommit()) {
+      event.outputDirectory = outputDirectory;
+      event.records = records;
+      event.recordBytes = recordBytes;
+      event.queued = queued;
+      event.commit();
+    }
+  }
+}
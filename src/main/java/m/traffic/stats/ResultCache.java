@@ -0,0 +1,204 @@
+package m.traffic.stats;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import m.traffic.core.data.config.SimulationConfig;
+
+/**
+ * Records of completed runs in a directory, one file per config named by the hash of its canonical description:
+ * every field of the config except the ones that cannot change outputs, and the version of the results. A record
+ * keeps the output directory, the length and modification time of every output file and the final density,
+ * average speed and flow, so a sweep can skip configs whose results are already on disk.
+ * <p>
+ * A record is removed before its config runs and written atomically after the run completes, so an aborted run
+ * leaves no record. A record whose output files were changed later, e.g. by an aborted run of a config with the
+ * same output directory, is not a hit.
+ */
+public class ResultCache {
+  // bump when a change of the models or of the output files makes old results different from new ones
+  private static final int RESULT_VERSION = 1;
+  private static final Set<String> IGNORED_FIELDS = Set.of("stepDuration", "resume", "checkpointInterval",
+      "offHeapFile", "resultCache");
+  private static final String CHECKPOINT_FILE = "checkpoint"; // changes when a completed run is resumed
+
+  private final Path directory;
+
+  public ResultCache(String directory) {
+    this.directory = Path.of(directory);
+    try {
+      Files.createDirectories(this.directory);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Не вдалось створити директорію кешу результатів: " + directory, e);
+    }
+  }
+
+  /**
+   * @return null if the config has no result cache
+   */
+  public static ResultCache forConfig(SimulationConfig config) {
+    return config.getResultCache().isBlank() ? null : new ResultCache(config.getResultCache());
+  }
+
+  /**
+   * Fields of the config and its subclass in a fixed order, values that only differ in ignored fields are equal.
+   */
+  public static String getCanonicalDescription(SimulationConfig config) {
+    List<Field> fields = new ArrayList<>();
+    for (Class<?> type = config.getClass(); type != Object.class; type = type.getSuperclass()) {
+      for (Field field : type.getDeclaredFields()) {
+        if (!Modifier.isStatic(field.getModifiers()) && !IGNORED_FIELDS.contains(field.getName())) {
+          fields.add(field);
+        }
+      }
+    }
+    fields.sort(Comparator.comparing(Field::getName));
+
+    StringBuilder description = new StringBuilder("version=").append(RESULT_VERSION)
+        .append(";class=").append(config.getClass().getName());
+    try {
+      for (Field field : fields) {
+        field.setAccessible(true);
+        description.append(';').append(field.getName()).append('=').append(field.get(config));
+      }
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException("Не вдалось прочитати поле конфігурації", e);
+    }
+    return description.toString();
+  }
+
+  static String getKey(String canonicalDescription) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      return HexFormat.of().formatHex(digest.digest(canonicalDescription.getBytes(StandardCharsets.UTF_8)));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * @return the result of a completed run of the config, null if there is none or its files have changed
+   */
+  public RunSummary find(SimulationConfig config) {
+    String description = getCanonicalDescription(config);
+    Path recordFile = directory.resolve(getKey(description));
+    if (!Files.isRegularFile(recordFile)) {
+      return null;
+    }
+    Properties record = new Properties();
+    try (Reader reader = Files.newBufferedReader(recordFile, StandardCharsets.UTF_8)) {
+      record.load(reader);
+    } catch (IOException | IllegalArgumentException e) {
+      return null; // unreadable records are recomputed
+    }
+    if (!description.equals(record.getProperty("config"))) {
+      return null;
+    }
+
+    try {
+      String outputDirectory = record.getProperty("outputDirectory");
+      int fileCount = Integer.parseInt(record.getProperty("fileCount", "-1"));
+      List<File> outputFiles = getOutputFiles(outputDirectory);
+      if (outputFiles.size() != fileCount) {
+        return null;
+      }
+      for (int i = 0; i < fileCount; ++i) {
+        File file = outputFiles.get(i);
+        if (!file.getName().equals(record.getProperty("file." + i))
+            || file.length() != Long.parseLong(record.getProperty("length." + i, "-1"))
+            || file.lastModified() != Long.parseLong(record.getProperty("modified." + i, "-1"))) {
+          return null;
+        }
+      }
+      return new RunSummary(outputDirectory,
+          Double.parseDouble(record.getProperty("density", "NaN")),
+          Double.parseDouble(record.getProperty("averageSpeed", "NaN")),
+          Double.parseDouble(record.getProperty("flow", "NaN")));
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Removes the record of the config before its run starts, so outputs of an aborted run are never a hit.
+   */
+  public void invalidate(SimulationConfig config) {
+    try {
+      Files.deleteIfExists(directory.resolve(getKey(getCanonicalDescription(config))));
+    } catch (IOException e) {
+      throw new UncheckedIOException("Не вдалось видалити запис кешу результатів", e);
+    }
+  }
+
+  /**
+   * Records a completed run, called after its output files are closed.
+   */
+  public void record(SimulationConfig config, RunSummary summary) {
+    String description = getCanonicalDescription(config);
+    String outputDirectory = summary.outputDirectory();
+    Properties record = new Properties();
+    record.setProperty("config", description);
+    record.setProperty("outputDirectory", outputDirectory);
+    List<File> outputFiles = getOutputFiles(outputDirectory);
+    record.setProperty("fileCount", Integer.toString(outputFiles.size()));
+    for (int i = 0; i < outputFiles.size(); ++i) {
+      File file = outputFiles.get(i);
+      record.setProperty("file." + i, file.getName());
+      record.setProperty("length." + i, Long.toString(file.length()));
+      record.setProperty("modified." + i, Long.toString(file.lastModified()));
+    }
+    record.setProperty("density", Double.toString(summary.density()));
+    record.setProperty("averageSpeed", Double.toString(summary.averageSpeed()));
+    record.setProperty("flow", Double.toString(summary.flow()));
+
+    Path recordFile = directory.resolve(getKey(description));
+    try {
+      Path temporaryFile = Files.createTempFile(directory, recordFile.getFileName().toString(), ".tmp");
+      try (Writer writer = Files.newBufferedWriter(temporaryFile, StandardCharsets.UTF_8)) {
+        record.store(writer, null);
+      }
+      try {
+        Files.move(temporaryFile, recordFile, StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temporaryFile, recordFile, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Не вдалось записати кеш результатів: " + recordFile, e);
+    }
+  }
+
+  /**
+   * Output files of the directory sorted by name, without the checkpoint.
+   */
+  private static List<File> getOutputFiles(String outputDirectory) {
+    File[] files = outputDirectory == null ? null : new File(outputDirectory).listFiles(File::isFile);
+    if (files == null) {
+      return List.of();
+    }
+    List<File> outputFiles = new ArrayList<>();
+    for (File file : files) {
+      if (!file.getName().equals(CHECKPOINT_FILE)) {
+        outputFiles.add(file);
+      }
+    }
+    outputFiles.sort(Comparator.comparing(File::getName));
+    return outputFiles;
+  }
+}
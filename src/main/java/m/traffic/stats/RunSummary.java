@@ -0,0 +1,29 @@
+package m.traffic.stats;
+
+import m.traffic.core.data.config.SimulationConfig;
+import m.traffic.core.data.state.SimulationStatistics;
+
+/**
+ * Final averages over all steps of a completed run, NaN for ensembles, whose statistics are in the ensemble file.
+ * A line of a sweep summary file is the output directory and the three averages separated by tabs.
+ */
+public record RunSummary(String outputDirectory, double density, double averageSpeed, double flow) {
+  private static final String SEPARATOR = "\t";
+
+  /**
+   * @param statistics final statistics of the run, null for ensembles
+   */
+  public static RunSummary of(SimulationConfig config, SimulationStatistics statistics) {
+    String outputDirectory = StatsCollector.getPrefix(config);
+    if (statistics == null) {
+      return new RunSummary(outputDirectory, Double.NaN, Double.NaN, Double.NaN);
+    }
+    return new RunSummary(outputDirectory, statistics.getDensity(), statistics.getAverageSpeed(),
+        statistics.getFlow());
+  }
+
+  public String toLine() {
+    return String.join(SEPARATOR, outputDirectory, Double.toString(density), Double.toString(averageSpeed),
+        Double.toString(flow));
+  }
+}
@@ -0,0 +1,29 @@
+package m.traffic.stats;
+
+/**
+ * Mean and sample variance updated one value at a time (Welford), without storing the values.
+ */
+public class RunningVariance {
+  private long count;
+  private double mean;
+  private double squaredDeviations; // sum of squared deviations from the current mean
+
+  public void add(double value) {
+    count++;
+    double delta = value - mean;
+    mean += delta / count;
+    squaredDeviations += delta * (value - mean);
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  public double getMean() {
+    return mean;
+  }
+
+  public double getVariance() {
+    return count > 1 ? squaredDeviations / (count - 1) : 0.0;
+  }
+}
@@ -0,0 +1,113 @@
+package m.traffic.stats;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import m.traffic.core.data.state.TrafficSnapshot;
+
+/**
+ * Density, flow and space-mean speed of road segments averaged over windows of steps, so long roads can be shown
+ * as heatmaps without writing their cells. A step adds its cars to the segment sums in one pass over the sorted
+ * cars, a line of every file is written when a window is complete. With a {@link WriteBehindQueue} the sums of a
+ * complete window are queued instead and written by a copy of the aggregator on the writer thread.
+ * <p>
+ * Files get a line per window with a value per segment: "segment_density" has cars per cell, "segment_flow" has
+ * cars passing a cell per step (sum of velocities per cell), "segment_speed" has the mean velocity of the cars in
+ * the segment, NaN if it stayed empty. The last segment and the last window can be shorter.
+ */
+class SpaceTimeAggregator {
+  private final int roadLength;
+  private final int segmentLength;
+  private final int window;
+  private final long[] carSteps; // cars of the segment summed over the steps of the window
+  private final long[] velocitySums;
+  private int windowSteps = 0;
+
+  SpaceTimeAggregator(int roadLength, int segmentLength, int window) {
+    if (segmentLength <= 0 || window <= 0) {
+      throw new IllegalArgumentException("Довжина сегмента і вікно агрегації мають бути додатними.");
+    }
+    this.roadLength = roadLength;
+    this.segmentLength = segmentLength;
+    this.window = window;
+    int segmentCount = (int) ((roadLength + (long) segmentLength - 1) / segmentLength);
+    carSteps = new long[segmentCount];
+    velocitySums = new long[segmentCount];
+  }
+
+  /**
+   * @return true if the step completed a window and its lines should be written
+   */
+  boolean add(TrafficSnapshot snapshot) {
+    int carCount = snapshot.getCarCount();
+    for (int car = 0; car < carCount; ++car) {
+      int segment = snapshot.getPosition(car) / segmentLength;
+      carSteps[segment]++;
+      velocitySums[segment] += snapshot.getVelocity(car);
+    }
+    return ++windowSteps == window;
+  }
+
+  boolean hasPartialWindow() {
+    return windowSteps > 0;
+  }
+
+  /**
+   * Writes the lines of the current window and starts the next one, the writers are flushed by the caller.
+   */
+  void writeWindow(BufferedWriter densityWriter, BufferedWriter flowWriter, BufferedWriter speedWriter)
+      throws IOException {
+    StringBuilder density = new StringBuilder();
+    StringBuilder flow = new StringBuilder();
+    StringBuilder speed = new StringBuilder();
+    for (int segment = 0; segment < carSteps.length; ++segment) {
+      int cells = Math.min(segmentLength, roadLength - segment * segmentLength);
+      double cellSteps = (double) cells * windowSteps;
+      density.append(carSteps[segment] / cellSteps).append(' ');
+      flow.append(velocitySums[segment] / cellSteps).append(' ');
+      speed.append(carSteps[segment] > 0 ? (double) velocitySums[segment] / carSteps[segment] : Double.NaN)
+          .append(' ');
+    }
+    writeLine(density, densityWriter);
+    writeLine(flow, flowWriter);
+    writeLine(speed, speedWriter);
+    startWindow();
+  }
+
+  /**
+   * Clears the sums, called when the current window is queued instead of written.
+   */
+  void startWindow() {
+    Arrays.fill(carSteps, 0);
+    Arrays.fill(velocitySums, 0);
+    windowSteps = 0;
+  }
+
+  private static void writeLine(StringBuilder line, BufferedWriter writer) throws IOException {
+    writer.append(line);
+    writer.newLine();
+  }
+
+  /**
+   * Size of the window that is not written yet, saved with checkpoints.
+   */
+  int getStateSize() {
+    return Integer.BYTES + 2 * carSteps.length * Long.BYTES;
+  }
+
+  void saveState(ByteBuffer buffer) {
+    buffer.putInt(windowSteps);
+    for (int segment = 0; segment < carSteps.length; ++segment) {
+      buffer.putLong(carSteps[segment]).putLong(velocitySums[segment]);
+    }
+  }
+
+  void restoreState(ByteBuffer buffer) {
+    windowSteps = buffer.getInt();
+    for (int segment = 0; segment < carSteps.length; ++segment) {
+      carSteps[segment] = buffer.getLong();
+      velocitySums[segment] = buffer.getLong();
+    }
+  }
+}
@@ -4,11 +4,17 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
 import m.traffic.core.data.config.VelocityBasedModelConfig;
 import m.traffic.core.data.config.SimulationConfig;
 import m.traffic.core.data.state.SimulationStatistics;
 import m.traffic.core.data.state.TrafficSnapshot;
 import m.traffic.core.model.type.ModelType;
+import m.traffic.core.model.type.OutputFormat;
 
 public class StatsCollector {
 
@@ -19,26 +25,75 @@ public class StatsCollector {
   private BufferedWriter densityWriter;
   private BufferedWriter averageSpeedWriter;
   private BufferedWriter flowWriter;
+  private BinarySpacetimeWriter positionBinaryWriter; // used instead of the text writers in the binary format
+  private BinarySpacetimeWriter velocityBinaryWriter;
+  private DeltaSpacetimeWriter deltaWriter; // used instead of both in the delta format
   private StatsWriter statsWriter;
+  private SpaceTimeAggregator aggregator; // null if segments are not aggregated
+  private SpaceTimeAggregator queuedAggregator; // writes the queued windows on the writer thread
+  private BufferedWriter segmentDensityWriter;
+  private BufferedWriter segmentFlowWriter;
+  private BufferedWriter segmentSpeedWriter;
+  private LoopDetectors loopDetectors; // null if there are no detectors
+  private LoopDetectors queuedDetectors; // writes the queued intervals on the writer thread
+  private BufferedWriter detectorWriter;
+  private final String outputDirectory;
+  private final List<File> outputFiles = new ArrayList<>(); // in the order of getOutputLengths
+  private final boolean append; // resumed runs continue the files of a checkpoint
+  private WriteBehindQueue writeBehindQueue; // null if files are written by the simulation thread
 
   public StatsCollector(SimulationConfig simulationConfig) {
     this.statsWriter = new StatsWriter(simulationConfig);
     String directoryName = getPrefix(simulationConfig);
     initDirectory(directoryName);
+    outputDirectory = directoryName;
+    append = simulationConfig.isResume();
 
     try {
-      velocityWriter = initFile(directoryName + "/velocity");
-      positionWriter = initFile(directoryName + "/position");
+      if (simulationConfig.getOutputFormat() == OutputFormat.BINARY) {
+        velocityBinaryWriter = initBinaryFile(directoryName + "/velocity.bin", BinarySpacetimeWriter.RowType.VELOCITY,
+            simulationConfig);
+        positionBinaryWriter = initBinaryFile(directoryName + "/position.bin", BinarySpacetimeWriter.RowType.OCCUPANCY,
+            simulationConfig);
+      } else if (simulationConfig.getOutputFormat() == OutputFormat.DELTA) {
+        deltaWriter = new DeltaSpacetimeWriter(new File(directoryName + "/spacetime.delta"), simulationConfig, append);
+        outputFiles.add(deltaWriter.getFile());
+      } else {
+        velocityWriter = initFile(directoryName + "/velocity");
+        positionWriter = initFile(directoryName + "/position");
+      }
       timeWriter = initFile(directoryName + "/time");
       densityWriter = initFile(directoryName + "/density");
       averageSpeedWriter = initFile(directoryName + "/average_speed");
       flowWriter = initFile(directoryName + "/flow");
+      if (simulationConfig.getAggregateSegmentLength() > 0) {
+        aggregator = new SpaceTimeAggregator(simulationConfig.getRoadLength(),
+            simulationConfig.getAggregateSegmentLength(), simulationConfig.getAggregateWindow());
+        segmentDensityWriter = initFile(directoryName + "/segment_density");
+        segmentFlowWriter = initFile(directoryName + "/segment_flow");
+        segmentSpeedWriter = initFile(directoryName + "/segment_speed");
+      }
+      if (!simulationConfig.getDetectors().isBlank()) {
+        loopDetectors = new LoopDetectors(simulationConfig);
+        detectorWriter = initFile(directoryName + "/detectors");
+      }
     } catch (IOException e) {
       e.printStackTrace();
     }
+    if (simulationConfig.getWriteQueueSize() > 0) {
+      if (aggregator != null) {
+        queuedAggregator = new SpaceTimeAggregator(simulationConfig.getRoadLength(),
+            simulationConfig.getAggregateSegmentLength(), simulationConfig.getAggregateWindow());
+      }
+      if (loopDetectors != null) {
+        queuedDetectors = new LoopDetectors(simulationConfig);
+      }
+      writeBehindQueue = new WriteBehindQueue(this, simulationConfig.getWriteQueueSize(),
+          simulationConfig.getWriteBackpressure(), new File(directoryName).getName());
+    }
   }
 
-  private String getPrefix(SimulationConfig config) {
+  static String getPrefix(SimulationConfig config) {
     // file name should be: file_prefix + road length + car count + max speed + braking p. + other configs from specific model confings
     String filePrefix = "%s_L=%d_N=%d_Vmax=%d_p=%.2f_randomSeed=%d".formatted(
           config.getOutputFilePrefix(),
@@ -60,7 +115,7 @@ public class StatsCollector {
     return filePrefix;
   }
 
-  private void initDirectory(String directoryName) {
+  static void initDirectory(String directoryName) {
     File directory = new File(directoryName);
     if (!directory.exists()) {
       if (!directory.mkdirs()) {
@@ -71,7 +126,15 @@ public class StatsCollector {
 
   private BufferedWriter initFile(String filenamePrefix) throws IOException {
     File file = openOrCreateFile(filenamePrefix);
-    return new BufferedWriter( new FileWriter(file) );
+    outputFiles.add(file);
+    return new BufferedWriter( new FileWriter(file, append) );
+  }
+
+  private BinarySpacetimeWriter initBinaryFile(String filename, BinarySpacetimeWriter.RowType rowType,
+      SimulationConfig simulationConfig) {
+    BinarySpacetimeWriter writer = new BinarySpacetimeWriter(new File(filename), rowType, simulationConfig, append);
+    outputFiles.add(writer.getFile());
+    return writer;
   }
 
   private File openOrCreateFile(String filename) throws IOException {
@@ -85,6 +148,54 @@ public class StatsCollector {
   public void collectStats() {
   }
 
+  public String getOutputDirectory() {
+    return outputDirectory;
+  }
+
+  /**
+   * In-memory size of the records waiting for the writer thread, 0 without a write-behind queue.
+   */
+  public long getQueuedOutputBytes() {
+    return writeBehindQueue != null ? writeBehindQueue.getQueuedBytes() : 0;
+  }
+
+  /**
+   * Lengths of the output files after all lines of the steps done so far are written and flushed.
+   */
+  public long[] getOutputLengths() {
+    if (writeBehindQueue != null) {
+      writeBehindQueue.drain(); // the writer thread waits for records now, so this thread can flush its writers
+    }
+    if (positionBinaryWriter != null) {
+      positionBinaryWriter.flush();
+      velocityBinaryWriter.flush();
+    }
+    if (deltaWriter != null) {
+      deltaWriter.flush();
+    }
+    long[] lengths = new long[outputFiles.size()];
+    for (int i = 0; i < lengths.length; ++i) {
+      lengths[i] = outputFiles.get(i).length();
+    }
+    return lengths;
+  }
+
+  /**
+   * Cuts the output files to the lengths they had at a checkpoint, the writers append to them.
+   */
+  public void truncateOutputs(long[] lengths) {
+    if (!append) {
+      throw new IllegalStateException("Файли результатів можна обрізати тільки при відновленні з контрольної точки.");
+    }
+    for (int i = 0; i < lengths.length; ++i) {
+      try (FileChannel channel = FileChannel.open(outputFiles.get(i).toPath(), StandardOpenOption.WRITE)) {
+        channel.truncate(lengths[i]);
+      } catch (IOException e) {
+        throw new RuntimeException("Не вдалось обрізати файл: " + outputFiles.get(i), e);
+      }
+    }
+  }
+
   public void addToStats(SimulationStatistics simulationStatistics, TrafficSnapshot snapshot) {
     double density = statsCalculator.calculateDensity(snapshot);
     double averageSpeed = statsCalculator.calculateAverageSpeed(snapshot);
@@ -94,19 +205,203 @@ public class StatsCollector {
     simulationStatistics.addAverageSpeed(averageSpeed);
     simulationStatistics.addFlow(flow);
     simulationStatistics.incrementIterationCount();
+
+    if (aggregator != null && aggregator.add(snapshot)) {
+      if (writeBehindQueue != null) {
+        writeBehindQueue.addAggregatedWindow(aggregator);
+        aggregator.startWindow();
+      } else {
+        writeAggregatedWindow(aggregator);
+        flush(segmentDensityWriter, segmentFlowWriter, segmentSpeedWriter);
+      }
+    }
+    if (loopDetectors != null && loopDetectors.add(snapshot)) {
+      if (writeBehindQueue != null) {
+        writeBehindQueue.addDetectorInterval(loopDetectors);
+        loopDetectors.startInterval();
+      } else {
+        writeDetectorInterval(loopDetectors);
+        flush(detectorWriter);
+      }
+    }
+  }
+
+  private void writeAggregatedWindow(SpaceTimeAggregator aggregator) {
+    try {
+      aggregator.writeWindow(segmentDensityWriter, segmentFlowWriter, segmentSpeedWriter);
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  private void writeDetectorInterval(LoopDetectors loopDetectors) {
+    try {
+      loopDetectors.writeInterval(detectorWriter);
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Writes a window queued by {@link WriteBehindQueue#addAggregatedWindow}, called by the writer thread.
+   */
+  void writeAggregatedWindow(ByteBuffer state) {
+    queuedAggregator.restoreState(state);
+    writeAggregatedWindow(queuedAggregator);
+  }
+
+  /**
+   * Writes an interval queued by {@link WriteBehindQueue#addDetectorInterval}, called by the writer thread.
+   */
+  void writeDetectorInterval(ByteBuffer state) {
+    queuedDetectors.restoreState(state);
+    writeDetectorInterval(queuedDetectors);
+  }
+
+  /**
+   * Size of the state saved with checkpoints, the sums of the aggregation window and of the detector interval
+   * that are not written yet.
+   */
+  public int getStateSize() {
+    return (aggregator != null ? aggregator.getStateSize() : 0)
+        + (loopDetectors != null ? loopDetectors.getStateSize() : 0);
+  }
+
+  public void saveState(ByteBuffer buffer) {
+    if (aggregator != null) {
+      aggregator.saveState(buffer);
+    }
+    if (loopDetectors != null) {
+      loopDetectors.saveState(buffer);
+    }
+  }
+
+  public void restoreState(ByteBuffer buffer) {
+    if (aggregator != null) {
+      aggregator.restoreState(buffer);
+    }
+    if (loopDetectors != null) {
+      loopDetectors.restoreState(buffer);
+    }
+  }
+
+  /**
+   * Adds statistics of several skipped steps at once. Density and average speed of the snapshot are counted for
+   * every step (they do not change for Rule 184 with a fixed number of cars), the flow is the total number of
+   * vehicles that passed the detector during these steps.
+   */
+  public void addToStats(SimulationStatistics simulationStatistics, TrafficSnapshot snapshot, int steps) {
+    double density = statsCalculator.calculateDensity(snapshot);
+    double averageSpeed = statsCalculator.calculateAverageSpeed(snapshot);
+    double flow = statsCalculator.calculateFlow(snapshot);
+
+    simulationStatistics.addDensity(density * steps);
+    simulationStatistics.addAverageSpeed(averageSpeed * steps);
+    simulationStatistics.addFlow(flow);
+    simulationStatistics.incrementIterationCount(steps);
   }
 
   public void writeStatsToFile(SimulationStatistics simulationStatistics) {
-    // write density, average speed, and flow to file
-    statsWriter.writeDensityToFile(simulationStatistics, densityWriter);
-    statsWriter.writeAverageSpeedToFile(simulationStatistics, averageSpeedWriter);
-    statsWriter.writeFlowToFile(simulationStatistics, flowWriter);
+    if (writeBehindQueue != null) {
+      writeBehindQueue.addStats(simulationStatistics.getDensity(), simulationStatistics.getAverageSpeed(),
+          simulationStatistics.getFlow());
+      return;
+    }
+    OutputWriteEvent event = OutputWriteEvent.start();
+    writeStats(simulationStatistics.getDensity(), simulationStatistics.getAverageSpeed(),
+        simulationStatistics.getFlow());
+    flush(densityWriter, averageSpeedWriter, flowWriter);
+    OutputWriteEvent.finish(event, outputDirectory, 1, WriteBehindQueue.getRecordSize(null), 0);
   }
   
   public void writeSnapshotToFile(TrafficSnapshot trafficSnapshot) {
+    if (writeBehindQueue != null) {
+      writeBehindQueue.addSnapshot(trafficSnapshot);
+      return;
+    }
+    OutputWriteEvent event = OutputWriteEvent.start();
+    writeSnapshot(trafficSnapshot);
+    flush(positionWriter, velocityWriter, timeWriter);
+    OutputWriteEvent.finish(event, outputDirectory, 1, WriteBehindQueue.getRecordSize(trafficSnapshot), 0);
+  }
+
+  void writeStats(double density, double averageSpeed, double flow) {
+    // write density, average speed, and flow to file
+    statsWriter.writeValueToFile(density, densityWriter);
+    statsWriter.writeValueToFile(averageSpeed, averageSpeedWriter);
+    statsWriter.writeValueToFile(flow, flowWriter);
+  }
+
+  void writeSnapshot(TrafficSnapshot trafficSnapshot) {
     // write position, velocity and elapsed time to file
-    statsWriter.writePositionsToFile(trafficSnapshot, positionWriter);
-    statsWriter.writeVelocitiesToFile(trafficSnapshot, velocityWriter);
+    if (positionBinaryWriter != null) {
+      positionBinaryWriter.writeRow(trafficSnapshot);
+      velocityBinaryWriter.writeRow(trafficSnapshot);
+    } else if (deltaWriter != null) {
+      deltaWriter.writeFrame(trafficSnapshot);
+    } else {
+      statsWriter.writePositionsToFile(trafficSnapshot, positionWriter);
+      statsWriter.writeVelocitiesToFile(trafficSnapshot, velocityWriter);
+    }
     statsWriter.writeElapsedTimeTickToFile(trafficSnapshot, timeWriter);
   }
+
+  void flush() {
+    flush(positionWriter, velocityWriter, timeWriter, densityWriter, averageSpeedWriter, flowWriter,
+        segmentDensityWriter, segmentFlowWriter, segmentSpeedWriter, detectorWriter);
+  }
+
+  private static void flush(BufferedWriter... writers) {
+    for (BufferedWriter writer : writers) {
+      if (writer == null) {
+        continue; // files of the other formats and of outputs that are off
+      }
+      try {
+        writer.flush();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  /**
+   * Writes the queued lines and closes the files, the collector is not used after it.
+   */
+  public void close() {
+    RuntimeException writerError = null;
+    if (writeBehindQueue != null) {
+      try {
+        writeBehindQueue.close();
+      } catch (RuntimeException e) {
+        writerError = e; // the files are closed first
+      }
+    }
+    if (aggregator != null && aggregator.hasPartialWindow()) {
+      writeAggregatedWindow(aggregator);
+    }
+    if (loopDetectors != null && loopDetectors.hasPartialInterval()) {
+      writeDetectorInterval(loopDetectors);
+    }
+    for (BufferedWriter writer : new BufferedWriter[] {positionWriter, velocityWriter, timeWriter, densityWriter,
+        averageSpeedWriter, flowWriter, segmentDensityWriter, segmentFlowWriter, segmentSpeedWriter, detectorWriter}) {
+      if (writer == null) {
+        continue;
+      }
+      try {
+        writer.close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+    if (positionBinaryWriter != null) {
+      positionBinaryWriter.close();
+      velocityBinaryWriter.close();
+    }
+    if (deltaWriter != null) {
+      deltaWriter.close();
+    }
+    if (writerError != null) {
+      throw writerError;
+    }
+  }
 }
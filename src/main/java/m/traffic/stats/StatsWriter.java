@@ -2,116 +2,131 @@ package m.traffic.stats;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
 import lombok.RequiredArgsConstructor;
 import m.traffic.core.data.config.SimulationConfig;
-import m.traffic.core.data.simulation.Item;
-import m.traffic.core.data.simulation.Vehicle;
 import m.traffic.core.data.state.SimulationStatistics;
 import m.traffic.core.data.state.TrafficSnapshot;
 
+/**
+ * Writes lines of the output files, the caller flushes them.
+ */
 @RequiredArgsConstructor
 public class StatsWriter {
 
+  private static final int ROW_CHUNK_LENGTH = 1 << 16; // rows of long roads are written in parts
+  static final int NO_VELOCITY_MARKER = -1; // velocity of cells of an empty cyclic road
+
   private final SimulationConfig simulationConfig;
 
+  /**
+   * Receives values of the cells of a row in road order.
+   */
+  interface CellConsumer {
+    void accept(int value) throws IOException;
+  }
+
   public void writePositionsToFile(TrafficSnapshot trafficSnapshot, BufferedWriter writer) {
-    List<Integer> positions = trafficSnapshot.getRoad().stream().map(cell -> cell.getItem() != null ? 1 : 0).toList();
+    StringBuilder row = new StringBuilder((int) Math.min(2L * trafficSnapshot.getRoadLength(), ROW_CHUNK_LENGTH));
     try {
-      for (Integer position : positions) {
-        writer.write(position.toString() + " ");
-      }
+      forEachCellOccupancy(trafficSnapshot, occupied -> {
+        row.append(occupied == 1 ? '1' : '0').append(' ');
+        flushIfFull(row, writer);
+      });
+      writer.append(row);
       writer.newLine();
-      writer.flush();
     } catch (IOException e) {
       e.printStackTrace();
     }
   }
 
   public void writeVelocitiesToFile(TrafficSnapshot trafficSnapshot, BufferedWriter writer) {
-    int noVelocityMarker = -1;
-    List<Integer> velocities = new ArrayList<>(trafficSnapshot.getRoad().stream()
-        .map(cell -> {
-          Item item = cell.getItem();
-          if (item != null && item instanceof Vehicle vehicle) {
-            return vehicle.getVelocity();
-          } else {
-            return noVelocityMarker;
-          }
-        }).toList());
-    
-    // fill in the gaps with next car's velocity
-    for (int i = 0; i < trafficSnapshot.getRoad().size(); i++) {
-      if (velocities.get(i) == noVelocityMarker) {
-        // find next car's velocity
-        for (int j = 1; j < trafficSnapshot.getRoad().size(); j++) {
-          Integer nextCarVelocity = getNextVehicleVelocity(velocities, i + j);
-          if (nextCarVelocity != noVelocityMarker) {
-            velocities.set(i, nextCarVelocity);
-            break;
-          }
-        }
-      }
-    }
-
+    StringBuilder row = new StringBuilder((int) Math.min(2L * trafficSnapshot.getRoadLength(), ROW_CHUNK_LENGTH));
     try {
-      for (Integer velocity : velocities) {
-        writer.write(velocity.toString() + " ");
-      }
+      forEachCellVelocity(trafficSnapshot, velocity -> {
+        row.append(velocity).append(' ');
+        flushIfFull(row, writer);
+      });
+      writer.append(row);
       writer.newLine();
-      writer.flush();
     } catch (IOException e) {
       e.printStackTrace();
     }
   }
 
-  public void writeElapsedTimeTickToFile(TrafficSnapshot trafficSnapshot, BufferedWriter writer) {
-    try {
-      writer.write(String.valueOf(trafficSnapshot.getStepCount()));
-      writer.newLine();
-      writer.flush();
-    } catch (IOException e) {
-      e.printStackTrace();
+  /**
+   * 1 for every occupied cell of the road, 0 for an empty one.
+   */
+  void forEachCellOccupancy(TrafficSnapshot trafficSnapshot, CellConsumer consumer) throws IOException {
+    // cars are sorted by position, so the row is made cell by cell without a road-sized buffer
+    int roadLength = trafficSnapshot.getRoadLength();
+    int carCount = trafficSnapshot.getCarCount();
+    int car = 0;
+    int nextCarPosition = carCount > 0 ? trafficSnapshot.getPosition(0) : roadLength;
+    for (int cell = 0; cell < roadLength; ++cell) {
+      if (cell == nextCarPosition) {
+        consumer.accept(1);
+        car++;
+        nextCarPosition = car < carCount ? trafficSnapshot.getPosition(car) : roadLength;
+      } else {
+        consumer.accept(0);
+      }
     }
   }
 
-  private Integer getNextVehicleVelocity(List<Integer> velocities, int index) {
-    if (simulationConfig.isCyclic()) {
-      index = index % velocities.size();
-    } else {
-      if (index >= velocities.size()) {
-        return simulationConfig.getMaxSpeed(); // next car is out of bounds, return max speed
+  /**
+   * Velocity of every cell of the road, empty cells get velocity of the next car.
+   */
+  void forEachCellVelocity(TrafficSnapshot trafficSnapshot, CellConsumer consumer) throws IOException {
+    int roadLength = trafficSnapshot.getRoadLength();
+    int carCount = trafficSnapshot.getCarCount();
+    int lastCellsVelocity = simulationConfig.isCyclic()
+        ? (carCount > 0 ? trafficSnapshot.getVelocity(0) : NO_VELOCITY_MARKER) // cells after the last car see the first car
+        : simulationConfig.getMaxSpeed(); // next car is out of bounds, use max speed
+    int cell = 0;
+    for (int car = 0; car < carCount; ++car) {
+      int position = trafficSnapshot.getPosition(car);
+      int velocity = trafficSnapshot.getVelocity(car);
+      for (; cell <= position; ++cell) {
+        consumer.accept(velocity);
       }
     }
-    return velocities.get(index);
+    for (; cell < roadLength; ++cell) {
+      consumer.accept(lastCellsVelocity);
+    }
   }
 
-  public void writeDensityToFile(SimulationStatistics simulationStatistics, BufferedWriter densityWriter) {
-    try {
-      densityWriter.write(String.valueOf(simulationStatistics.getDensity()));
-      densityWriter.newLine();
-      densityWriter.flush();
-    } catch (IOException e) {
-      e.printStackTrace();
+  private static void flushIfFull(StringBuilder row, BufferedWriter writer) throws IOException {
+    if (row.length() >= ROW_CHUNK_LENGTH) {
+      writer.append(row);
+      row.setLength(0);
     }
   }
 
-  public void writeAverageSpeedToFile(SimulationStatistics simulationStatistics, BufferedWriter averageSpeedWriter) {
+  public void writeElapsedTimeTickToFile(TrafficSnapshot trafficSnapshot, BufferedWriter writer) {
     try {
-      averageSpeedWriter.write(String.valueOf(simulationStatistics.getAverageSpeed()));
-      averageSpeedWriter.newLine();
-      averageSpeedWriter.flush();
+      writer.write(String.valueOf(trafficSnapshot.getStepCount()));
+      writer.newLine();
     } catch (IOException e) {
       e.printStackTrace();
     }
   }
 
+  public void writeDensityToFile(SimulationStatistics simulationStatistics, BufferedWriter densityWriter) {
+    writeValueToFile(simulationStatistics.getDensity(), densityWriter);
+  }
+
+  public void writeAverageSpeedToFile(SimulationStatistics simulationStatistics, BufferedWriter averageSpeedWriter) {
+    writeValueToFile(simulationStatistics.getAverageSpeed(), averageSpeedWriter);
+  }
+
   public void writeFlowToFile(SimulationStatistics simulationStatistics, BufferedWriter flowWriter) {
+    writeValueToFile(simulationStatistics.getFlow(), flowWriter);
+  }
+
+  public void writeValueToFile(double value, BufferedWriter writer) {
     try {
-      flowWriter.write(String.valueOf(simulationStatistics.getFlow()));
-      flowWriter.newLine();
-      flowWriter.flush();
+      writer.write(String.valueOf(value));
+      writer.newLine();
     } catch (IOException e) {
       e.printStackTrace();
     }
@@ -0,0 +1,90 @@
+package m.traffic.stats;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import m.traffic.core.data.config.SimulationConfig;
+import m.traffic.core.data.state.TrafficSnapshot;
+
+/**
+ * Steady-state estimates of the average speed and the flow of a run, see {@link SteadyStateSeries}. Unlike the
+ * running averages of {@link StatsCollector} they do not include the warm-up. With a target width the run can be
+ * stopped as soon as both estimates are precise enough.
+ * <p>
+ * The "steady_state" file of the output directory gets one line: steps of the run, then warm-up steps, mean and
+ * confidence interval half-width of the average speed, and the same of the flow.
+ */
+public class SteadyStateCollector {
+  private static final int CHECK_INTERVAL = 100; // steps between checks of the stopping rule
+
+  private final StatsCalculator statsCalculator = new StatsCalculator();
+  private final SteadyStateSeries averageSpeeds = new SteadyStateSeries();
+  private final SteadyStateSeries flows = new SteadyStateSeries();
+  private final String directoryName;
+  private final double targetWidth;
+  private long observedSteps = 0;
+
+  public SteadyStateCollector(SimulationConfig simulationConfig) {
+    directoryName = StatsCollector.getPrefix(simulationConfig);
+    StatsCollector.initDirectory(directoryName);
+    targetWidth = simulationConfig.getCiTargetWidth();
+  }
+
+  public void addToStats(TrafficSnapshot snapshot) {
+    averageSpeeds.add(statsCalculator.calculateAverageSpeed(snapshot));
+    flows.add(statsCalculator.calculateFlow(snapshot));
+    observedSteps++;
+  }
+
+  /**
+   * True if half-widths of both confidence intervals are at most the target width relative to their means,
+   * checked every CHECK_INTERVAL steps.
+   */
+  public boolean isPrecise() {
+    if (targetWidth <= 0 || observedSteps % CHECK_INTERVAL != 0) {
+      return false;
+    }
+    return isPrecise(averageSpeeds.estimate()) && isPrecise(flows.estimate());
+  }
+
+  private boolean isPrecise(SteadyStateSeries.Estimate estimate) {
+    return estimate.halfWidth() <= targetWidth * Math.abs(estimate.mean());
+  }
+
+  /**
+   * Size of the series saved with checkpoints, so a resumed run estimates from all of its steps.
+   */
+  public int getStateSize() {
+    return Long.BYTES + 2 * SteadyStateSeries.getStateSize();
+  }
+
+  public void saveState(ByteBuffer buffer) {
+    buffer.putLong(observedSteps);
+    averageSpeeds.saveState(buffer);
+    flows.saveState(buffer);
+  }
+
+  public void restoreState(ByteBuffer buffer) {
+    observedSteps = buffer.getLong();
+    averageSpeeds.restoreState(buffer);
+    flows.restoreState(buffer);
+  }
+
+  public void writeStatsToFile(long steps) {
+    StringBuilder row = new StringBuilder().append(steps).append(' ');
+    appendEstimate(row, averageSpeeds.estimate());
+    appendEstimate(row, flows.estimate());
+    try (BufferedWriter writer = new BufferedWriter(new FileWriter(directoryName + "/steady_state"))) {
+      writer.append(row);
+      writer.newLine();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  private void appendEstimate(StringBuilder row, SteadyStateSeries.Estimate estimate) {
+    row.append(estimate.warmUpSteps()).append(' ').append(estimate.mean()).append(' ')
+        .append(estimate.halfWidth()).append(' ');
+  }
+}
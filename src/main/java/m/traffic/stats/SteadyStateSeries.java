@@ -0,0 +1,179 @@
+package m.traffic.stats;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Values of one per-step statistic kept as averages of batches of steps. The warm-up at the start of the series is
+ * dropped by MSER-5, and the mean of the rest gets a 95% confidence interval from batch means, which accounts for
+ * the correlation of consecutive steps. The batches of the interval are at least as long as the shortest batches
+ * whose means are not correlated, found from the series itself. Long series merge neighbour batches, so the memory
+ * stays bounded.
+ */
+class SteadyStateSeries {
+  private static final int INITIAL_BATCH_STEPS = 5; // MSER-5
+  // then neighbour batches are merged, 4096 batches keep the checkpoint slot of a series at 32 KiB
+  private static final int MAX_BATCHES = 1 << 12;
+  private static final int CI_BATCH_COUNT = 20;
+  private static final double T_QUANTILE = 2.093; // 97.5% quantile of Student's t with CI_BATCH_COUNT - 1 df
+  private static final int MIN_TEST_BATCHES = 40; // batch means of the autocorrelation test
+  private static final double Z_QUANTILE = 1.96; // 97.5% quantile of the normal distribution
+
+  private double[] batches = new double[64];
+  private int batchCount = 0;
+  private int batchSteps = INITIAL_BATCH_STEPS;
+  private double currentSum = 0; // batch that is not complete yet
+  private int currentSteps = 0;
+
+  record Estimate(double mean, double halfWidth, long warmUpSteps) {
+  }
+
+  void add(double value) {
+    currentSum += value;
+    currentSteps++;
+    if (currentSteps == batchSteps) {
+      double mean = currentSum / batchSteps;
+      currentSum = 0;
+      currentSteps = 0;
+      appendBatch(mean);
+    }
+  }
+
+  private void appendBatch(double mean) {
+    if (batchCount == MAX_BATCHES) {
+      for (int i = 0; i < batchCount / 2; ++i) {
+        batches[i] = (batches[2 * i] + batches[2 * i + 1]) / 2;
+      }
+      batchCount /= 2;
+      batchSteps *= 2;
+    }
+    if (batchCount == batches.length) {
+      batches = Arrays.copyOf(batches, batches.length * 2);
+    }
+    batches[batchCount++] = mean;
+  }
+
+  /**
+   * Number of first batches to drop: the one with the smallest MSER statistic, the variance of the mean of the
+   * remaining batches, searched in the first half of the series.
+   */
+  private int getWarmUpBatches() {
+    int warmUpBatches = 0;
+    double smallestMser = Double.MAX_VALUE;
+    double suffixSum = 0;
+    double suffixSquares = 0;
+    for (int dropped = batchCount - 1; dropped >= 0; --dropped) {
+      suffixSum += batches[dropped];
+      suffixSquares += batches[dropped] * batches[dropped];
+      if (dropped <= batchCount / 2) {
+        int remaining = batchCount - dropped;
+        double squaredDeviations = Math.max(0, suffixSquares - suffixSum * suffixSum / remaining);
+        double mser = squaredDeviations / ((double) remaining * remaining);
+        if (mser <= smallestMser) { // the smallest truncation of equal ones
+          smallestMser = mser;
+          warmUpBatches = dropped;
+        }
+      }
+    }
+    return warmUpBatches;
+  }
+
+  /**
+   * Smallest number of batches after the warm-up, a power of two, whose merged means have a lag-1 autocorrelation
+   * within the 95% band of uncorrelated values, 1.96 / sqrt(n). A single batch of a strongly correlated series is
+   * far too short for the confidence interval, so batches are merged until the test passes.
+   * @return 0 if there are not enough batches for the test at any size yet
+   */
+  private int getUncorrelatedBatches(int firstBatch) {
+    for (int merged = 1; (batchCount - firstBatch) / merged >= MIN_TEST_BATCHES; merged *= 2) {
+      int count = (batchCount - firstBatch) / merged;
+      int start = batchCount - count * merged; // like below, batches that do not fill a merged one are dropped
+      double[] means = new double[count];
+      for (int i = 0; i < count; ++i) {
+        double sum = 0;
+        for (int j = start + i * merged; j < start + (i + 1) * merged; ++j) {
+          sum += batches[j];
+        }
+        means[i] = sum / merged;
+      }
+      if (Math.abs(getLag1Autocorrelation(means)) <= Z_QUANTILE / Math.sqrt(count)) {
+        return merged;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Size of the series saved with checkpoints, room for MAX_BATCHES batches so the size does not change.
+   */
+  static int getStateSize() {
+    return 3 * Integer.BYTES + Double.BYTES + MAX_BATCHES * Double.BYTES;
+  }
+
+  void saveState(ByteBuffer buffer) {
+    buffer.putInt(batchCount).putInt(batchSteps).putDouble(currentSum).putInt(currentSteps);
+    for (int i = 0; i < batchCount; ++i) {
+      buffer.putDouble(batches[i]);
+    }
+    buffer.position(buffer.position() + (MAX_BATCHES - batchCount) * Double.BYTES);
+  }
+
+  void restoreState(ByteBuffer buffer) {
+    batchCount = buffer.getInt();
+    batchSteps = buffer.getInt();
+    currentSum = buffer.getDouble();
+    currentSteps = buffer.getInt();
+    if (batches.length < batchCount) {
+      batches = new double[Integer.highestOneBit(batchCount - 1) << 1];
+    }
+    for (int i = 0; i < batchCount; ++i) {
+      batches[i] = buffer.getDouble();
+    }
+    buffer.position(buffer.position() + (MAX_BATCHES - batchCount) * Double.BYTES);
+  }
+
+  private static double getLag1Autocorrelation(double[] values) {
+    double mean = Arrays.stream(values).average().orElse(0);
+    double variance = 0;
+    double covariance = 0;
+    for (int i = 0; i < values.length; ++i) {
+      variance += (values[i] - mean) * (values[i] - mean);
+      if (i > 0) {
+        covariance += (values[i] - mean) * (values[i - 1] - mean);
+      }
+    }
+    return variance > 0 ? covariance / variance : 0; // a constant series is not correlated
+  }
+
+  /**
+   * Mean after the warm-up with the half-width of its confidence interval, the half-width is infinite until
+   * there are enough steps after the warm-up for CI_BATCH_COUNT batches with uncorrelated means.
+   */
+  Estimate estimate() {
+    int warmUpBatches = getWarmUpBatches();
+    int batchesPerCiBatch = (batchCount - warmUpBatches) / CI_BATCH_COUNT;
+    int uncorrelatedBatches = getUncorrelatedBatches(warmUpBatches);
+    if (uncorrelatedBatches == 0 || batchesPerCiBatch < uncorrelatedBatches) {
+      double sum = 0;
+      for (int i = warmUpBatches; i < batchCount; ++i) {
+        sum += batches[i];
+      }
+      double mean = batchCount > warmUpBatches ? sum / (batchCount - warmUpBatches) : Double.NaN;
+      return new Estimate(mean, Double.POSITIVE_INFINITY, (long) warmUpBatches * batchSteps);
+    }
+
+    // batches that do not fill a CI batch are dropped from the start, they are the closest to the warm-up
+    int firstBatch = batchCount - batchesPerCiBatch * CI_BATCH_COUNT;
+    RunningVariance ciBatchMeans = new RunningVariance();
+    for (int ciBatch = 0; ciBatch < CI_BATCH_COUNT; ++ciBatch) {
+      double sum = 0;
+      int start = firstBatch + ciBatch * batchesPerCiBatch;
+      for (int i = start; i < start + batchesPerCiBatch; ++i) {
+        sum += batches[i];
+      }
+      ciBatchMeans.add(sum / batchesPerCiBatch);
+    }
+    double halfWidth = T_QUANTILE * Math.sqrt(ciBatchMeans.getVariance() / CI_BATCH_COUNT);
+    return new Estimate(ciBatchMeans.getMean(), halfWidth, (long) firstBatch * batchSteps);
+  }
+}
@@ -0,0 +1,89 @@
+package m.traffic.stats;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Summary file of a sweep, read by read_sweep_summary of plot/stats/stats_reader.py. Lines of completed grid
+ * points are written to a temporary file next to it, which gets the name of the summary file only when the whole
+ * sweep is complete, so an existing summary file always belongs to a complete sweep or shard.
+ */
+public class SweepSummaryFile {
+  private static final String TEMPORARY_SUFFIX = ".part";
+
+  private final Path file;
+  private final Path temporaryFile;
+  private final BufferedWriter writer;
+
+  public SweepSummaryFile(Path file) {
+    this.file = file;
+    this.temporaryFile = file.resolveSibling(file.getFileName() + TEMPORARY_SUFFIX);
+    try {
+      if (file.getParent() != null) {
+        Files.createDirectories(file.getParent());
+      }
+      writer = Files.newBufferedWriter(temporaryFile, StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Не вдалось відкрити файл: " + temporaryFile, e);
+    }
+  }
+
+  /**
+   * Adds a line, called by the threads of the sweep.
+   */
+  public synchronized void add(RunSummary summary) {
+    try {
+      writer.write(summary.toLine());
+      writer.newLine();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Appends the lines of another summary file, used to merge the summaries of shards.
+   */
+  public synchronized void addAll(Path summaryFile) {
+    try {
+      for (String line : Files.readAllLines(summaryFile, StandardCharsets.UTF_8)) {
+        writer.write(line);
+        writer.newLine();
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Не вдалось прочитати файл: " + summaryFile, e);
+    }
+  }
+
+  /**
+   * Closes the file and gives it its name, called when every grid point of the sweep is done.
+   */
+  public synchronized void complete() {
+    try {
+      writer.close();
+      try {
+        Files.move(temporaryFile, file, StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Не вдалось записати файл: " + file, e);
+    }
+  }
+
+  /**
+   * Closes the file and leaves it with the temporary name, called when some grid points failed.
+   */
+  public synchronized void abort() {
+    try {
+      writer.close();
+    } catch (IOException e) {
+      throw new UncheckedIOException("Не вдалось закрити файл: " + temporaryFile, e);
+    }
+  }
+}
@@ -0,0 +1,294 @@
+package m.traffic.stats;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+import m.traffic.core.data.state.TrafficSnapshot;
+import m.traffic.core.model.type.BackpressurePolicy;
+
+/**
+ * Bounded ring of step records between the simulation thread and a writer thread of a {@link StatsCollector}.
+ * Records are allocated once and refilled. Pooled snapshots are retained by their record until they are written,
+ * other snapshots (views of live model storage) are copied into it. The writer thread writes all records that are
+ * ready and then flushes the files once. Windows of the {@link SpaceTimeAggregator} and intervals of the
+ * {@link LoopDetectors} are queued as their saved sums.
+ * <p>
+ * When the ring is full, statistics lines always wait for the writer. Snapshots wait too with
+ * {@link BackpressurePolicy#BLOCK} and are dropped with {@link BackpressurePolicy#DROP}, the time file tells which
+ * steps were written then.
+ * <p>
+ * If the writer thread fails, it stops and the next call of the simulation thread throws its error.
+ */
+class WriteBehindQueue {
+  private static final Logger logger = Logger.getLogger(WriteBehindQueue.class.getName());
+
+  private final StatsCollector statsCollector;
+  private final StepRecord[] records;
+  private final boolean dropSnapshots;
+  private final Thread writerThread;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notEmpty = lock.newCondition();
+  private final Condition notFull = lock.newCondition(); // also signalled when the ring becomes empty
+  private long head = 0; // next record to fill, guarded by lock
+  private long tail = 0; // next record to write, guarded by lock
+  private boolean closed = false;
+  private long droppedSnapshots = 0;
+  private RuntimeException writerError; // guarded by lock, the records after the failed batch are not written
+  private volatile long queuedBytes = 0; // size of the published records, written under lock
+
+  private enum RecordType {
+    STATS,
+    SNAPSHOT,
+    AGGREGATED_WINDOW,
+    DETECTOR_INTERVAL
+  }
+
+  static final class StepRecord {
+    private RecordType type;
+    private double density;
+    private double averageSpeed;
+    private double flow;
+    private TrafficSnapshot trafficSnapshot; // retained or the copy
+    private TrafficSnapshot copy;
+    private ByteBuffer state; // sums of a window or an interval, reused
+    private long size; // see getRecordSize
+
+    private void setSnapshot(TrafficSnapshot source) {
+      if (source.retain()) {
+        trafficSnapshot = source;
+        return;
+      }
+      if (copy == null) {
+        copy = new TrafficSnapshot();
+      }
+      copy.copyFrom(source);
+      trafficSnapshot = copy;
+    }
+
+    private ByteBuffer clearState(int stateSize) {
+      if (state == null || state.capacity() < stateSize) {
+        state = ByteBuffer.allocate(stateSize);
+      }
+      return state.clear();
+    }
+  }
+
+  WriteBehindQueue(StatsCollector statsCollector, int capacity, BackpressurePolicy backpressurePolicy,
+      String name) {
+    this.statsCollector = statsCollector;
+    this.records = new StepRecord[capacity];
+    for (int i = 0; i < capacity; ++i) {
+      records[i] = new StepRecord();
+    }
+    this.dropSnapshots = backpressurePolicy == BackpressurePolicy.DROP;
+    writerThread = new Thread(this::writeRecords, "stats-writer-" + name);
+    writerThread.setDaemon(true);
+    writerThread.start();
+  }
+
+  void addStats(double density, double averageSpeed, double flow) {
+    StepRecord record = claim(false);
+    record.type = RecordType.STATS;
+    record.density = density;
+    record.averageSpeed = averageSpeed;
+    record.flow = flow;
+    publish(record, getRecordSize(null));
+  }
+
+  void addSnapshot(TrafficSnapshot trafficSnapshot) {
+    StepRecord record = claim(dropSnapshots);
+    if (record == null) {
+      return;
+    }
+    record.type = RecordType.SNAPSHOT;
+    record.setSnapshot(trafficSnapshot);
+    publish(record, getRecordSize(trafficSnapshot));
+  }
+
+  /**
+   * Queues the sums of the complete window, the aggregator can start the next one.
+   */
+  void addAggregatedWindow(SpaceTimeAggregator aggregator) {
+    StepRecord record = claim(false);
+    record.type = RecordType.AGGREGATED_WINDOW;
+    ByteBuffer state = record.clearState(aggregator.getStateSize());
+    aggregator.saveState(state);
+    publish(record, state.flip().remaining());
+  }
+
+  /**
+   * Queues the sums of the complete interval, the detectors can start the next one.
+   */
+  void addDetectorInterval(LoopDetectors loopDetectors) {
+    StepRecord record = claim(false);
+    record.type = RecordType.DETECTOR_INTERVAL;
+    ByteBuffer state = record.clearState(loopDetectors.getStateSize());
+    loopDetectors.saveState(state);
+    publish(record, state.flip().remaining());
+  }
+
+  /**
+   * Free record at the head of the ring, it is filled outside of the lock: only this thread fills records and
+   * the writer does not read it before it is published.
+   * @return null if the ring is full and the record can be dropped
+   */
+  private StepRecord claim(boolean canDrop) {
+    lock.lock();
+    try {
+      checkWriter();
+      while (head - tail == records.length) {
+        checkWriter();
+        if (canDrop) {
+          droppedSnapshots++;
+          return null;
+        }
+        notFull.awaitUninterruptibly();
+      }
+      return records[(int) (head % records.length)];
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void publish(StepRecord record, long size) {
+    record.size = size;
+    lock.lock();
+    try {
+      head++;
+      queuedBytes += size;
+      notEmpty.signal();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * In-memory size of the values of a record: positions and velocities of a snapshot, or a line of statistics
+   * if the snapshot is null.
+   */
+  static long getRecordSize(TrafficSnapshot trafficSnapshot) {
+    return trafficSnapshot == null ? 3L * Double.BYTES : 2L * Integer.BYTES * trafficSnapshot.getCarCount();
+  }
+
+  long getQueuedBytes() {
+    return queuedBytes;
+  }
+
+  /**
+   * Waits until all published records are written and flushed.
+   */
+  void drain() {
+    lock.lock();
+    try {
+      while (tail != head) {
+        checkWriter();
+        notFull.awaitUninterruptibly();
+      }
+      checkWriter();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Writes the remaining records and stops the writer thread.
+   */
+  void close() {
+    lock.lock();
+    try {
+      closed = true;
+      notEmpty.signal();
+    } finally {
+      lock.unlock();
+    }
+    try {
+      writerThread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (droppedSnapshots > 0) {
+      logger.warning("%d snapshots were not written because the write queue was full.".formatted(droppedSnapshots));
+    }
+    lock.lock();
+    try {
+      checkWriter();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Called with the lock held.
+   */
+  private void checkWriter() {
+    if (writerError != null) {
+      throw new IllegalStateException("Потік запису результатів завершився з помилкою", writerError);
+    }
+  }
+
+  private void writeRecord(StepRecord record) {
+    switch (record.type) {
+      case STATS -> statsCollector.writeStats(record.density, record.averageSpeed, record.flow);
+      case SNAPSHOT -> {
+        statsCollector.writeSnapshot(record.trafficSnapshot);
+        record.trafficSnapshot.release(); // no-op for the copy
+        record.trafficSnapshot = null;
+      }
+      case AGGREGATED_WINDOW -> statsCollector.writeAggregatedWindow(record.state);
+      case DETECTOR_INTERVAL -> statsCollector.writeDetectorInterval(record.state);
+    }
+  }
+
+  private void writeRecords() {
+    while (true) {
+      long first;
+      long last;
+      lock.lock();
+      try {
+        while (tail == head && !closed) {
+          notEmpty.awaitUninterruptibly();
+        }
+        if (tail == head) {
+          return; // closed and everything is written
+        }
+        first = tail;
+        last = head;
+      } finally {
+        lock.unlock();
+      }
+
+      OutputWriteEvent event = OutputWriteEvent.start();
+      long batchBytes = 0;
+      try {
+        for (long i = first; i < last; ++i) {
+          StepRecord record = records[(int) (i % records.length)];
+          batchBytes += record.size;
+          writeRecord(record);
+        }
+        statsCollector.flush(); // once per batch
+      } catch (RuntimeException e) {
+        lock.lock();
+        try {
+          writerError = e;
+          notFull.signalAll();
+        } finally {
+          lock.unlock();
+        }
+        return;
+      }
+
+      int queued;
+      lock.lock();
+      try {
+        tail = last;
+        queuedBytes -= batchBytes;
+        queued = (int) (head - tail);
+        notFull.signalAll();
+      } finally {
+        lock.unlock();
+      }
+      OutputWriteEvent.finish(event, statsCollector.getOutputDirectory(), (int) (last - first), batchBytes, queued);
+    }
+  }
+}
@@ -7,6 +7,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Scanner;
 import java.util.function.BiConsumer;
+import java.util.function.Function;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.DefaultParser;
@@ -15,7 +16,11 @@ import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import m.traffic.core.data.config.VelocityBasedModelConfig;
 import m.traffic.core.data.config.SimulationConfig;
+import m.traffic.core.model.type.BackpressurePolicy;
+import m.traffic.core.model.type.ContinuationDirection;
+import m.traffic.core.model.type.EngineType;
 import m.traffic.core.model.type.ModelType;
+import m.traffic.core.model.type.OutputFormat;
 
 enum OptionType {
   CAR_NUMBER("n", "deltaCarNumber"), //format: min:max:delta
@@ -25,7 +30,13 @@ enum OptionType {
   P0_PROBABILITY("s", "deltaP0Probability"),
   START_ACCELERATION_PROBABILITY("m", "deltaStartAccelerationProbability"),
   STEP_COUNT("i", "stepCount"), //i stands for iterations
-  CONFIG_FILE("c", "configFile");
+  CONFIG_FILE("c", "configFile"),
+  SWEEP("g", "sweep"), //format: name:min:max:delta,name:min:max:delta,...
+  SWEEP_RANGE("x", "sweepRange"), //format: from:to
+  SWEEP_WORKERS("w", "workers"), // worker JVMs of a sweep, 0 runs it in this JVM
+  SWEEP_SHARD_SIZE("z", "shardSize"), // grid points of a worker JVM at once
+  SWEEP_SUMMARY("o", "summary"), // file of a line per completed grid point
+  RESUME("r", "resume"); // flag without a value
 
   String shortName;
   String longName;
@@ -67,7 +78,26 @@ public class ConfigParser {
                                  OptionType.STEP_COUNT.name(), "number of steps to simulate", false) )
         .addOption( createOption(OptionType.CONFIG_FILE.shortName,
                                  OptionType.CONFIG_FILE.longName,
-                                 OptionType.CONFIG_FILE.name(), "Path to config file", false) );
+                                 OptionType.CONFIG_FILE.name(), "Path to config file", false) )
+        .addOption( createOption(OptionType.SWEEP.shortName,
+                                 OptionType.SWEEP.longName,
+                                 OptionType.SWEEP.name(), "grid of all combinations of parameter ranges", false) )
+        .addOption( createOption(OptionType.SWEEP_RANGE.shortName,
+                                 OptionType.SWEEP_RANGE.longName,
+                                 OptionType.SWEEP_RANGE.name(), "indices of the grid points to run", false) )
+        .addOption( createOption(OptionType.SWEEP_WORKERS.shortName,
+                                 OptionType.SWEEP_WORKERS.longName,
+                                 OptionType.SWEEP_WORKERS.name(), "worker JVMs that run shards of the grid", false) )
+        .addOption( createOption(OptionType.SWEEP_SHARD_SIZE.shortName,
+                                 OptionType.SWEEP_SHARD_SIZE.longName,
+                                 OptionType.SWEEP_SHARD_SIZE.name(), "grid points of a shard", false) )
+        .addOption( createOption(OptionType.SWEEP_SUMMARY.shortName,
+                                 OptionType.SWEEP_SUMMARY.longName,
+                                 OptionType.SWEEP_SUMMARY.name(), "summary file of the grid points", false) )
+        .addOption( Option.builder(OptionType.RESUME.shortName)
+                          .longOpt(OptionType.RESUME.longName)
+                          .desc("continue from checkpoints of a previous run")
+                          .get() );
   }
 
   public static List<SimulationConfig> getSimulationConfig(String[] args) throws ParseException {
@@ -78,6 +108,7 @@ public class ConfigParser {
     if (config == null) {
       config = SimulationConfig.defaultConfig();
     }
+    config.setResume(commandLine.hasOption(OptionType.RESUME.shortName));
     for (OptionType optionType : OptionType.values()) {
       switch (optionType) {
         case CAR_NUMBER -> configs.addAll(parseIntConfig(commandLine, optionType, config, SimulationConfig::setCarCount));
@@ -98,7 +129,7 @@ public class ConfigParser {
           }));
         case STEP_COUNT -> configs.addAll(parseIntConfig(commandLine, optionType, config, SimulationConfig::setStepCount));
         default -> {
-          // No action needed for CONFIG_FILE or unhandled options
+          // No action needed for CONFIG_FILE, sweep options, RESUME or unhandled options
         }
       }
     }
@@ -108,6 +139,54 @@ public class ConfigParser {
     return configs;
   }
 
+  /**
+   * Grid of the sweep option or of the "sweep" key of the config file, the command line wins. The grid is
+   * applied to the config of the file and "sweepRange" selects a shard of it. "sweepWorkers", "sweepShardSize",
+   * "sweepSummary", "sweepContinuation" and "continuationStepCount" choose how the grid is run.
+   * @return null if no sweep is given
+   */
+  public static ConfigSweep getSweep(String[] args) throws ParseException {
+    CommandLine commandLine = commandLineParser.parse(options, args);
+    String fileName = commandLine.getOptionValue(OptionType.CONFIG_FILE.shortName);
+    HashMap<String, String> configMap = fileName != null ? getConfigsMap(fileName) : null;
+    if (configMap == null) {
+      configMap = new HashMap<>();
+    }
+    String spec = commandLine.getOptionValue(OptionType.SWEEP.shortName, configMap.get("sweep"));
+    if (spec == null) {
+      return null;
+    }
+    String range = commandLine.getOptionValue(OptionType.SWEEP_RANGE.shortName, configMap.get("sweepRange"));
+
+    SimulationConfig config = parseConfig(commandLine);
+    if (config == null) {
+      config = SimulationConfig.defaultConfig();
+    }
+    config.setResume(commandLine.hasOption(OptionType.RESUME.shortName));
+    ConfigSweep sweep = ConfigSweep.parse(config, spec, range);
+    putOption(configMap, commandLine, OptionType.SWEEP_WORKERS, "sweepWorkers");
+    putOption(configMap, commandLine, OptionType.SWEEP_SHARD_SIZE, "sweepShardSize");
+    putOption(configMap, commandLine, OptionType.SWEEP_SUMMARY, "sweepSummary");
+    sweep.setWorkers(getInt(configMap, "sweepWorkers", sweep.getWorkers()));
+    sweep.setShardSize(getLong(configMap, "sweepShardSize", sweep.getShardSize()));
+    sweep.setSummaryFile(configMap.get("sweepSummary"));
+    sweep.setContinuation(parseValue(configMap, "sweepContinuation", sweep.getContinuation(),
+        ContinuationDirection::fromString));
+    sweep.setContinuationStepCount(getInt(configMap, "continuationStepCount", sweep.getContinuationStepCount()));
+    return sweep;
+  }
+
+  /**
+   * Puts the value of a command line option over the key of the config file, so both are parsed the same way.
+   */
+  private static void putOption(HashMap<String, String> configMap, CommandLine commandLine, OptionType optionType,
+      String key) {
+    String value = commandLine.getOptionValue(optionType.shortName);
+    if (value != null) {
+      configMap.put(key, value);
+    }
+  }
+
   private static List<? extends SimulationConfig> parseIntConfig(CommandLine commandLine, OptionType optionType,
       SimulationConfig config, BiConsumer<SimulationConfig, Integer> setter) {
     List<SimulationConfig> configs = new ArrayList<>();
@@ -126,7 +205,7 @@ public class ConfigParser {
     return configs;
   }
 
-  private static SimulationConfig copyConfig(SimulationConfig config) {
+  public static SimulationConfig copyConfig(SimulationConfig config) {
     return switch (config.getModelType()) {
       case NAGEL_SCHRECKENBERG, RULE_184 -> SimulationConfig.copyConfig(config);
       case VELOCITY_BASED_MODEL -> VelocityBasedModelConfig.copyConfig((VelocityBasedModelConfig) config);
@@ -170,75 +249,109 @@ public class ConfigParser {
     }
 
     SimulationConfig config = getSimulationConfig(configMap);
-    return switch (config.getModelType()) {
+    config = switch (config.getModelType()) {
       case NAGEL_SCHRECKENBERG, RULE_184 -> config;
       case VELOCITY_BASED_MODEL -> getVelocityBasedModelConfig(config, configMap);
     };
+    parseEngineOptions(config, configMap);
+    return config;
   }
 
-  private static SimulationConfig getSimulationConfig(HashMap<String, String> configMap) {
-    try {
-      SimulationConfig defaultConfig = SimulationConfig.defaultConfig();
-      int roadLength = Integer.parseInt(configMap.getOrDefault("roadLength", defaultConfig.getRoadLength() + ""));
-      int carCount = Integer.parseInt(configMap.getOrDefault("carCount", defaultConfig.getCarCount() + ""));
-      int maxSpeed = Integer.parseInt(configMap.getOrDefault("maxSpeed", defaultConfig.getMaxSpeed() + ""));
-      int stepDuration = Integer.parseInt(configMap.getOrDefault("stepDuration", defaultConfig.getStepDuration() + ""));
-      double brakingProbability = Double.parseDouble(configMap.getOrDefault("brakingProbability",
-                                      defaultConfig.getBrakingProbability() + ""));
-      boolean isCyclic = Boolean.parseBoolean(configMap.getOrDefault("isCyclic", defaultConfig.isCyclic() + ""));
-      String outputFilePrefix = configMap.getOrDefault("outputFilePrefix", defaultConfig.getOutputFilePrefix());
-      int stepCount = Integer.parseInt(configMap.getOrDefault("stepCount", defaultConfig.getStepCount() + ""));
-      long randomSeed = Long.parseLong(configMap.getOrDefault("randomSeed", defaultConfig.getRandomSeed() + ""));
+  /**
+   * Options of the engine, the output and the run. Every key is parsed on its own, so a bad value fails the whole
+   * config with the name of its key instead of leaving the keys after it at their defaults.
+   */
+  private static void parseEngineOptions(SimulationConfig config, HashMap<String, String> configMap) {
+    config.setEngineType(parseValue(configMap, "engine", config.getEngineType(), EngineType::fromString));
+    config.setThreads(getInt(configMap, "threads", config.getThreads()));
+    config.setWriteSnapshots(getBoolean(configMap, "writeSnapshots", config.isWriteSnapshots()));
+    config.setOutputFormat(parseValue(configMap, "outputFormat", config.getOutputFormat(), OutputFormat::fromString));
+    config.setDeltaKeyframeInterval(getInt(configMap, "deltaKeyframeInterval", config.getDeltaKeyframeInterval()));
+    config.setAggregateSegmentLength(getInt(configMap, "aggregateSegmentLength", config.getAggregateSegmentLength()));
+    config.setAggregateWindow(getInt(configMap, "aggregateWindow", config.getAggregateWindow()));
+    config.setDetectors(configMap.getOrDefault("detectors", config.getDetectors()));
+    config.setDetectorInterval(getInt(configMap, "detectorInterval", config.getDetectorInterval()));
+    config.setWriteQueueSize(getInt(configMap, "writeQueueSize", config.getWriteQueueSize()));
+    config.setWriteBackpressure(parseValue(configMap, "writeBackpressure", config.getWriteBackpressure(),
+        BackpressurePolicy::fromString));
+    config.setFastForward(getBoolean(configMap, "fastForward", config.isFastForward()));
+    config.setReplicas(getInt(configMap, "replicas", config.getReplicas()));
+    config.setOffHeapFile(configMap.getOrDefault("offHeapFile", config.getOffHeapFile()));
+    config.setCheckpointInterval(getInt(configMap, "checkpointInterval", config.getCheckpointInterval()));
+    config.setSteadyState(getBoolean(configMap, "steadyState", config.isSteadyState()));
+    config.setCiTargetWidth(getDouble(configMap, "ciTargetWidth", config.getCiTargetWidth()));
+    config.setResultCache(configMap.getOrDefault("resultCache", config.getResultCache()));
+  }
 
-      return new SimulationConfig(
-                    roadLength,
-                    carCount,
-                    maxSpeed,
-                    stepDuration,
-                    brakingProbability,
-                    isCyclic,
-                    outputFilePrefix,
-                    stepCount,
-                    randomSeed,
-                    ModelType.fromString(configMap.getOrDefault("model", defaultConfig.getModelType().getName()))
-      );
-    } catch (NumberFormatException e) {
-      e.printStackTrace();
-      return null;
-    }
+  private static SimulationConfig getSimulationConfig(HashMap<String, String> configMap) {
+    SimulationConfig defaultConfig = SimulationConfig.defaultConfig();
+    return new SimulationConfig(
+                  getInt(configMap, "roadLength", defaultConfig.getRoadLength()),
+                  getInt(configMap, "carCount", defaultConfig.getCarCount()),
+                  getInt(configMap, "maxSpeed", defaultConfig.getMaxSpeed()),
+                  getInt(configMap, "stepDuration", defaultConfig.getStepDuration()),
+                  getDouble(configMap, "brakingProbability", defaultConfig.getBrakingProbability()),
+                  getBoolean(configMap, "isCyclic", defaultConfig.isCyclic()),
+                  configMap.getOrDefault("outputFilePrefix", defaultConfig.getOutputFilePrefix()),
+                  getInt(configMap, "stepCount", defaultConfig.getStepCount()),
+                  getLong(configMap, "randomSeed", defaultConfig.getRandomSeed()),
+                  parseValue(configMap, "model", defaultConfig.getModelType(), ModelType::fromString)
+    );
   }
 
   private static VelocityBasedModelConfig getVelocityBasedModelConfig(SimulationConfig baseConfig,
                                                                       HashMap<String, String> configMap) {
-    try {
-      VelocityBasedModelConfig defaultConfig = VelocityBasedModelConfig.defaultConfig();
-      double startAccelerationProbability = Double.parseDouble(configMap.getOrDefault("startAccelerationProbability",
-                                      defaultConfig.getStartAccelerationProbability() + ""));
-      boolean useMaxSpeedBrakingProbability = Boolean.parseBoolean(configMap.getOrDefault(
-                                      "useMaxSpeedBrakingProbability",
-                                      defaultConfig.isUseMaxSpeedBrakingProbability() + ""));
-      double maxSpeedBrakingProbability = Double.parseDouble(configMap.getOrDefault(
-                                      "maxSpeedBrakingProbability",
-                                      defaultConfig.getMaxSpeedBrakingProbability() + ""));
+    VelocityBasedModelConfig defaultConfig = VelocityBasedModelConfig.defaultConfig();
+    return new VelocityBasedModelConfig(
+                  baseConfig.getRoadLength(),
+                  baseConfig.getCarCount(),
+                  baseConfig.getMaxSpeed(),
+                  baseConfig.getStepDuration(),
+                  baseConfig.getBrakingProbability(),
+                  baseConfig.isCyclic(),
+                  baseConfig.getOutputFilePrefix(),
+                  baseConfig.getStepCount(),
+                  baseConfig.getRandomSeed(),
+                  baseConfig.getModelType(),
+                  getDouble(configMap, "startAccelerationProbability", defaultConfig.getStartAccelerationProbability()),
+                  getBoolean(configMap, "useMaxSpeedBrakingProbability",
+                      defaultConfig.isUseMaxSpeedBrakingProbability()),
+                  getDouble(configMap, "maxSpeedBrakingProbability", defaultConfig.getMaxSpeedBrakingProbability())
+    );
+  }
 
-      return new VelocityBasedModelConfig(
-                    baseConfig.getRoadLength(),
-                    baseConfig.getCarCount(),
-                    baseConfig.getMaxSpeed(),
-                    baseConfig.getStepDuration(),
-                    baseConfig.getBrakingProbability(),
-                    baseConfig.isCyclic(),
-                    baseConfig.getOutputFilePrefix(),
-                    baseConfig.getStepCount(),
-                    baseConfig.getRandomSeed(),
-                    baseConfig.getModelType(),
-                    startAccelerationProbability,
-                    useMaxSpeedBrakingProbability,
-                    maxSpeedBrakingProbability
-      );
-    } catch (NumberFormatException e) {
-      e.printStackTrace();
-      return null;
+  private static int getInt(HashMap<String, String> configMap, String key, int defaultValue) {
+    return parseValue(configMap, key, defaultValue, Integer::parseInt);
+  }
+
+  private static long getLong(HashMap<String, String> configMap, String key, long defaultValue) {
+    return parseValue(configMap, key, defaultValue, Long::parseLong);
+  }
+
+  private static double getDouble(HashMap<String, String> configMap, String key, double defaultValue) {
+    return parseValue(configMap, key, defaultValue, Double::parseDouble);
+  }
+
+  private static boolean getBoolean(HashMap<String, String> configMap, String key, boolean defaultValue) {
+    // Boolean.parseBoolean reads every misspelling as false
+    return parseValue(configMap, key, defaultValue, value -> {
+      if (!value.equalsIgnoreCase("true") && !value.equalsIgnoreCase("false")) {
+        throw new IllegalArgumentException();
+      }
+      return Boolean.parseBoolean(value);
+    });
+  }
+
+  private static <T> T parseValue(HashMap<String, String> configMap, String key, T defaultValue,
+      Function<String, T> parser) {
+    String value = configMap.get(key);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return parser.apply(value);
+    } catch (IllegalArgumentException e) { // NumberFormatException too
+      throw new IllegalArgumentException("Неправильне значення параметра %s: %s".formatted(key, value), e);
     }
   }
 
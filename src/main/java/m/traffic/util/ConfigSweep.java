@@ -0,0 +1,273 @@
+package m.traffic.util;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.BiConsumer;
+import m.traffic.core.data.config.SimulationConfig;
+import m.traffic.core.data.config.VelocityBasedModelConfig;
+import m.traffic.core.model.type.ContinuationDirection;
+
+/**
+ * All combinations of parameter ranges applied to a base config, e.g.
+ * "carCount:10:100:10,brakingProbability:0.1:0.5:0.1,randomSeed:1:10:1". A config is made from its index when it
+ * is needed, so a grid of millions of points takes only the memory of its ranges. The last parameter changes
+ * fastest, and a range of indices [from, to) is a shard of the grid that can be run or resumed on its own.
+ * Values are computed in decimal, so 0.1:0.5:0.1 gives the same doubles as the values written in a config file.
+ */
+public class ConfigSweep implements Iterable<SimulationConfig> {
+  private static final String AXIS_DELIMITER = ",";
+  private static final String DELIMITER = ":";
+  public static final long DEFAULT_SHARD_SIZE = 1000;
+
+  private final SimulationConfig baseConfig;
+  private final String spec;
+  private final List<Axis> axes;
+  private final long size;
+  private final long from;
+  private final long to;
+  private int workers = 0; // worker JVMs of a coordinator, 0 runs the grid in this JVM
+  private long shardSize = DEFAULT_SHARD_SIZE; // grid points run by a worker JVM at once
+  private String summaryFile; // file of a line per completed point, null if it is not written
+  private ContinuationDirection continuation = ContinuationDirection.NONE; // order of car counts run as chains
+  private int continuationStepCount = 0; // steps of the points of a chain after the first one, 0 uses stepCount
+
+  private record Axis(String name, BigDecimal min, BigDecimal delta, long count,
+      BiConsumer<SimulationConfig, Double> setter) {
+    double getValue(long index) {
+      return min.add(delta.multiply(BigDecimal.valueOf(index))).doubleValue();
+    }
+  }
+
+  private ConfigSweep(SimulationConfig baseConfig, String spec, List<Axis> axes, long size, long from, long to) {
+    this.baseConfig = baseConfig;
+    this.spec = spec;
+    this.axes = axes;
+    this.size = size;
+    this.from = from;
+    this.to = to;
+  }
+
+  /**
+   * @param spec comma-separated parameters, each name:min:max:delta or name:value
+   * @param range shard from:to of the grid indices, null or empty for the whole grid
+   */
+  public static ConfigSweep parse(SimulationConfig baseConfig, String spec, String range) {
+    List<Axis> axes = new ArrayList<>();
+    long size = 1;
+    for (String axisSpec : spec.split(AXIS_DELIMITER)) {
+      if (axisSpec.isBlank()) {
+        continue;
+      }
+      Axis axis = parseAxis(baseConfig, axisSpec.trim());
+      axes.add(axis);
+      size = Math.multiplyExact(size, axis.count());
+    }
+    if (axes.isEmpty()) {
+      throw new IllegalArgumentException("Порожній опис перебору параметрів.");
+    }
+
+    long from = 0;
+    long to = size;
+    if (range != null && !range.isBlank()) {
+      String[] parts = range.trim().split(DELIMITER);
+      if (parts.length != 2) {
+        throw new IllegalArgumentException("Неправильний формат діапазону перебору, очікується from:to");
+      }
+      from = Long.parseLong(parts[0]);
+      to = Math.min(Long.parseLong(parts[1]), size);
+      if (from < 0 || from > to) {
+        throw new IllegalArgumentException("Неправильний діапазон перебору: " + range);
+      }
+    }
+    return new ConfigSweep(baseConfig, spec, List.copyOf(axes), size, from, to);
+  }
+
+  private static Axis parseAxis(SimulationConfig baseConfig, String axisSpec) {
+    String[] parts = axisSpec.split(DELIMITER);
+    if (parts.length != 2 && parts.length != 4) {
+      throw new IllegalArgumentException("Неправильний формат параметра перебору, очікується name:min:max:delta: "
+          + axisSpec);
+    }
+    BiConsumer<SimulationConfig, Double> setter = getSetter(baseConfig, parts[0]);
+    BigDecimal min = new BigDecimal(parts[1]);
+    if (parts.length == 2) {
+      return new Axis(parts[0], min, BigDecimal.ZERO, 1, setter);
+    }
+    BigDecimal max = new BigDecimal(parts[2]);
+    BigDecimal delta = new BigDecimal(parts[3]);
+    if (delta.signum() <= 0 || max.compareTo(min) < 0) {
+      throw new IllegalArgumentException("Неправильний діапазон параметра перебору: " + axisSpec);
+    }
+    long count = max.subtract(min).divide(delta, 0, RoundingMode.FLOOR).longValueExact() + 1;
+    return new Axis(parts[0], min, delta, count, setter);
+  }
+
+  private static BiConsumer<SimulationConfig, Double> getSetter(SimulationConfig baseConfig, String name) {
+    return switch (name) {
+      case "roadLength" -> (config, value) -> config.setRoadLength((int) Math.round(value));
+      case "carCount" -> (config, value) -> config.setCarCount((int) Math.round(value));
+      case "maxSpeed" -> (config, value) -> config.setMaxSpeed((int) Math.round(value));
+      case "stepCount" -> (config, value) -> config.setStepCount((int) Math.round(value));
+      case "randomSeed" -> (config, value) -> config.setRandomSeed(Math.round(value));
+      case "brakingProbability" -> SimulationConfig::setBrakingProbability;
+      case "startAccelerationProbability", "maxSpeedBrakingProbability" -> {
+        if (!(baseConfig instanceof VelocityBasedModelConfig)) {
+          throw new IllegalArgumentException("Параметр %s є тільки в моделі velocity_based_model.".formatted(name));
+        }
+        yield name.equals("startAccelerationProbability")
+            ? (config, value) -> ((VelocityBasedModelConfig) config).setStartAccelerationProbability(value)
+            : (config, value) -> ((VelocityBasedModelConfig) config).setMaxSpeedBrakingProbability(value);
+      }
+      default -> throw new IllegalArgumentException("Невідомий параметр перебору: " + name);
+    };
+  }
+
+  public SimulationConfig getBaseConfig() {
+    return baseConfig;
+  }
+
+  public String getSpec() {
+    return spec;
+  }
+
+  /**
+   * Number of points of the whole grid.
+   */
+  public long getSize() {
+    return size;
+  }
+
+  public long getFrom() {
+    return from;
+  }
+
+  public long getTo() {
+    return to;
+  }
+
+  public int getWorkers() {
+    return workers;
+  }
+
+  void setWorkers(int workers) {
+    if (workers < 0) {
+      throw new IllegalArgumentException("Кількість робочих процесів не може бути від'ємною: " + workers);
+    }
+    this.workers = workers;
+  }
+
+  public long getShardSize() {
+    return shardSize;
+  }
+
+  void setShardSize(long shardSize) {
+    if (shardSize < 1) {
+      throw new IllegalArgumentException("Розмір частини перебору повинен бути додатним: " + shardSize);
+    }
+    this.shardSize = shardSize;
+  }
+
+  public String getSummaryFile() {
+    return summaryFile;
+  }
+
+  void setSummaryFile(String summaryFile) {
+    this.summaryFile = summaryFile == null || summaryFile.isBlank() ? null : summaryFile;
+  }
+
+  public ContinuationDirection getContinuation() {
+    return continuation;
+  }
+
+  void setContinuation(ContinuationDirection continuation) {
+    this.continuation = continuation;
+  }
+
+  public int getContinuationStepCount() {
+    return continuationStepCount;
+  }
+
+  void setContinuationStepCount(int continuationStepCount) {
+    if (continuationStepCount < 0) {
+      throw new IllegalArgumentException("Кількість кроків продовження не може бути від'ємною: "
+          + continuationStepCount);
+    }
+    this.continuationStepCount = continuationStepCount;
+  }
+
+  /**
+   * Values of a parameter in increasing order.
+   * @throws IllegalArgumentException if the grid has no such parameter
+   */
+  public double[] getAxisValues(String name) {
+    Axis axis = getAxis(name);
+    double[] values = new double[(int) axis.count()];
+    for (int i = 0; i < values.length; ++i) {
+      values[i] = axis.getValue(i);
+    }
+    return values;
+  }
+
+  /**
+   * The same grid without a parameter, its configs have the value of the base config.
+   */
+  public ConfigSweep withoutAxis(String name) {
+    Axis removedAxis = getAxis(name);
+    List<Axis> remainingAxes = new ArrayList<>(axes);
+    remainingAxes.remove(removedAxis);
+    long remainingSize = size / removedAxis.count();
+    return new ConfigSweep(baseConfig, spec, List.copyOf(remainingAxes), remainingSize, 0, remainingSize);
+  }
+
+  private Axis getAxis(String name) {
+    for (Axis axis : axes) {
+      if (axis.name().equals(name)) {
+        return axis;
+      }
+    }
+    throw new IllegalArgumentException("Перебір не містить параметра " + name);
+  }
+
+  /**
+   * Config of a grid point, a new copy of the base config on every call.
+   */
+  public SimulationConfig get(long index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Індекс %d поза сіткою з %d точок".formatted(index, size));
+    }
+    SimulationConfig config = ConfigParser.copyConfig(baseConfig);
+    for (int i = axes.size() - 1; i >= 0; --i) {
+      Axis axis = axes.get(i);
+      axis.setter().accept(config, axis.getValue(index % axis.count()));
+      index /= axis.count();
+    }
+    return config;
+  }
+
+  /**
+   * Configs of the shard in index order.
+   */
+  @Override
+  public Iterator<SimulationConfig> iterator() {
+    return new Iterator<>() {
+      private long next = from;
+
+      @Override
+      public boolean hasNext() {
+        return next < to;
+      }
+
+      @Override
+      public SimulationConfig next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return get(next++);
+      }
+    };
+  }
+}
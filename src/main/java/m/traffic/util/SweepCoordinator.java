@@ -0,0 +1,218 @@
+package m.traffic.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Logger;
+import m.traffic.stats.ResultCache;
+import m.traffic.stats.SweepSummaryFile;
+
+/**
+ * Runs the grid of a sweep in worker JVMs on this machine, so a crash, a GC pause or the heap of one JVM does not
+ * stop the whole sweep. The grid is split into shards of {@link ConfigSweep#getShardSize()} points that are
+ * queued in a directory next to the outputs, "prefix_sweep". A worker is a JVM running the main class with the
+ * same arguments for one shard; it writes the summary file of the shard when all its points are done. A worker
+ * that exits without the summary is started again up to {@link #MAX_ATTEMPTS} times, and a coordinator started
+ * again skips the shards that already have summaries. The summaries of shards are merged in the order of the shards.
+ * <p>
+ * Every shard of a crashed worker is run from its start, use resultCache to skip its points completed before.
+ */
+public class SweepCoordinator {
+  private static final Logger logger = Logger.getLogger(SweepCoordinator.class.getName());
+  private static final int MAX_ATTEMPTS = 3;
+  private static final String DESCRIPTION_FILE = "sweep";
+  private static final String SUMMARY_FILE = "summary";
+  // options the coordinator sets for every worker, with their short and long names
+  private static final Set<String> WORKER_OPTIONS = Set.of("w", "workers", "x", "sweepRange", "o", "summary");
+
+  private final ConfigSweep sweep;
+  private final Class<?> mainClass;
+  private final List<String> workerArguments;
+  private final Path directory;
+  private final Map<Process, Shard> runningShards = new HashMap<>();
+  private final BlockingQueue<Process> exitedWorkers = new LinkedBlockingQueue<>();
+
+  private record Shard(long from, long to) {
+    String getName() {
+      return "shard_%d_%d".formatted(from, to);
+    }
+  }
+
+  /**
+   * @param args arguments of the coordinator, workers get them without the sweep options of the coordinator
+   */
+  public SweepCoordinator(ConfigSweep sweep, Class<?> mainClass, String[] args) {
+    this.sweep = sweep;
+    this.mainClass = mainClass;
+    this.workerArguments = removeWorkerOptions(args);
+    this.directory = Path.of(sweep.getBaseConfig().getOutputFilePrefix() + "_sweep");
+  }
+
+  private static List<String> removeWorkerOptions(String[] args) {
+    List<String> arguments = new ArrayList<>();
+    for (int i = 0; i < args.length; ++i) {
+      String argument = args[i];
+      if (argument.startsWith("--")) {
+        if (WORKER_OPTIONS.contains(argument.substring(2).split("=", 2)[0])) {
+          i += argument.contains("=") ? 0 : 1; // --workers=4 or --workers 4
+          continue;
+        }
+      } else if (argument.length() > 1 && argument.startsWith("-")
+          && WORKER_OPTIONS.contains(argument.substring(1, 2))) {
+        i += argument.length() == 2 ? 1 : 0; // -w 4 or -w4
+        continue;
+      }
+      arguments.add(argument);
+    }
+    return arguments;
+  }
+
+  /**
+   * Runs all shards and returns when each of them is complete or failed {@link #MAX_ATTEMPTS} times.
+   * @return number of failed shards, the summaries are merged only if it is 0
+   */
+  public int run() {
+    prepareDirectory();
+    List<Shard> shards = new ArrayList<>();
+    for (long from = sweep.getFrom(); from < sweep.getTo(); from += sweep.getShardSize()) {
+      shards.add(new Shard(from, Math.min(from + sweep.getShardSize(), sweep.getTo())));
+    }
+    Deque<Shard> pendingShards = new ArrayDeque<>();
+    for (Shard shard : shards) {
+      if (!Files.exists(getSummaryFile(shard))) {
+        pendingShards.add(shard);
+      }
+    }
+    logger.info("Running %d of %d shards of grid points %d..%d in %d worker JVMs.".formatted(pendingShards.size(),
+        shards.size(), sweep.getFrom(), sweep.getTo(), sweep.getWorkers()));
+
+    Thread shutdownHook = new Thread(this::stopWorkers);
+    Runtime.getRuntime().addShutdownHook(shutdownHook);
+    Map<Shard, Integer> attempts = new HashMap<>();
+    int failedShards = 0;
+    try {
+      while (!pendingShards.isEmpty() || !runningShards.isEmpty()) {
+        while (runningShards.size() < sweep.getWorkers() && !pendingShards.isEmpty()) {
+          Shard shard = pendingShards.poll();
+          attempts.merge(shard, 1, Integer::sum);
+          startWorker(shard);
+        }
+        Process worker = exitedWorkers.take();
+        Shard shard;
+        synchronized (runningShards) {
+          shard = runningShards.remove(worker);
+        }
+        if (Files.exists(getSummaryFile(shard))) {
+          logger.info("Shard %s completed.".formatted(shard.getName()));
+        } else if (attempts.get(shard) < MAX_ATTEMPTS) {
+          logger.warning("Worker of shard %s exited with code %d, the shard is queued again.".formatted(
+              shard.getName(), worker.exitValue()));
+          pendingShards.add(shard);
+        } else {
+          logger.severe("Shard %s failed %d times, see %s.".formatted(shard.getName(), MAX_ATTEMPTS,
+              getLogFile(shard)));
+          failedShards++;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      stopWorkers();
+      return failedShards + pendingShards.size() + runningShards.size(); // every shard that is not complete
+    } finally {
+      Runtime.getRuntime().removeShutdownHook(shutdownHook);
+    }
+
+    if (failedShards > 0) {
+      logger.severe("%d shards failed, the summary is not merged. Run the sweep again to retry them."
+          .formatted(failedShards));
+      return failedShards;
+    }
+    mergeSummaries(shards);
+    return 0;
+  }
+
+  /**
+   * Creates the directory of the shards, or checks that an existing one belongs to the same sweep.
+   */
+  private void prepareDirectory() {
+    String description = "%s%nrange=%d:%d%nshardSize=%d%n%s%n".formatted(sweep.getSpec(), sweep.getFrom(),
+        sweep.getTo(), sweep.getShardSize(), ResultCache.getCanonicalDescription(sweep.getBaseConfig()));
+    Path descriptionFile = directory.resolve(DESCRIPTION_FILE);
+    try {
+      Files.createDirectories(directory);
+      if (!Files.exists(descriptionFile)) {
+        Files.writeString(descriptionFile, description, StandardCharsets.UTF_8);
+      } else if (!Files.readString(descriptionFile, StandardCharsets.UTF_8).equals(description)) {
+        throw new IllegalStateException(("Директорія %s належить іншому перебору параметрів, видаліть її або "
+            + "змініть outputFilePrefix.").formatted(directory));
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Не вдалось підготувати директорію перебору: " + directory, e);
+    }
+  }
+
+  private void startWorker(Shard shard) {
+    List<String> command = new ArrayList<>();
+    command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+    command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+    // every worker sizes its thread pool to its part of the cores
+    int cores = Runtime.getRuntime().availableProcessors();
+    command.add("-XX:ActiveProcessorCount=" + Math.max(1, cores / sweep.getWorkers()));
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add(mainClass.getName());
+    command.addAll(workerArguments);
+    command.addAll(List.of("-w", "0", "-x", shard.from() + ":" + shard.to(),
+        "-o", getSummaryFile(shard).toString()));
+
+    try {
+      Process worker = new ProcessBuilder(command)
+          .redirectErrorStream(true)
+          .redirectOutput(getLogFile(shard))
+          .start();
+      synchronized (runningShards) {
+        runningShards.put(worker, shard);
+      }
+      worker.onExit().thenAccept(exitedWorkers::add);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Не вдалось запустити робочий процес для " + shard.getName(), e);
+    }
+  }
+
+  private void stopWorkers() {
+    synchronized (runningShards) {
+      runningShards.keySet().forEach(Process::destroy);
+    }
+  }
+
+  private void mergeSummaries(List<Shard> shards) {
+    Path file = sweep.getSummaryFile() != null ? Path.of(sweep.getSummaryFile()) : directory.resolve(SUMMARY_FILE);
+    SweepSummaryFile summary = new SweepSummaryFile(file);
+    for (Shard shard : shards) {
+      summary.addAll(getSummaryFile(shard));
+    }
+    summary.complete();
+    logger.info("Summary of the sweep is in %s.".formatted(file));
+  }
+
+  private Path getSummaryFile(Shard shard) {
+    return directory.resolve(shard.getName() + ".summary");
+  }
+
+  private File getLogFile(Shard shard) {
+    return directory.resolve(shard.getName() + ".log").toFile();
+  }
+}
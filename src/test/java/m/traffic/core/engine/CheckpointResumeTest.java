@@ -0,0 +1,101 @@
+package m.traffic.core.engine;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.function.Consumer;
+import m.traffic.core.data.config.SimulationConfig;
+import m.traffic.core.model.type.EngineType;
+import m.traffic.core.model.type.ModelType;
+import m.traffic.core.model.type.OutputFormat;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+/**
+ * A run stopped after a checkpoint and resumed with --resume writes the same files as a run that was not stopped.
+ */
+class CheckpointResumeTest {
+  private static final int STEP_COUNT = 200;
+  private static final int CHECKPOINT_INTERVAL = 25;
+
+  @TempDir
+  File directory;
+
+  @ParameterizedTest
+  @CsvSource({
+      "Nagel_Schreckenberg, true, text, 0, 60",
+      "Nagel_Schreckenberg, false, text, 0, 137",
+      "Velocity_Based_Model, true, binary, 0, 110",
+      "Velocity_Based_Model, false, binary, 4, 99",
+      "rule184, true, binary, 0, 75",
+      "rule184, false, text, 8, 130"
+  })
+  void resumedRunMatchesAnUninterruptedOne(String model, boolean cyclic, String outputFormat, int writeQueueSize,
+      int stoppedAfter) throws IOException {
+    Consumer<SimulationConfig> options = config -> {
+      config.setOutputFormat(OutputFormat.fromString(outputFormat));
+      config.setWriteQueueSize(writeQueueSize);
+    };
+    assertResumedRunMatches(ModelType.fromString(model), cyclic, stoppedAfter, options);
+  }
+
+  @Test
+  void aggregatesAndDetectorsContinueTheirWindows() throws IOException {
+    Consumer<SimulationConfig> options = config -> {
+      config.setAggregateSegmentLength(30);
+      config.setAggregateWindow(40); // the checkpoints fall inside windows and intervals
+      config.setDetectors("0, 100, 299");
+      config.setDetectorInterval(30);
+      config.setSteadyState(true);
+    };
+    assertResumedRunMatches(ModelType.NAGEL_SCHRECKENBERG, true, 90, options);
+    assertResumedRunMatches(ModelType.VELOCITY_BASED_MODEL, false, 140, config -> {
+      options.accept(config);
+      config.setWriteQueueSize(4);
+    });
+  }
+
+  @Test
+  void objectEngineHasNoCheckpoints() {
+    SimulationConfig config = SimulationRuns.config(ModelType.NAGEL_SCHRECKENBERG, true, directory);
+    config.setCheckpointInterval(CHECKPOINT_INTERVAL);
+    assertThrows(IllegalArgumentException.class, () -> SimulationRuns.run(config));
+  }
+
+  private void assertResumedRunMatches(ModelType modelType, boolean cyclic, int stoppedAfter,
+      Consumer<SimulationConfig> options) throws IOException {
+    String name = modelType.getName() + cyclic + stoppedAfter;
+    File uninterrupted = new File(directory, name + "_uninterrupted");
+    SimulationRuns.run(checkpointedConfig(modelType, cyclic, uninterrupted, STEP_COUNT, options));
+
+    // the stopped run wrote steps after its last checkpoint, the resumed one cuts them off
+    File resumed = new File(directory, name + "_resumed");
+    SimulationRuns.run(checkpointedConfig(modelType, cyclic, resumed, stoppedAfter, options));
+    SimulationConfig resumedConfig = checkpointedConfig(modelType, cyclic, resumed, STEP_COUNT, options);
+    resumedConfig.setResume(true);
+    SimulationRuns.run(resumedConfig);
+
+    Map<String, byte[]> expected = SimulationRuns.readOutput(uninterrupted);
+    Map<String, byte[]> actual = SimulationRuns.readOutput(resumed);
+    assertFalse(expected.isEmpty());
+    assertEquals(expected.keySet(), actual.keySet());
+    expected.forEach((file, bytes) -> assertArrayEquals(bytes, actual.get(file), file));
+  }
+
+  private static SimulationConfig checkpointedConfig(ModelType modelType, boolean cyclic, File output, int stepCount,
+      Consumer<SimulationConfig> options) {
+    SimulationConfig config = SimulationRuns.config(modelType, cyclic, output);
+    config.setEngineType(EngineType.ARRAY);
+    config.setStepCount(stepCount);
+    config.setCheckpointInterval(CHECKPOINT_INTERVAL);
+    options.accept(config);
+    return config;
+  }
+}
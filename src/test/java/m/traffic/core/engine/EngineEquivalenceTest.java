@@ -0,0 +1,110 @@
+package m.traffic.core.engine;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.function.Consumer;
+import m.traffic.core.data.config.SimulationConfig;
+import m.traffic.core.model.parallel.ParallelStepper;
+import m.traffic.core.model.type.EngineType;
+import m.traffic.core.model.type.ModelType;
+import m.traffic.core.model.type.OutputFormat;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+/**
+ * Engines that are documented to give the same trajectories write the same files.
+ */
+class EngineEquivalenceTest {
+
+  @TempDir
+  File directory;
+
+  @ParameterizedTest
+  @CsvSource({
+      "Nagel_Schreckenberg, true, array", "Nagel_Schreckenberg, false, array",
+      "Nagel_Schreckenberg, true, vector", "Nagel_Schreckenberg, false, vector",
+      "Nagel_Schreckenberg, true, offheap", "Nagel_Schreckenberg, false, offheap",
+      "Velocity_Based_Model, true, array", "Velocity_Based_Model, false, array",
+      "Velocity_Based_Model, true, vector", "Velocity_Based_Model, true, offheap",
+      "Rule184, true, array", "Rule184, false, array"
+  })
+  void engineMatchesTheObjectEngine(String model, boolean cyclic, String engine) throws IOException {
+    Map<String, byte[]> expected = runWith(model, cyclic, EngineType.OBJECT, 0, "object");
+    Map<String, byte[]> actual = runWith(model, cyclic, EngineType.fromString(engine), 0, engine);
+    assertSameFiles(expected, actual);
+  }
+
+  @ParameterizedTest
+  @CsvSource({
+      "Rule184, true, delta", "Rule184, false, delta", "Rule184, true, binary",
+      "Nagel_Schreckenberg, true, delta", "Nagel_Schreckenberg, false, binary"
+  })
+  void outputFormatMatchesTheObjectEngine(String model, boolean cyclic, String outputFormat) throws IOException {
+    Consumer<SimulationConfig> format = config -> config.setOutputFormat(OutputFormat.fromString(outputFormat));
+    Map<String, byte[]> expected = runWith(model, cyclic, "object", format);
+    Map<String, byte[]> actual = runWith(model, cyclic, "array", format.andThen(
+        config -> config.setEngineType(EngineType.ARRAY)));
+    assertSameFiles(expected, actual);
+  }
+
+  @ParameterizedTest
+  @CsvSource({"Nagel_Schreckenberg, 2", "Nagel_Schreckenberg, 3", "Velocity_Based_Model, 4"})
+  void segmentedEngineMatchesTheParallelArrayEngine(String model, int threads) throws IOException {
+    Map<String, byte[]> expected = runWith(model, true, EngineType.ARRAY, threads, "array");
+    Map<String, byte[]> actual = runWith(model, true, EngineType.SEGMENTED, threads, "segmented");
+    assertSameFiles(expected, actual);
+  }
+
+  @ParameterizedTest
+  @CsvSource({
+      "Nagel_Schreckenberg, true, object, 1", "Nagel_Schreckenberg, false, object, 2",
+      "Nagel_Schreckenberg, true, array, 1", "Nagel_Schreckenberg, false, array, 2",
+      "Nagel_Schreckenberg, true, vector, 2", "Nagel_Schreckenberg, false, offheap, 1",
+      "Velocity_Based_Model, true, array, 2", "Velocity_Based_Model, false, object, 1",
+      "Rule184, true, array, 1", "Rule184, false, array, 2", "Rule184, false, object, 2"
+  })
+  void resultsDoNotDependOnTheThreadCount(String model, boolean cyclic, String engine, int threads)
+      throws IOException {
+    // more cars than two chunks of the parallel step, so several threads really share the road
+    Consumer<SimulationConfig> largeRoad = config -> {
+      config.setRoadLength(30000);
+      config.setCarCount(2 * ParallelStepper.CHUNK_SIZE + 1000);
+      config.setStepCount(50);
+      config.setEngineType(EngineType.fromString(engine));
+    };
+    Map<String, byte[]> expected = runWith(model, cyclic, "threads8",
+        largeRoad.andThen(config -> config.setThreads(8)));
+    Map<String, byte[]> actual = runWith(model, cyclic, "threads" + threads,
+        largeRoad.andThen(config -> config.setThreads(threads)));
+    assertSameFiles(expected, actual);
+  }
+
+  private Map<String, byte[]> runWith(String model, boolean cyclic, EngineType engineType, int threads,
+      String name) throws IOException {
+    return runWith(model, cyclic, name, config -> {
+      config.setEngineType(engineType);
+      config.setThreads(threads);
+    });
+  }
+
+  private Map<String, byte[]> runWith(String model, boolean cyclic, String name, Consumer<SimulationConfig> options)
+      throws IOException {
+    File output = new File(directory, name);
+    SimulationConfig config = SimulationRuns.config(ModelType.fromString(model), cyclic, output);
+    options.accept(config);
+    SimulationRuns.run(config);
+    return SimulationRuns.readOutput(output);
+  }
+
+  private static void assertSameFiles(Map<String, byte[]> expected, Map<String, byte[]> actual) {
+    assertFalse(expected.isEmpty());
+    assertEquals(expected.keySet(), actual.keySet());
+    expected.forEach((file, bytes) -> assertArrayEquals(bytes, actual.get(file), file));
+  }
+}
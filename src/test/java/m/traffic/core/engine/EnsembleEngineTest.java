@@ -0,0 +1,86 @@
+package m.traffic.core.engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import m.traffic.core.data.config.SimulationConfig;
+import m.traffic.core.model.ensemble.EnsembleModel;
+import m.traffic.core.model.type.ModelType;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+/**
+ * A line of the ensemble file is the mean and the variance of the same lines of separate runs with the seeds of
+ * the replicas.
+ */
+class EnsembleEngineTest {
+  private static final String[] STATISTICS = {"density", "average_speed", "flow"};
+
+  @TempDir
+  File directory;
+
+  @ParameterizedTest
+  @CsvSource({"Nagel_Schreckenberg, true, 4", "Nagel_Schreckenberg, false, 3", "Velocity_Based_Model, true, 4",
+      "Velocity_Based_Model, false, 2"})
+  void ensembleMatchesSeparateRuns(String model, boolean cyclic, int replicas) throws IOException {
+    ModelType modelType = ModelType.fromString(model);
+    SimulationConfig config = SimulationRuns.config(modelType, cyclic, new File(directory, "ensemble"));
+    config.setReplicas(replicas);
+    EnsembleModel ensemble = new EnsembleModel();
+    ensemble.initialise(config);
+    new EnsembleEngine(ensemble).run();
+    Path ensembleFile = outputDirectory(new File(directory, "ensemble")).resolve("ensemble");
+    List<String> ensembleLines = Files.readAllLines(ensembleFile);
+
+    List<List<List<String>>> replicaLines = new ArrayList<>(); // replica, statistic, step
+    for (int replica = 0; replica < replicas; ++replica) {
+      File output = new File(directory, "single" + replica);
+      SimulationConfig single = SimulationRuns.config(modelType, cyclic, output);
+      single.setRandomSeed(config.getRandomSeed() + replica);
+      SimulationRuns.run(single);
+      List<List<String>> lines = new ArrayList<>();
+      for (String statistic : STATISTICS) {
+        lines.add(Files.readAllLines(outputDirectory(output).resolve(statistic)));
+      }
+      replicaLines.add(lines);
+    }
+
+    assertEquals(replicaLines.get(0).get(0).size(), ensembleLines.size());
+    for (int step = 0; step < ensembleLines.size(); ++step) {
+      StringBuilder expected = new StringBuilder();
+      for (int statistic = 0; statistic < STATISTICS.length; ++statistic) {
+        double[] values = new double[replicas];
+        for (int replica = 0; replica < replicas; ++replica) {
+          values[replica] = Double.parseDouble(replicaLines.get(replica).get(statistic).get(step));
+        }
+        appendMeanAndVariance(expected, values);
+      }
+      assertEquals(expected.toString(), ensembleLines.get(step), "step " + step);
+    }
+  }
+
+  private static void appendMeanAndVariance(StringBuilder row, double[] values) {
+    double mean = 0;
+    for (double value : values) {
+      mean += value;
+    }
+    mean /= values.length;
+    double squaredDeviations = 0;
+    for (double value : values) {
+      squaredDeviations += (value - mean) * (value - mean);
+    }
+    row.append(mean).append(' ').append(squaredDeviations / (values.length - 1)).append(' ');
+  }
+
+  private static Path outputDirectory(File output) throws IOException {
+    try (var directories = Files.list(output.toPath())) {
+      return directories.filter(Files::isDirectory).findFirst().orElseThrow();
+    }
+  }
+}
@@ -0,0 +1,54 @@
+package m.traffic.core.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+import m.traffic.core.data.config.SimulationConfig;
+import m.traffic.core.data.config.VelocityBasedModelConfig;
+import m.traffic.core.model.TrafficModel;
+import m.traffic.core.model.factory.ModelFactory;
+import m.traffic.core.model.type.ModelType;
+
+/**
+ * Runs of small configs for the engine tests and the files they write.
+ */
+final class SimulationRuns {
+
+  private SimulationRuns() {
+  }
+
+  static SimulationConfig config(ModelType modelType, boolean cyclic, File directory) {
+    String prefix = new File(directory, "run").getPath();
+    int maxSpeed = modelType == ModelType.RULE_184 ? 1 : 5;
+    if (modelType == ModelType.VELOCITY_BASED_MODEL) {
+      return new VelocityBasedModelConfig(300, 70, maxSpeed, 0, 0.3, cyclic, prefix, 200, 311, modelType, 0.6, true,
+          0.2);
+    }
+    return new SimulationConfig(300, 70, maxSpeed, 0, 0.3, cyclic, prefix, 200, 311, modelType);
+  }
+
+  static void run(SimulationConfig config) {
+    TrafficModel model = ModelFactory.createModel(config);
+    model.initialise(config);
+    new SimulationEngine(model).run();
+  }
+
+  /**
+   * Contents of the output files of the run by file name, without the checkpoint.
+   */
+  static Map<String, byte[]> readOutput(File directory) throws IOException {
+    Map<String, byte[]> files = new TreeMap<>();
+    try (Stream<Path> paths = Files.walk(directory.toPath())) {
+      for (Path path : paths.filter(Files::isRegularFile).toList()) {
+        if (!path.getFileName().toString().equals("checkpoint")) {
+          files.put(directory.toPath().relativize(path).toString(), Files.readAllBytes(path));
+        }
+      }
+    }
+    return files;
+  }
+}
@@ -0,0 +1,78 @@
+package m.traffic.core.model.hashlife;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+class Rule184HashlifeTest {
+
+  @ParameterizedTest
+  @CsvSource({
+      "64, 0.5, 4", "100, 0.3, 4", "1000, 0.5, 6", "1000, 0.7, 8", "4099, 0.45, 10", "300, 0.52, 12"
+  })
+  void advanceMatchesStepByStep(int roadLength, double density, int stepLevel) {
+    Random random = new Random(roadLength + stepLevel);
+    boolean[] cells = new boolean[roadLength];
+    for (int i = 0; i < roadLength; ++i) {
+      cells[i] = random.nextDouble() < density;
+    }
+    int detector = random.nextInt(roadLength);
+    long[] road = pack(cells);
+
+    long passed = new Rule184Hashlife().advance(road, roadLength, stepLevel, detector);
+
+    long expectedPassed = 0;
+    for (int step = 0; step < 1 << stepLevel; ++step) {
+      expectedPassed += cells[detector] && !cells[(detector + 1) % roadLength] ? 1 : 0;
+      cells = step(cells);
+    }
+    assertArrayEquals(pack(cells), road);
+    assertEquals(expectedPassed, passed);
+  }
+
+  @ParameterizedTest
+  @CsvSource({"1000, 0.5", "777, 0.2"})
+  void repeatedAdvancesReuseTheCache(int roadLength, double density) {
+    Random random = new Random(roadLength);
+    boolean[] cells = new boolean[roadLength];
+    for (int i = 0; i < roadLength; ++i) {
+      cells[i] = random.nextDouble() < density;
+    }
+    long[] road = pack(cells);
+    Rule184Hashlife hashlife = new Rule184Hashlife();
+    for (int jump = 0; jump < 4; ++jump) {
+      hashlife.advance(road, roadLength, 6, 0);
+      for (int step = 0; step < 64; ++step) {
+        cells = step(cells);
+      }
+      assertArrayEquals(pack(cells), road);
+    }
+  }
+
+  /**
+   * Rule 184 on a cyclic road: a car moves if the cell in front of it is empty.
+   */
+  private static boolean[] step(boolean[] cells) {
+    int length = cells.length;
+    boolean[] next = new boolean[length];
+    for (int i = 0; i < length; ++i) {
+      boolean left = cells[(i - 1 + length) % length];
+      boolean right = cells[(i + 1) % length];
+      next[i] = cells[i] ? right : left;
+    }
+    return next;
+  }
+
+  private static long[] pack(boolean[] cells) {
+    long[] road = new long[(cells.length + 63) / 64];
+    for (int i = 0; i < cells.length; ++i) {
+      if (cells[i]) {
+        road[i >>> 6] |= 1L << i;
+      }
+    }
+    return road;
+  }
+}
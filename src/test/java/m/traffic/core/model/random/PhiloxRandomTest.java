@@ -0,0 +1,41 @@
+package m.traffic.core.model.random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class PhiloxRandomTest {
+
+  // known-answer vectors of Philox4x32-10 from Random123 (kat_vectors), first two output words
+  @Test
+  void blockMatchesKnownAnswers() {
+    assertEquals(0x6627e8d5e169c58dL, new PhiloxRandom(0).block(0, 0, 0, 0));
+    assertEquals(0x408f276d41c83b0eL, new PhiloxRandom(-1).block(-1, -1, -1, -1));
+    assertEquals(0xd16cfe0994fdccebL, new PhiloxRandom(0x299f31d0a4093822L)
+        .block(0x243f6a88, 0x85a308d3, 0x13198a2e, 0x03707344));
+  }
+
+  @Test
+  void valuesDependOnlyOnTheirAddress() {
+    PhiloxRandom random = new PhiloxRandom(394);
+    double[] filled = new double[8];
+    random.fillDoubles(StepRandom.BRAKING_STREAM, 17, 100, filled, 0, filled.length);
+    for (int i = filled.length - 1; i >= 0; --i) {
+      assertEquals(filled[i], new PhiloxRandom(394).nextDouble(StepRandom.BRAKING_STREAM, 17, 100 + i));
+    }
+  }
+
+  @Test
+  void valuesAreInRange() {
+    PhiloxRandom random = new PhiloxRandom(7);
+    for (int index = 0; index < 1000; ++index) {
+      double value = random.nextDouble(StepRandom.EXIT_STREAM, 3, index);
+      assertTrue(value >= 0 && value < 1);
+      int bounded = random.nextInt(StepRandom.EXIT_STREAM, 3, index, 5);
+      assertTrue(bounded >= 0 && bounded < 5);
+    }
+    assertThrows(IllegalArgumentException.class, () -> random.nextInt(StepRandom.EXIT_STREAM, 0, 0, 0));
+  }
+}
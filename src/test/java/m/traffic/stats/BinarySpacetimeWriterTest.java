@@ -0,0 +1,155 @@
+package m.traffic.stats;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import m.traffic.core.data.config.SimulationConfig;
+import m.traffic.stats.BinarySpacetimeWriter.RowType;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class BinarySpacetimeWriterTest {
+  private static final int ROAD_LENGTH = 1001; // not a whole number of occupancy bytes
+  private static final int MAX_SPEED = 5;
+
+  @TempDir
+  File directory;
+
+  @ParameterizedTest
+  @ValueSource(booleans = {true, false})
+  void rowsReadBackAsWritten(boolean cyclic) throws IOException {
+    SimulationConfig config = RandomSteps.config(ROAD_LENGTH, cyclic);
+    List<RandomSteps> steps = randomSteps(150); // more than the write buffer
+    File occupancyFile = new File(directory, "occupancy.bin");
+    File velocityFile = new File(directory, "velocity.bin");
+    BinarySpacetimeWriter occupancy = new BinarySpacetimeWriter(occupancyFile, RowType.OCCUPANCY, config, false);
+    BinarySpacetimeWriter velocity = new BinarySpacetimeWriter(velocityFile, RowType.VELOCITY, config, false);
+    for (int step = 0; step < steps.size(); ++step) {
+      occupancy.writeRow(steps.get(step).snapshot(ROAD_LENGTH, step));
+      velocity.writeRow(steps.get(step).snapshot(ROAD_LENGTH, step));
+    }
+    occupancy.close();
+    velocity.close();
+
+    List<int[]> occupancyRows = readRows(occupancyFile, RowType.OCCUPANCY);
+    List<int[]> velocityRows = readRows(velocityFile, RowType.VELOCITY);
+    assertEquals(steps.size(), occupancyRows.size());
+    for (int step = 0; step < steps.size(); ++step) {
+      assertArrayEquals(expectedOccupancy(steps.get(step)), occupancyRows.get(step), "step " + step);
+      assertArrayEquals(expectedVelocities(steps.get(step), cyclic), velocityRows.get(step), "step " + step);
+    }
+  }
+
+  @Test
+  void resumedFileContinuesAfterTheLastRow() throws IOException {
+    SimulationConfig config = RandomSteps.config(ROAD_LENGTH, true);
+    List<RandomSteps> steps = randomSteps(20);
+    File file = new File(directory, "occupancy.bin");
+    BinarySpacetimeWriter writer = new BinarySpacetimeWriter(file, RowType.OCCUPANCY, config, false);
+    for (int step = 0; step < 10; ++step) {
+      writer.writeRow(steps.get(step).snapshot(ROAD_LENGTH, step));
+    }
+    writer.close();
+    writer = new BinarySpacetimeWriter(file, RowType.OCCUPANCY, config, true);
+    for (int step = 10; step < steps.size(); ++step) {
+      writer.writeRow(steps.get(step).snapshot(ROAD_LENGTH, step));
+    }
+    writer.close();
+
+    List<int[]> rows = readRows(file, RowType.OCCUPANCY);
+    assertEquals(steps.size(), rows.size());
+    for (int step = 0; step < steps.size(); ++step) {
+      assertArrayEquals(expectedOccupancy(steps.get(step)), rows.get(step), "step " + step);
+    }
+  }
+
+  @Test
+  void flushWritesTheRowCount() throws IOException {
+    SimulationConfig config = RandomSteps.config(ROAD_LENGTH, true);
+    File file = new File(directory, "velocity.bin");
+    BinarySpacetimeWriter writer = new BinarySpacetimeWriter(file, RowType.VELOCITY, config, false);
+    List<RandomSteps> steps = randomSteps(3);
+    for (int step = 0; step < steps.size(); ++step) {
+      writer.writeRow(steps.get(step).snapshot(ROAD_LENGTH, step));
+    }
+    writer.flush();
+    assertEquals(BinarySpacetimeWriter.HEADER_SIZE + 3L * ROAD_LENGTH, file.length());
+    assertEquals(3, readHeader(file).getLong(24));
+    writer.close();
+  }
+
+  private static List<RandomSteps> randomSteps(int count) {
+    Random random = new Random(count);
+    List<RandomSteps> steps = new ArrayList<>();
+    RandomSteps previous = null;
+    for (int step = 0; step < count; ++step) {
+      previous = step == 7 ? new RandomSteps(new int[0], new int[0]) // an empty road
+          : RandomSteps.next(random, previous, ROAD_LENGTH, 0.3, MAX_SPEED);
+      steps.add(previous);
+    }
+    return steps;
+  }
+
+  private static int[] expectedOccupancy(RandomSteps cars) {
+    int[] cells = new int[ROAD_LENGTH];
+    for (int position : cars.positions()) {
+      cells[position] = 1;
+    }
+    return cells;
+  }
+
+  /**
+   * Cells get the velocity of the next car, see StatsWriter.forEachCellVelocity.
+   */
+  private static int[] expectedVelocities(RandomSteps cars, boolean cyclic) {
+    int[] cells = new int[ROAD_LENGTH];
+    int carCount = cars.positions().length;
+    int afterLastCar = !cyclic ? MAX_SPEED : carCount > 0 ? cars.velocities()[0] : -1;
+    Arrays.fill(cells, afterLastCar);
+    for (int car = carCount - 1; car >= 0; --car) {
+      int from = car > 0 ? cars.positions()[car - 1] + 1 : 0;
+      Arrays.fill(cells, from, cars.positions()[car] + 1, cars.velocities()[car]);
+    }
+    return cells;
+  }
+
+  private static ByteBuffer readHeader(File file) throws IOException {
+    return ByteBuffer.wrap(Files.readAllBytes(file.toPath()), 0, BinarySpacetimeWriter.HEADER_SIZE)
+        .order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  private static List<int[]> readRows(File file, RowType rowType) throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+    assertEquals("TMST", new String(buffer.array(), 0, 4));
+    assertEquals(rowType.ordinal(), buffer.getInt(8));
+    assertEquals(MAX_SPEED, buffer.getInt(12));
+    assertEquals(ROAD_LENGTH, buffer.getLong(16));
+    long rowCount = buffer.getLong(24);
+    int rowBytes = rowType == RowType.OCCUPANCY ? (ROAD_LENGTH + 7) / 8 : ROAD_LENGTH;
+    assertEquals(BinarySpacetimeWriter.HEADER_SIZE + rowCount * rowBytes, buffer.limit());
+
+    List<int[]> rows = new ArrayList<>();
+    for (int row = 0; row < rowCount; ++row) {
+      int offset = BinarySpacetimeWriter.HEADER_SIZE + row * rowBytes;
+      int[] cells = new int[ROAD_LENGTH];
+      for (int cell = 0; cell < ROAD_LENGTH; ++cell) {
+        cells[cell] = rowType == RowType.OCCUPANCY
+            ? (buffer.get(offset + cell / 8) >>> (cell % 8)) & 1
+            : buffer.get(offset + cell);
+      }
+      rows.add(cells);
+    }
+    return rows;
+  }
+}
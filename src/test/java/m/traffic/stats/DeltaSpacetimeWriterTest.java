@@ -0,0 +1,158 @@
+package m.traffic.stats;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import m.traffic.core.data.config.SimulationConfig;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+class DeltaSpacetimeWriterTest {
+  private static final int MAX_SPEED = 5;
+  private static final int EMPTY = -1; // decoded cell without a car
+  private static final byte KEYFRAME = 0;
+
+  @TempDir
+  File directory;
+
+  @ParameterizedTest
+  @CsvSource({
+      "1000, 0.3, 7, 200", // buffer is flushed between frames
+      "300000, 0.5, 4, 6" // keyframes larger than the write buffer
+  })
+  void framesDecodeToTheWrittenCars(int roadLength, double density, int keyframeInterval, int stepCount)
+      throws IOException {
+    SimulationConfig config = RandomSteps.config(roadLength, true);
+    config.setDeltaKeyframeInterval(keyframeInterval);
+    List<RandomSteps> steps = randomSteps(roadLength, density, stepCount);
+    File file = new File(directory, "spacetime.delta");
+    DeltaSpacetimeWriter writer = new DeltaSpacetimeWriter(file, config, false);
+    for (int step = 0; step < steps.size(); ++step) {
+      writer.writeFrame(steps.get(step).snapshot(roadLength, step));
+    }
+    writer.close();
+
+    Decoded decoded = decode(file, roadLength);
+    assertEquals(steps.size(), decoded.frames().size());
+    for (int step = 0; step < steps.size(); ++step) {
+      assertArrayEquals(cells(steps.get(step), roadLength), decoded.frames().get(step), "step " + step);
+      assertEquals(step % keyframeInterval == 0, decoded.keyframes().get(step), "keyframe at step " + step);
+    }
+  }
+
+  @Test
+  void resumedFileStartsWithAKeyframe() throws IOException {
+    int roadLength = 500;
+    SimulationConfig config = RandomSteps.config(roadLength, true);
+    config.setDeltaKeyframeInterval(100);
+    List<RandomSteps> steps = randomSteps(roadLength, 0.4, 30);
+    File file = new File(directory, "spacetime.delta");
+    DeltaSpacetimeWriter writer = new DeltaSpacetimeWriter(file, config, false);
+    for (int step = 0; step < 12; ++step) {
+      writer.writeFrame(steps.get(step).snapshot(roadLength, step));
+    }
+    writer.close();
+    writer = new DeltaSpacetimeWriter(file, config, true);
+    for (int step = 12; step < steps.size(); ++step) {
+      writer.writeFrame(steps.get(step).snapshot(roadLength, step));
+    }
+    writer.close();
+
+    Decoded decoded = decode(file, roadLength);
+    assertEquals(steps.size(), decoded.frames().size());
+    for (int step = 0; step < steps.size(); ++step) {
+      assertArrayEquals(cells(steps.get(step), roadLength), decoded.frames().get(step), "step " + step);
+    }
+    assertEquals(true, decoded.keyframes().get(12)); // the previous cars of a resumed writer are not known
+  }
+
+  private static List<RandomSteps> randomSteps(int roadLength, double density, int count) {
+    Random random = new Random(roadLength + count);
+    List<RandomSteps> steps = new ArrayList<>();
+    RandomSteps previous = null;
+    for (int step = 0; step < count; ++step) {
+      previous = step == 3 ? new RandomSteps(new int[0], new int[0]) // an empty road
+          : RandomSteps.next(random, previous, roadLength, density, MAX_SPEED);
+      steps.add(previous);
+    }
+    return steps;
+  }
+
+  private static int[] cells(RandomSteps cars, int roadLength) {
+    int[] cells = new int[roadLength];
+    Arrays.fill(cells, EMPTY);
+    for (int car = 0; car < cars.positions().length; ++car) {
+      cells[cars.positions()[car]] = cars.velocities()[car];
+    }
+    return cells;
+  }
+
+  private record Decoded(List<int[]> frames, List<Boolean> keyframes) {
+  }
+
+  /**
+   * Velocity of every cell after every frame, like read_delta_spacetime of plot/stats/stats_reader.py.
+   */
+  private static Decoded decode(File file, int roadLength) throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+    assertEquals("TMSD", new String(buffer.array(), 0, 4));
+    assertEquals(MAX_SPEED, buffer.getShort(12));
+    assertEquals(roadLength, buffer.getLong(16));
+    long frameCount = buffer.getLong(24);
+
+    List<int[]> frames = new ArrayList<>();
+    List<Boolean> keyframes = new ArrayList<>();
+    int[] cells = new int[roadLength];
+    buffer.position(BinarySpacetimeWriter.HEADER_SIZE);
+    while (buffer.hasRemaining()) {
+      byte kind = buffer.get();
+      int end = buffer.getInt();
+      end += buffer.position();
+      if (kind == KEYFRAME) {
+        Arrays.fill(cells, EMPTY);
+        int carCount = getVarint(buffer);
+        int position = 0;
+        for (int car = 0; car < carCount; ++car) {
+          position += getVarint(buffer);
+          cells[position] = buffer.get();
+        }
+      } else {
+        int cell = 0;
+        while (buffer.position() < end) {
+          cell += getVarint(buffer);
+          int run = getVarint(buffer);
+          for (int i = 0; i < run; ++i) {
+            cells[cell++] = buffer.get() - 1; // 0 is an empty cell, otherwise velocity + 1
+          }
+        }
+      }
+      assertEquals(end, buffer.position());
+      frames.add(cells.clone());
+      keyframes.add(kind == KEYFRAME);
+    }
+    assertEquals(frameCount, frames.size());
+    return new Decoded(frames, keyframes);
+  }
+
+  private static int getVarint(ByteBuffer buffer) {
+    int value = 0;
+    for (int shift = 0; ; shift += 7) {
+      byte part = buffer.get();
+      value |= (part & 0x7F) << shift;
+      if (part >= 0) {
+        return value;
+      }
+    }
+  }
+}
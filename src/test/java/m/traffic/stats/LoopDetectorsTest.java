@@ -0,0 +1,137 @@
+package m.traffic.stats;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import m.traffic.core.data.config.SimulationConfig;
+import m.traffic.core.data.config.VelocityBasedModelConfig;
+import m.traffic.core.data.state.TrafficSnapshot;
+import m.traffic.core.model.TrafficModel;
+import m.traffic.core.model.factory.ModelFactory;
+import m.traffic.core.model.type.EngineType;
+import m.traffic.core.model.type.ModelType;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+/**
+ * Detectors at cells 1 .. maxSpeed - 2 of an open road, where the last car is put back when it leaves the road.
+ */
+class LoopDetectorsTest {
+  private static final int MAX_SPEED = 5;
+  private static final int[] DETECTORS = {1, 2, 3};
+
+  @TempDir
+  File directory;
+
+  @Test
+  void enteredCarPassesNoDetector() throws IOException {
+    SimulationConfig config = detectorConfig(RandomSteps.config(50, false), 1);
+    RandomSteps cars = new RandomSteps(new int[] {3, 20}, new int[] {2, 5});
+
+    TrafficSnapshot entered = cars.snapshot(50, 0);
+    entered.setEnteredCars(1);
+    assertEquals("0 NaN 0.0 0 NaN 0.0 0 NaN 1.0", writeInterval(config, entered));
+    // the same car that drove from cell 1 crossed cells 1 and 2
+    assertEquals("1 2.0 0.0 1 2.0 0.0 0 NaN 1.0", writeInterval(config, cars.snapshot(50, 0)));
+  }
+
+  @ParameterizedTest
+  @CsvSource({
+      "Nagel_Schreckenberg, object", "Nagel_Schreckenberg, array", "Nagel_Schreckenberg, offheap",
+      "Velocity_Based_Model, object"
+  })
+  void countsOnlyCellsTheCarsDroveOver(String model, String engine) {
+    int steps = 400;
+    SimulationConfig config = modelConfig(ModelType.fromString(model), steps);
+    config.setEngineType(EngineType.fromString(engine));
+    TrafficModel trafficModel = ModelFactory.createModel(config);
+    trafficModel.initialise(config);
+    LoopDetectors detectors = new LoopDetectors(detectorConfig(config, steps));
+
+    long[] expected = new long[DETECTORS.length];
+    trafficModel.nextStep(); // not every model has a snapshot of the initial cars
+    int[] previous = positions(trafficModel.getSnapshot());
+    int enteredSteps = 0;
+    for (int step = 1; step < steps; ++step) {
+      trafficModel.nextStep();
+      TrafficSnapshot snapshot = trafficModel.getSnapshot();
+      int[] current = positions(snapshot);
+      // the last car left the road if it is behind where it was, it is the first car then
+      int entered = current[current.length - 1] < previous[previous.length - 1] ? 1 : 0;
+      assertEquals(entered, snapshot.getEnteredCars(), "step " + step);
+      enteredSteps += entered;
+      for (int car = entered; car < current.length; ++car) {
+        int from = previous[car - entered];
+        for (int detector = 0; detector < DETECTORS.length; ++detector) {
+          if (from <= DETECTORS[detector] && DETECTORS[detector] < current[car]) {
+            expected[detector]++;
+          }
+        }
+      }
+      detectors.add(snapshot);
+      previous = current;
+    }
+    trafficModel.getStatsCollector().close();
+
+    assertTrue(enteredSteps > 0);
+    assertArrayEquals(expected, counts(detectors));
+  }
+
+  private SimulationConfig modelConfig(ModelType modelType, int steps) {
+    String prefix = new File(directory, "run").getPath();
+    if (modelType == ModelType.VELOCITY_BASED_MODEL) {
+      return new VelocityBasedModelConfig(100, 25, MAX_SPEED, 0, 0.3, false, prefix, steps, 7, modelType, 0.6, true,
+          0.2);
+    }
+    return new SimulationConfig(100, 25, MAX_SPEED, 0, 0.3, false, prefix, steps, 7, modelType);
+  }
+
+  private static SimulationConfig detectorConfig(SimulationConfig config, int interval) {
+    config.setDetectors(Arrays.toString(DETECTORS).replaceAll("[\\[\\] ]", ""));
+    config.setDetectorInterval(interval);
+    return config;
+  }
+
+  private static String writeInterval(SimulationConfig config, TrafficSnapshot snapshot) throws IOException {
+    LoopDetectors detectors = new LoopDetectors(config);
+    detectors.add(snapshot);
+    StringWriter line = new StringWriter();
+    try (BufferedWriter writer = new BufferedWriter(line)) {
+      detectors.writeInterval(writer);
+    }
+    return line.toString().strip();
+  }
+
+  /**
+   * Cars counted by every detector in the current interval, read from the saved state.
+   */
+  private static long[] counts(LoopDetectors detectors) {
+    ByteBuffer state = ByteBuffer.allocate(detectors.getStateSize());
+    detectors.saveState(state);
+    state.flip().getInt(); // steps of the interval
+    long[] counts = new long[DETECTORS.length];
+    for (int detector = 0; detector < counts.length; ++detector) {
+      counts[detector] = state.getLong();
+      state.getLong(); // velocity sum
+      state.getLong(); // occupied steps
+    }
+    return counts;
+  }
+
+  private static int[] positions(TrafficSnapshot snapshot) {
+    int[] positions = new int[snapshot.getCarCount()];
+    for (int car = 0; car < positions.length; ++car) {
+      positions[car] = snapshot.getPosition(car);
+    }
+    return positions;
+  }
+}
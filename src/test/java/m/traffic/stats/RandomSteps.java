@@ -0,0 +1,66 @@
+package m.traffic.stats;
+
+import java.util.Arrays;
+import java.util.Random;
+import m.traffic.core.data.config.SimulationConfig;
+import m.traffic.core.data.state.CarView;
+import m.traffic.core.data.state.TrafficSnapshot;
+import m.traffic.core.model.type.ModelType;
+
+/**
+ * Snapshots of random cars for the writer tests, sorted by position like the models publish them.
+ */
+record RandomSteps(int[] positions, int[] velocities) implements CarView {
+
+  static SimulationConfig config(int roadLength, boolean cyclic) {
+    return new SimulationConfig(roadLength, 0, 5, 0, 0.3, cyclic, "out/test", 100, 1, ModelType.NAGEL_SCHRECKENBERG);
+  }
+
+  /**
+   * Cars in about density of the cells, most of them where they were in the previous step so deltas stay small.
+   */
+  static RandomSteps next(Random random, RandomSteps previous, int roadLength, double density, int maxSpeed) {
+    boolean[] occupied = new boolean[roadLength];
+    int[] velocity = new int[roadLength];
+    for (int cell = 0; cell < roadLength; ++cell) {
+      boolean keep = previous != null && random.nextDouble() < 0.9;
+      occupied[cell] = keep ? previous.isOccupied(cell) : random.nextDouble() < density;
+      velocity[cell] = random.nextInt(maxSpeed + 1);
+    }
+    int carCount = 0;
+    for (boolean car : occupied) {
+      carCount += car ? 1 : 0;
+    }
+    int[] positions = new int[carCount];
+    int[] velocities = new int[carCount];
+    int car = 0;
+    for (int cell = 0; cell < roadLength; ++cell) {
+      if (occupied[cell]) {
+        positions[car] = cell;
+        velocities[car++] = velocity[cell];
+      }
+    }
+    return new RandomSteps(positions, velocities);
+  }
+
+  private boolean isOccupied(int cell) {
+    return Arrays.binarySearch(positions, cell) >= 0;
+  }
+
+  TrafficSnapshot snapshot(int roadLength, int step) {
+    TrafficSnapshot snapshot = new TrafficSnapshot();
+    snapshot.setCarView(this);
+    snapshot.setStep(roadLength, positions.length, step, 0);
+    return snapshot;
+  }
+
+  @Override
+  public int getPosition(int index) {
+    return positions[index];
+  }
+
+  @Override
+  public int getVelocity(int index) {
+    return velocities[index];
+  }
+}
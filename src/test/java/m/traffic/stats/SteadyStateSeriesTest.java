@@ -0,0 +1,68 @@
+package m.traffic.stats;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class SteadyStateSeriesTest {
+
+  @Test
+  void independentValuesGetAnIntervalAroundTheirMean() {
+    Random random = new Random(1);
+    SteadyStateSeries series = new SteadyStateSeries();
+    for (int step = 0; step < 4000; ++step) {
+      series.add(2 + random.nextGaussian());
+    }
+    SteadyStateSeries.Estimate estimate = series.estimate();
+    assertTrue(estimate.halfWidth() < 0.1, "half-width " + estimate.halfWidth());
+    assertTrue(Math.abs(estimate.mean() - 2) <= estimate.halfWidth(), "mean " + estimate.mean());
+  }
+
+  @Test
+  void shortCorrelatedSeriesHasNoInterval() {
+    // AR(1) with a correlation time of about 1000 steps, batches of a few steps are far from independent
+    SteadyStateSeries series = autoregressive(0.999, 5000, new Random(2));
+    assertEquals(Double.POSITIVE_INFINITY, series.estimate().halfWidth());
+  }
+
+  @Test
+  void constantSeriesHasAnIntervalOfZeroWidth() {
+    SteadyStateSeries series = new SteadyStateSeries();
+    for (int step = 0; step < 1000; ++step) {
+      series.add(1);
+    }
+    assertEquals(new SteadyStateSeries.Estimate(1, 0, 0), series.estimate());
+  }
+
+  @Test
+  void restoredSeriesContinuesLikeTheSavedOne() {
+    Random random = new Random(3);
+    SteadyStateSeries series = autoregressive(0.9, 30000, random); // past the first merge of batches
+    ByteBuffer state = ByteBuffer.allocate(SteadyStateSeries.getStateSize());
+    series.saveState(state);
+    assertEquals(SteadyStateSeries.getStateSize(), state.position());
+
+    SteadyStateSeries restored = new SteadyStateSeries();
+    restored.restoreState(state.flip());
+    assertEquals(SteadyStateSeries.getStateSize(), state.position());
+    for (int step = 0; step < 3000; ++step) {
+      double value = random.nextGaussian();
+      series.add(value);
+      restored.add(value);
+    }
+    assertEquals(series.estimate(), restored.estimate());
+  }
+
+  private static SteadyStateSeries autoregressive(double coefficient, int steps, Random random) {
+    SteadyStateSeries series = new SteadyStateSeries();
+    double value = 0;
+    for (int step = 0; step < steps; ++step) {
+      value = coefficient * value + random.nextGaussian();
+      series.add(value);
+    }
+    return series;
+  }
+}
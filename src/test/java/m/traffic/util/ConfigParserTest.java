@@ -0,0 +1,92 @@
+package m.traffic.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import m.traffic.core.data.config.SimulationConfig;
+import m.traffic.core.data.config.VelocityBasedModelConfig;
+import m.traffic.core.model.type.EngineType;
+import org.apache.commons.cli.ParseException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+class ConfigParserTest {
+
+  @TempDir
+  File directory;
+
+  @Test
+  void keysAfterAnOptionKeepTheirValues() throws IOException, ParseException {
+    SimulationConfig config = parse("""
+        model=velocity_based_model
+        roadLength=500
+        engine=array
+        threads=2
+        fastForward=True
+        replicas=3
+        ciTargetWidth=0.01
+        maxSpeedBrakingProbability=0.25
+        """);
+    assertEquals(500, config.getRoadLength());
+    assertEquals(EngineType.ARRAY, config.getEngineType());
+    assertEquals(2, config.getThreads());
+    assertTrue(config.isFastForward());
+    assertEquals(3, config.getReplicas());
+    assertEquals(0.01, config.getCiTargetWidth());
+    assertEquals(0.25, ((VelocityBasedModelConfig) config).getMaxSpeedBrakingProbability());
+  }
+
+  @ParameterizedTest
+  @CsvSource({
+      "threads, x", "replicas, 1.5", "ciTargetWidth, wide", "fastForward, yes", "engine, gpu",
+      "roadLength, 10e3", "randomSeed, seed", "maxSpeedBrakingProbability, high"
+  })
+  void badValueNamesItsKey(String key, String value) throws IOException {
+    String text = "model=velocity_based_model\n%s=%s\nwriteQueueSize=2\n".formatted(key, value);
+    IllegalArgumentException error = assertThrows(IllegalArgumentException.class, () -> parse(text));
+    assertEquals("Неправильне значення параметра %s: %s".formatted(key, value), error.getMessage());
+  }
+
+  @ParameterizedTest
+  @CsvSource({"sweepWorkers, two", "sweepShardSize, 1.5", "continuationStepCount, x", "sweepContinuation, sideways"})
+  void badSweepValueNamesItsKey(String key, String value) throws IOException {
+    String text = "sweep=carCount:10:20:5\n%s=%s\n".formatted(key, value);
+    IllegalArgumentException error = assertThrows(IllegalArgumentException.class, () -> parseSweep(text));
+    assertEquals("Неправильне значення параметра %s: %s".formatted(key, value), error.getMessage());
+  }
+
+  @Test
+  void sweepOptionOverridesTheConfigFile() throws IOException, ParseException {
+    String text = "sweep=carCount:10:20:5\nsweepWorkers=2\nsweepShardSize=100\n";
+    assertEquals(3, parseSweep(text, "-w", "3").getWorkers());
+    assertEquals(100, parseSweep(text, "-w", "3").getShardSize());
+    IllegalArgumentException error = assertThrows(IllegalArgumentException.class,
+        () -> parseSweep(text, "-z", "many"));
+    assertEquals("Неправильне значення параметра sweepShardSize: many", error.getMessage());
+  }
+
+  private ConfigSweep parseSweep(String text, String... options) throws IOException, ParseException {
+    File file = new File(directory, "config");
+    Files.writeString(file.toPath(), text);
+    String[] args = new String[options.length + 2];
+    args[0] = "-c";
+    args[1] = file.getPath();
+    System.arraycopy(options, 0, args, 2, options.length);
+    return ConfigParser.getSweep(args);
+  }
+
+  private SimulationConfig parse(String text) throws IOException, ParseException {
+    File file = new File(directory, "config");
+    Files.writeString(file.toPath(), text);
+    List<SimulationConfig> configs = ConfigParser.getSimulationConfig(new String[] {"-c", file.getPath()});
+    assertEquals(1, configs.size());
+    return configs.get(0);
+  }
+}